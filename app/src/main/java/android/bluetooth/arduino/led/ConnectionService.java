@@ -0,0 +1,256 @@
+package android.bluetooth.arduino.led;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.arduino.led.bluetooth.BluetoothConnectionController;
+import android.bluetooth.arduino.led.bluetooth.BluetoothEventListener;
+import android.bluetooth.arduino.led.bluetooth.DeviceCache;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import java.util.ArrayList;
+
+// owns the connection, so rotating or leaving the activity does not close the socket. activities, the
+// widget and the tile bind to it and attach as listeners; while a device is connected or being connected
+// the service runs in the foreground and keeps the process alive. everything here runs on the main thread
+public class ConnectionService extends Service implements BluetoothEventListener {
+    public static final String ACTION_DISCONNECT = "android.bluetooth.arduino.led.DISCONNECT";
+    // the tile and the widget: switch the light, connecting to the last device first when needed
+    public static final String ACTION_TOGGLE = "android.bluetooth.arduino.led.TOGGLE";
+    private static final String CHANNEL = "connection";
+    private static final int NOTIFICATION_ID = 1;
+
+    public class LocalBinder extends Binder {
+        public ConnectionService getService() {
+            return ConnectionService.this;
+        }
+    }
+
+    private final LocalBinder binder = new LocalBinder();
+    private final ArrayList<BluetoothEventListener> listeners = new ArrayList<>();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private BluetoothConnectionController controller;
+    // null while not connected
+    private String connectedName;
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent != null && ACTION_DISCONNECT.equals(intent.getAction())) {
+            disconnect();
+            return START_NOT_STICKY;
+        }
+        startForeground(NOTIFICATION_ID, notification(connectedName != null ? "Connected to '" + connectedName + "'" : "Connecting..."));
+        if (intent != null && ACTION_TOGGLE.equals(intent.getAction())) {
+            // a bound activity can keep an idle service and its controller alive, nothing is on its way then either
+            boolean idle = !isConnected() && (controller == null || !controller.isReconnecting());
+            if (idle && !connectLastDevice()) {
+                // nothing to talk to, the app has to pick a device first
+                stopForeground(true);
+                stopSelf();
+                return START_NOT_STICKY;
+            }
+            setLight(!isLightOn(this));
+        }
+        // without the device to connect to a restarted service could not do anything
+        return START_NOT_STICKY;
+    }
+
+    // null until connect() was called
+    public BluetoothConnectionController getController() {
+        return controller;
+    }
+
+    public boolean isConnected() {
+        return connectedName != null;
+    }
+
+    public void connect(BluetoothDevice device) {
+        if (controller == null) {
+            // not frame paced: the service has to hear about the link with the screen off
+            controller = new BluetoothConnectionController(this, this, handler::post);
+        }
+        // started, not only bound, so the connection stays when the last activity unbinds
+        ContextCompat.startForegroundService(this, new Intent(this, ConnectionService.class));
+        controller.connect(device);
+    }
+
+    // the cold path: no discovery and no UI, the command waits in the journal until the link is up
+    private boolean connectLastDevice() {
+        String lastDevice = getSharedPreferences("bluetooth", MODE_PRIVATE).getString("last_device", null);
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (lastDevice == null || bluetoothAdapter == null || !bluetoothAdapter.isEnabled()) {
+            return false;
+        }
+        connect(bluetoothAdapter.getRemoteDevice(lastDevice));
+        return true;
+    }
+
+    // what was last asked for, the device may still be on its way there
+    public static boolean isLightOn(Context context) {
+        return context.getSharedPreferences("bluetooth", MODE_PRIVATE).getBoolean("light_on", false);
+    }
+
+    // the LED and the RGB LED together, the tile and the widget follow it
+    public boolean setLight(boolean on) {
+        if (controller == null) {
+            return false;
+        }
+        boolean sent = controller.setLight(on);
+        getSharedPreferences("bluetooth", MODE_PRIVATE).edit()
+                .putBoolean("light_on", on)
+                .apply();
+        LightWidgetProvider.update(this, on);
+        LightTileService.refresh(this);
+        return sent;
+    }
+
+    public void disconnect() {
+        if (controller != null) {
+            controller.destroy();
+            controller = null;
+        }
+        if (connectedName != null) {
+            connectedName = null;
+            for (BluetoothEventListener listener : snapshot()) {
+                listener.bluetoothDisconnect();
+            }
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    // the listener hears the current state right away, then every change
+    public void addListener(BluetoothEventListener listener) {
+        listeners.add(listener);
+        if (connectedName != null) {
+            listener.bluetoothConnected(connectedName);
+        } else {
+            listener.bluetoothDisconnect();
+        }
+    }
+
+    public void removeListener(BluetoothEventListener listener) {
+        listeners.remove(listener);
+    }
+
+    // a listener may remove itself while it is called
+    private BluetoothEventListener[] snapshot() {
+        return listeners.toArray(new BluetoothEventListener[0]);
+    }
+
+    @Override
+    public void bluetoothConnecting() {
+        for (BluetoothEventListener listener : snapshot()) {
+            listener.bluetoothConnecting();
+        }
+    }
+
+    @Override
+    public void bluetoothConnected(String name) {
+        connectedName = name != null ? name : "";
+        if (controller != null && controller.getDeviceAddress() != null) {
+            String address = controller.getDeviceAddress();
+            getSharedPreferences("bluetooth", MODE_PRIVATE).edit()
+                    .putString("last_device", address)
+                    .apply();
+            new DeviceCache(this).recordSuccess(address);
+        }
+        updateNotification("Connected to '" + connectedName + "'");
+        for (BluetoothEventListener listener : snapshot()) {
+            listener.bluetoothConnected(connectedName);
+        }
+    }
+
+    @Override
+    public void bluetoothDisconnect() {
+        boolean wasConnected = connectedName != null;
+        connectedName = null;
+        if (wasConnected && controller != null) {
+            // the supervisor reconnects on its own
+            updateNotification("Reconnecting...");
+        }
+        for (BluetoothEventListener listener : snapshot()) {
+            listener.bluetoothDisconnect();
+        }
+        stopIfIdle();
+    }
+
+    @Override
+    public void bluetoothConnectionFailed() {
+        for (BluetoothEventListener listener : snapshot()) {
+            listener.bluetoothConnectionFailed();
+        }
+        stopIfIdle();
+    }
+
+    // a device out of range or a supervisor that gave up: nothing is on its way, so the notification and
+    // the process do not stay. a bound activity keeps the service and its controller for the next connect
+    private void stopIfIdle() {
+        if (connectedName == null && controller != null && !controller.isReconnecting()) {
+            stopForeground(true);
+            stopSelf();
+        }
+    }
+
+    @Override
+    public void bluetoothDataTransfer(byte[] buffer, int offset, int length) {
+        for (BluetoothEventListener listener : snapshot()) {
+            listener.bluetoothDataTransfer(buffer, offset, length);
+        }
+    }
+
+    private void updateNotification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (manager != null) {
+            manager.notify(NOTIFICATION_ID, notification(text));
+        }
+    }
+
+    private Notification notification(String text) {
+        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O && manager != null) {
+            manager.createNotificationChannel(new NotificationChannel(CHANNEL, "Connection", NotificationManager.IMPORTANCE_LOW));
+        }
+        PendingIntent open = PendingIntent.getActivity(this, 0, new Intent(this, MainActivity.class), PendingIntent.FLAG_UPDATE_CURRENT);
+        PendingIntent stop = PendingIntent.getService(this, 1, new Intent(this, ConnectionService.class).setAction(ACTION_DISCONNECT),
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        return new NotificationCompat.Builder(this, CHANNEL)
+                .setSmallIcon(android.R.drawable.stat_sys_data_bluetooth)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(text)
+                .setContentIntent(open)
+                .addAction(android.R.drawable.ic_menu_close_clear_cancel, "Disconnect", stop)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        if (controller != null) {
+            controller.destroy();
+            controller = null;
+        }
+        listeners.clear();
+        super.onDestroy();
+    }
+}
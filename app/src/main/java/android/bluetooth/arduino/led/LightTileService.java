@@ -0,0 +1,45 @@
+package android.bluetooth.arduino.led;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.service.quicksettings.Tile;
+import android.service.quicksettings.TileService;
+
+import androidx.annotation.RequiresApi;
+import androidx.core.content.ContextCompat;
+
+// the quick settings tile. a tap only hands the toggle to the connection service, which is warm while
+// a device is connected and otherwise connects to the last device without starting any UI
+@RequiresApi(api = Build.VERSION_CODES.N)
+public class LightTileService extends TileService {
+
+    @Override
+    public void onStartListening() {
+        show(ConnectionService.isLightOn(this));
+    }
+
+    @Override
+    public void onClick() {
+        boolean on = !ConnectionService.isLightOn(this);
+        ContextCompat.startForegroundService(this, new Intent(this, ConnectionService.class).setAction(ConnectionService.ACTION_TOGGLE));
+        // shown right away, the service confirms it through refresh()
+        show(on);
+    }
+
+    private void show(boolean on) {
+        Tile tile = getQsTile();
+        if (tile != null) {
+            tile.setState(on ? Tile.STATE_ACTIVE : Tile.STATE_INACTIVE);
+            tile.updateTile();
+        }
+    }
+
+    // asks the system to bind the tile again so it shows the current state
+    static void refresh(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            TileService.requestListeningState(context, new ComponentName(context, LightTileService.class));
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package android.bluetooth.arduino.led;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.widget.RemoteViews;
+
+// the home screen switch, a tap goes straight to the connection service like the tile does
+public class LightWidgetProvider extends AppWidgetProvider {
+    private static final int COLOR_ON = 0xff4CAF50;
+    private static final int COLOR_OFF = 0xffE91E63;
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        update(context, ConnectionService.isLightOn(context));
+    }
+
+    static void update(Context context, boolean on) {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] ids = manager.getAppWidgetIds(new ComponentName(context, LightWidgetProvider.class));
+        if (ids == null || ids.length == 0) {
+            return;
+        }
+        Intent toggle = new Intent(context, ConnectionService.class).setAction(ConnectionService.ACTION_TOGGLE);
+        PendingIntent click = Build.VERSION.SDK_INT >= Build.VERSION_CODES.O
+                ? PendingIntent.getForegroundService(context, 0, toggle, PendingIntent.FLAG_UPDATE_CURRENT)
+                : PendingIntent.getService(context, 0, toggle, PendingIntent.FLAG_UPDATE_CURRENT);
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_light);
+        views.setTextViewText(R.id.widget_light, on ? "Light on" : "Light off");
+        views.setInt(R.id.widget_light, "setBackgroundColor", on ? COLOR_ON : COLOR_OFF);
+        views.setOnClickPendingIntent(R.id.widget_light, click);
+        manager.updateAppWidget(ids, views);
+    }
+}
@@ -1,35 +1,98 @@
 package android.bluetooth.arduino.led;
 
+import android.Manifest;
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.arduino.led.bluetooth.BluetoothConnectionController;
 import android.bluetooth.arduino.led.bluetooth.BluetoothManager;
 import android.bluetooth.arduino.led.bluetooth.BluetoothEventListener;
+import android.bluetooth.arduino.led.effect.Chase;
+import android.bluetooth.arduino.led.effect.Effect;
+import android.bluetooth.arduino.led.effect.Fade;
+import android.bluetooth.arduino.led.effect.Pulse;
+import android.bluetooth.arduino.led.effect.Strobe;
+import android.bluetooth.arduino.led.scene.CompiledScene;
+import android.bluetooth.arduino.led.scene.SceneStore;
+import android.bluetooth.arduino.led.voice.CommandGrammar;
+import android.bluetooth.arduino.led.voice.VoiceCommand;
+import android.bluetooth.arduino.led.voice.VoiceControl;
+import android.content.ComponentName;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.speech.RecognizerIntent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
+import androidx.core.app.ActivityCompat;
 
 import com.google.android.material.snackbar.Snackbar;
 
 import java.util.ArrayList;
 import java.util.Locale;
 
-public class MainActivity extends AppCompatActivity implements BluetoothEventListener {
+public class MainActivity extends AppCompatActivity implements BluetoothEventListener, VoiceControl.Listener {
 
     private boolean hasConnection;
+    private boolean connectingToLastDevice;
     private BluetoothManager bluetoothManager;
+    // owned by the ConnectionService, the activity only borrows it while bound
     private BluetoothConnectionController bluetoothConnectionController;
+    private ConnectionService connectionService;
+    private final ServiceConnection serviceConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder service) {
+            connectionService = ((ConnectionService.LocalBinder) service).getService();
+            bluetoothConnectionController = connectionService.getController();
+            if (bluetoothConnectionController != null) {
+                telemetry.setStore(bluetoothConnectionController.getTelemetry());
+            }
+            connectionService.addListener(MainActivity.this);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            connectionService = null;
+            bluetoothConnectionController = null;
+        }
+    };
     private final int REQUEST_CODE = 1001;
+    private final int REQUEST_RECORD_AUDIO = 1002;
+    // built on first use, starting the app for a tap on the light does not pay for it
+    private CommandGrammar grammar;
+    private final VoiceCommand voiceCommand = new VoiceCommand();
+    private VoiceControl voiceControl;
+    private SceneStore sceneStore;
+    // grammar index of the connected device, so "kitchen off" only acts when the kitchen is connected
+    private int connectedDevice = VoiceCommand.ANY_DEVICE;
     private TextView status;
+    private TextView statistics;
+    private TelemetryChartView telemetry;
+    private final Handler statisticsHandler = new Handler(Looper.getMainLooper());
+    private final Runnable statisticsUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if (bluetoothConnectionController != null) {
+                bluetoothConnectionController.ping();
+                statistics.setText(bluetoothConnectionController.getMetrics() + "\n" + bluetoothConnectionController.getStateLog(4));
+            } else {
+                statistics.setText("No connection");
+            }
+            statisticsHandler.postDelayed(this, 1000);
+        }
+    };
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
@@ -54,6 +117,15 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
             case R.id.disconnect:
                 destroyBluetoothController();
                 return true;
+            case R.id.statistics:
+                toggleStatistics();
+                return true;
+            case R.id.telemetry:
+                telemetry.setVisibility(telemetry.getVisibility() == View.VISIBLE ? View.GONE : View.VISIBLE);
+                return true;
+            case R.id.scenes:
+                showScenes();
+                return true;
             case R.id.about:
                 new AlertDialog.Builder(this)
                         .setTitle(R.string.app_name)
@@ -66,7 +138,50 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
         }
     }
 
+    private void showScenes() {
+        if (sceneStore == null) {
+            sceneStore = new SceneStore(this);
+        }
+        final ArrayList<String> names = sceneStore.getNames();
+        new AlertDialog.Builder(this)
+                .setTitle("Scenes")
+                .setItems(names.toArray(new String[0]), (dialog, which) -> playScene(sceneStore.get(names.get(which))))
+                .show();
+    }
+
+    private void playScene(CompiledScene scene) {
+        if (bluetoothConnectionController == null) {
+            Snack("Reconnect");
+            hasConnection = false;
+            return;
+        }
+        bluetoothConnectionController.stopEffect();
+        bluetoothConnectionController.playScene(scene);
+    }
+
+    private void toggleStatistics() {
+        statisticsHandler.removeCallbacks(statisticsUpdate);
+        if (statistics.getVisibility() == View.VISIBLE) {
+            statistics.setVisibility(View.GONE);
+        } else {
+            statistics.setVisibility(View.VISIBLE);
+            statisticsUpdate.run();
+        }
+    }
+
     private void connect() {
+        // the last device is tried directly, discovery only runs when it is not reachable
+        String lastDevice = getSharedPreferences("bluetooth", MODE_PRIVATE).getString("last_device", null);
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (lastDevice != null && bluetoothAdapter != null && bluetoothAdapter.isEnabled()) {
+            connectingToLastDevice = true;
+            startForBluetooth(bluetoothAdapter.getRemoteDevice(lastDevice));
+        } else {
+            searchDevices();
+        }
+    }
+
+    private void searchDevices() {
         if (bluetoothManager == null) {
             bluetoothManager = new BluetoothManager(this) {
                 @Override
@@ -95,6 +210,10 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
         Toolbar toolbar = findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
         findViewById(R.id.speak).setOnClickListener(view -> {
+            if (VoiceControl.isAvailable(this)) {
+                toggleListening();
+                return;
+            }
             Intent intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
             intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
             intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.ENGLISH);
@@ -107,6 +226,30 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
         });
 
         status = findViewById(R.id.status);
+        statistics = findViewById(R.id.statistics);
+        telemetry = findViewById(R.id.telemetry);
+    }
+
+    private CommandGrammar grammar() {
+        if (grammar == null) {
+            grammar = CommandGrammar.standard();
+        }
+        return grammar;
+    }
+
+    private void toggleListening() {
+        if (voiceControl == null) {
+            voiceControl = new VoiceControl(this, grammar(), this);
+        }
+        if (voiceControl.isListening()) {
+            voiceControl.stop();
+            Snack("Stopped listening");
+        } else if (ActivityCompat.checkSelfPermission(this, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.RECORD_AUDIO}, REQUEST_RECORD_AUDIO);
+        } else {
+            voiceControl.start();
+            Snack("Listening, say 'on', 'off', a color or an effect");
+        }
     }
 
 
@@ -119,25 +262,71 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
         if (requestCode == REQUEST_CODE) {
             if (resultCode == RESULT_OK && data != null) {
                 ArrayList<String> result = data.getStringArrayListExtra(RecognizerIntent.EXTRA_RESULTS);
-                String code = result.get(0).toLowerCase();
-                if (code.equals("off") || code.equals("on")) {
-                    if (bluetoothConnectionController == null) {
-                        Snack("Reconnect");
-                        hasConnection = false;
-                        return;
-                    }
-                    if (code.equals("on")) {
-                        bluetoothConnectionController.write(1);
-                    } else {
-                        bluetoothConnectionController.write(0);
-                    }
+                if (result != null && grammar().match(result, voiceCommand)) {
+                    voiceCommand(voiceCommand);
                 } else {
-                    Snack("just say 'off' or 'on'.");
+                    Snack("just say 'off', 'on', a color, 'fade', 'pulse', 'strobe' or 'chase'.");
                 }
             }
         }
     }
 
+    @Override
+    public void voiceCommand(VoiceCommand command) {
+        if (bluetoothConnectionController == null) {
+            Snack("Reconnect");
+            hasConnection = false;
+            return;
+        }
+        if (command.getDevice() != VoiceCommand.ANY_DEVICE && command.getDevice() != connectedDevice) {
+            Snack("Not connected to '" + grammar().getDevice(command.getDevice()) + "'");
+            return;
+        }
+        if (command.getAction() == VoiceCommand.EFFECT) {
+            bluetoothConnectionController.playEffect(effectFor(command.getValue()));
+            return;
+        }
+        bluetoothConnectionController.stopEffect();
+        switch (command.getAction()) {
+            case VoiceCommand.ON:
+            case VoiceCommand.OFF:
+                // through the service so the tile and the widget follow
+                if (connectionService != null) {
+                    connectionService.setLight(command.getAction() == VoiceCommand.ON);
+                } else {
+                    bluetoothConnectionController.setLight(command.getAction() == VoiceCommand.ON);
+                }
+                break;
+            case VoiceCommand.BRIGHTNESS:
+                bluetoothConnectionController.writeColor(command.getValue() * 0x010101);
+                break;
+            case VoiceCommand.COLOR:
+                bluetoothConnectionController.writeColor(command.getValue());
+                break;
+        }
+        if (!hasConnection) {
+            Snack("Sent once the device is back");
+        }
+    }
+
+    @Override
+    public void voiceStopped(int error) {
+        Snack("Voice control stopped");
+    }
+
+    private static Effect effectFor(int effect) {
+        switch (effect) {
+            case VoiceCommand.EFFECT_PULSE:
+                return new Pulse(0, 255, 2000);
+            case VoiceCommand.EFFECT_STROBE:
+                return new Strobe(255, 100, 50);
+            case VoiceCommand.EFFECT_CHASE:
+                return new Chase(255, 150);
+            default:
+                return new Fade(0, 255, 2000);
+        }
+    }
+
     private void Snack(String message) {
         Snackbar.make(findViewById(R.id.root), message, Snackbar.LENGTH_SHORT).show();
     }
@@ -145,20 +334,65 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode == REQUEST_RECORD_AUDIO) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                toggleListening();
+            } else {
+                Snack("Voice control needs the microphone");
+            }
+            return;
+        }
         if (bluetoothManager != null) {
             bluetoothManager.handelPermissionsResult(requestCode, grantResults); // bool
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, ConnectionService.class), serviceConnection, BIND_AUTO_CREATE);
+    }
+
+    @Override
+    protected void onStop() {
+        // the connection stays with the service, a rotation or the home button costs no reconnect
+        if (connectionService != null) {
+            connectionService.removeListener(this);
+            connectionService = null;
+        }
+        unbindService(serviceConnection);
+        bluetoothConnectionController = null;
+        super.onStop();
+    }
+
+    @Override
+    protected void onPause() {
+        // no listening in the background
+        if (voiceControl != null) {
+            voiceControl.stop();
+        }
+        super.onPause();
+    }
+
     @Override
     protected void onDestroy() {
-        destroyBluetoothController();
+        statisticsHandler.removeCallbacks(statisticsUpdate);
+        // discovery is tied to the activity, the connection is not
+        if (bluetoothManager != null) {
+            bluetoothManager.destroy();
+            bluetoothManager = null;
+        }
         super.onDestroy();
     }
 
     private void startForBluetooth(BluetoothDevice device) {
-        bluetoothConnectionController = new BluetoothConnectionController(this);
-        bluetoothConnectionController.connect(device);
+        if (connectionService == null) {
+            Snack("Please try again");
+            return;
+        }
+        connectionService.connect(device);
+        bluetoothConnectionController = connectionService.getController();
+        telemetry.setStore(bluetoothConnectionController.getTelemetry());
     }
 
     private void destroyBluetoothController() {
@@ -166,15 +400,17 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
             bluetoothManager.destroy();
             bluetoothManager = null;
         }
-        if (bluetoothConnectionController != null) {
-            bluetoothConnectionController.destroy();
-            bluetoothConnectionController = null;
+        if (connectionService != null) {
+            connectionService.disconnect();
         }
+        bluetoothConnectionController = null;
         hasConnection = false;
     }
 
     @Override
     public void bluetoothConnected(String name) {
+        connectingToLastDevice = false;
+        connectedDevice = grammar().addDevice(name);
         Snack("Connected to '" + name + "'");
         status.setText("Connected to '" + name + "'");
         status.setBackgroundColor(0xff4CAF50);
@@ -184,6 +420,9 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
     @Override
     public void bluetoothDisconnect() {
         hasConnection = false;
+        // gone when the link was closed from the notification, the same one while the supervisor reconnects
+        bluetoothConnectionController = connectionService != null ? connectionService.getController() : null;
+        connectedDevice = VoiceCommand.ANY_DEVICE;
         status.setText("No connection");
         status.setBackgroundColor(0xffE91E63);
     }
@@ -195,12 +434,18 @@ public class MainActivity extends AppCompatActivity implements BluetoothEventLis
 
     @Override
     public void bluetoothConnectionFailed() {
+        if (connectingToLastDevice) {
+            connectingToLastDevice = false;
+            destroyBluetoothController();
+            searchDevices();
+            return;
+        }
         Snack("connection failed");
     }
 
     @Override
-    public void bluetoothDataTransfer(byte[] buffer) {
-
+    public void bluetoothDataTransfer(byte[] buffer, int offset, int length) {
+        // telemetry is parsed on the reader thread already, the chart polls its store
     }
 
 }
\ No newline at end of file
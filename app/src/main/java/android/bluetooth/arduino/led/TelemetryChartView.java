@@ -0,0 +1,128 @@
+package android.bluetooth.arduino.led;
+
+import android.bluetooth.arduino.led.telemetry.TelemetryStore;
+import android.bluetooth.arduino.led.telemetry.TimeSeries;
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+// the last seconds of every telemetry channel, each in a band of its own with its own scale.
+// one min/max bucket per pixel column, so the work per frame follows the width and not the sample rate
+public class TelemetryChartView extends View {
+    private static final long WINDOW_NANOS = 5000000000L;
+    private static final long FRAME_MILLIS = 33;
+    private static final int[] COLORS = {0xff4CAF50, 0xff2196F3, 0xffFF9800, 0xffE91E63, 0xff9C27B0, 0xff00BCD4, 0xffFFEB3B, 0xff795548};
+    private final Paint linePaint = new Paint();
+    private final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private TelemetryStore store;
+    private long drawnSamples = -1;
+    private float[] min = new float[0];
+    private float[] max = new float[0];
+    private float[] points = new float[0];
+    private final Runnable frame = new Runnable() {
+        @Override
+        public void run() {
+            TelemetryStore current = store;
+            if (current != null && current.getSamples() != drawnSamples) {
+                invalidate();
+            }
+            postDelayed(this, FRAME_MILLIS);
+        }
+    };
+
+    public TelemetryChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        linePaint.setStrokeWidth(getResources().getDisplayMetrics().density);
+        textPaint.setColor(Color.WHITE);
+        textPaint.setTextSize(11 * getResources().getDisplayMetrics().scaledDensity);
+    }
+
+    public void setStore(TelemetryStore store) {
+        this.store = store;
+        drawnSamples = -1;
+        invalidate();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        post(frame);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        removeCallbacks(frame);
+        super.onDetachedFromWindow();
+    }
+
+    @Override
+    protected void onSizeChanged(int width, int height, int oldWidth, int oldHeight) {
+        super.onSizeChanged(width, height, oldWidth, oldHeight);
+        min = new float[Math.max(1, width)];
+        max = new float[min.length];
+        // a vertical segment for the spread of each column and one joining it to the next column
+        points = new float[min.length * 8];
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        canvas.drawColor(0xcc000000);
+        TelemetryStore current = store;
+        if (current == null || current.getChannelCount() == 0) {
+            canvas.drawText("No telemetry", 8, textPaint.getTextSize() + 4, textPaint);
+            return;
+        }
+        drawnSamples = current.getSamples();
+        long now = System.nanoTime();
+        int channels = current.getChannelCount();
+        int columns = min.length;
+        float band = (float) getHeight() / channels;
+        for (int channel = 0; channel < channels; channel++) {
+            TimeSeries series = current.get(channel);
+            float top = channel * band;
+            linePaint.setColor(COLORS[channel % COLORS.length]);
+            series.downsample(now - WINDOW_NANOS, now, min, max, columns);
+            float low = Float.POSITIVE_INFINITY;
+            float high = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < columns; i++) {
+                if (!Float.isNaN(min[i])) {
+                    low = Math.min(low, min[i]);
+                    high = Math.max(high, max[i]);
+                }
+            }
+            if (low <= high) {
+                float padding = band * 0.1f;
+                float scale = high > low ? (band - 2 * padding) / (high - low) : 0;
+                float bottom = top + band - padding - (high > low ? 0 : (band - 2 * padding) / 2);
+                int count = 0;
+                float lastX = Float.NaN;
+                float lastY = 0;
+                for (int i = 0; i < columns; i++) {
+                    if (Float.isNaN(min[i])) {
+                        continue;
+                    }
+                    float yMin = bottom - (min[i] - low) * scale;
+                    float yMax = bottom - (max[i] - low) * scale;
+                    if (!Float.isNaN(lastX)) {
+                        points[count++] = lastX;
+                        points[count++] = lastY;
+                        points[count++] = i;
+                        points[count++] = yMin;
+                    }
+                    points[count++] = i;
+                    points[count++] = yMin;
+                    points[count++] = i;
+                    points[count++] = yMax == yMin ? yMin + 1 : yMax;
+                    lastX = i;
+                    lastY = yMax;
+                }
+                canvas.drawLines(points, 0, count, linePaint);
+            }
+            textPaint.setColor(linePaint.getColor());
+            canvas.drawText(series.getName() + " " + series.getLatest(), 8, top + textPaint.getTextSize() + 4, textPaint);
+        }
+    }
+}
@@ -1,148 +1,431 @@
 package android.bluetooth.arduino.led.bluetooth;
 
-import android.bluetooth.BluetoothAdapter;
-import android.bluetooth.BluetoothDevice;
-import android.bluetooth.BluetoothSocket;
-import android.os.Bundle;
-import android.os.Handler;
-import android.os.Message;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.util.UUID;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.protocol.CommandFuture;
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.protocol.ReliableSender;
+import android.bluetooth.arduino.led.protocol.StripEncoder;
+import android.bluetooth.arduino.led.telemetry.TelemetryParser;
+import android.bluetooth.arduino.led.telemetry.TelemetryStore;
+import android.bluetooth.arduino.led.transport.CommandWriter;
+import android.bluetooth.arduino.led.transport.FlowControl;
+import android.bluetooth.arduino.led.transport.PooledWritePipeline;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.ReceiveBufferPool;
+import android.bluetooth.arduino.led.transport.Transport;
+import android.bluetooth.arduino.led.transport.TransportFactory;
+import android.bluetooth.arduino.led.transport.WriteLanes;
+import android.bluetooth.arduino.led.transport.WritePipeline;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class BluetoothConnection {
-    private static final String NAME = "Arduino";
-    private final UUID UUID = java.util.UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
-    static final int STATE_CONNECTION_FAILED = -1;
-    static final int STATE_NONE = 0;
-    static final int STATE_LISTEN = 1;
-    static final int STATE_CONNECTING = 2;
-    static final int STATE_CONNECTED = 3;
-    private int state = STATE_NONE;
-    private final BluetoothAdapter bluetoothAdapter;
+    public interface AdapterState {
+        boolean isEnabled();
+    }
+
+    public static final int STATE_CONNECTION_FAILED = -1;
+    public static final int STATE_NONE = 0;
+    public static final int STATE_LISTEN = 1;
+    public static final int STATE_CONNECTING = 2;
+    public static final int STATE_CONNECTED = 3;
+    private static final int CONTROL_QUEUE_CAPACITY = 32;
+    private static final int WRITE_QUEUE_CAPACITY = 256;
+    private static final int MAX_COMMAND_SIZE = Frame.MAX_FRAME_SIZE;
+    private static final int WRITE_BATCH_SIZE = 512;
+    private static final long FLUSH_WINDOW_NANOS = 2000000L;
+    private static final int RELIABLE_WINDOW = 8;
+    private static final long RELIABLE_TIMEOUT_MILLIS = 250;
+    private static final int RELIABLE_RETRIES = 3;
+    private static final int STRIP_KEYFRAME_INTERVAL = 50;
+    // samples kept per channel, seconds of a sketch that reports at a few kHz
+    private static final int TELEMETRY_CAPACITY = 16384;
+    private final ConnectionState state = new ConnectionState();
     private ConnectThread connectThread;
     private ConnectedThread connectedThread;
-    private final Handler handler;
+    private final ConnectionCallback callback;
+    private volatile FrameDecoder.FrameListener frameListener;
+    private final LinkMetrics metrics = new LinkMetrics();
+    private final FrameEncoder pingEncoder = new FrameEncoder();
+    private final byte[] pingPayload = new byte[8];
+    private final ByteBuffer atFrame = ByteBuffer.allocate(Frame.MAX_FRAME_SIZE);
+    private final DeviceClock clock = new DeviceClock();
+    private final Object stripLock = new Object();
+    private StripEncoder stripEncoder;
+    private ByteBuffer stripFrame;
+    private final ReconnectSupervisor supervisor;
+    private final KeyedState keyedState = new KeyedState();
+    private final TelemetryStore telemetry = new TelemetryStore(TELEMETRY_CAPACITY);
+    private final ScheduledExecutorService io;
+    // null on the JVM and for the loopback, where there is no adapter to be switched off
+    private volatile AdapterState adapterState;
+    private volatile CommandJournal journal;
 
     public int getState() {
+        return state.get();
+    }
+
+    // the transition log and the time spent per state
+    public ConnectionState getConnectionState() {
         return state;
     }
 
-    synchronized void Connect(BluetoothDevice device) {
-        if (getState() == STATE_CONNECTING) {
-            if (connectThread != null) {
-                connectThread.cancel();
-                connectThread = null;
-            }
+    // a supervised link is being kept up: connected, on its way there or waiting for the next attempt.
+    // false once the first connect failed or the supervisor gave up
+    public synchronized boolean isSupervised() {
+        return supervisor.isActive();
+    }
+
+    public synchronized void connect(Transport transport) {
+        supervisor.stop();
+        open(transport);
+    }
+
+    // supervised: a dropped link is re-opened with a fresh transport from the factory
+    public synchronized void connect(TransportFactory factory) {
+        keyedState.clear();
+        supervisor.start(factory);
+        open(factory.create());
+    }
+
+    synchronized void reconnect(ReconnectSupervisor supervisor, TransportFactory factory) {
+        if (supervisor.owns(factory) && getState() != STATE_CONNECTED && getState() != STATE_CONNECTING) {
+            open(factory.create());
         }
+    }
 
+    private void open(Transport transport) {
+        if (connectThread != null) {
+            connectThread.cancel();
+            connectThread = null;
+        }
         if (connectedThread != null) {
             connectedThread.cancel();
             connectedThread = null;
         }
-        connectThread = new ConnectThread(device);
+        boolean reported = getState() == STATE_CONNECTING;
+        // a new attempt, whatever the threads of the old one still report is refused
+        int attempt = state.begin(System.nanoTime());
+        connectThread = new ConnectThread(transport, attempt);
         connectThread.start();
-        setState(STATE_CONNECTING);
+        if (!reported) {
+            callback.stateChanged(STATE_CONNECTING);
+        }
     }
 
-    public void write(byte[] out) {
-        ConnectedThread con;
-        synchronized (this) {
-            if (getState() != STATE_CONNECTED || connectedThread == null) {
-                return;
+    public boolean write(byte[] out) {
+        return write(WriteQueue.NO_KEY, out, 0, out.length);
+    }
+
+    // a keyed command replaces any queued command with the same key that has not been sent yet
+    public boolean write(int key, byte[] out, int offset, int length) {
+        return write(WriteLanes.INTERACTIVE, key, out, offset, length);
+    }
+
+    // commands of a lane go out after everything queued in the lanes before it, see WriteLanes
+    public boolean write(int lane, int key, byte[] out, int offset, int length) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return journal(lane, key, out, offset, length);
+        }
+        if (!con.writer.offer(lane, out, offset, length, key)) {
+            return false;
+        }
+        if (key != WriteQueue.NO_KEY) {
+            keyedState.put(key, out, offset, length);
+        }
+        return true;
+    }
+
+    public boolean write(int key, int value) {
+        return write(WriteLanes.INTERACTIVE, key, value);
+    }
+
+    public boolean write(int lane, int key, int value) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return journal(lane, key, value);
+        }
+        if (!con.writer.offer(lane, value, key)) {
+            return false;
+        }
+        if (key != WriteQueue.NO_KEY) {
+            keyedState.put(key, value);
+        }
+        return true;
+    }
+
+    // while the link is down control and interactive commands wait in the journal, streams are not kept.
+    // under the lock, so a command can not slip in after connected() replayed the journal
+    private synchronized boolean journal(int lane, int key, byte[] out, int offset, int length) {
+        if (connectedThread() != null) {
+            return write(lane, key, out, offset, length);
+        }
+        CommandJournal journal = this.journal;
+        return journal != null && lane != WriteLanes.BULK && journal.append(lane, key, out, offset, length);
+    }
+
+    private synchronized boolean journal(int lane, int key, int value) {
+        if (connectedThread() != null) {
+            return write(lane, key, value);
+        }
+        CommandJournal journal = this.journal;
+        return journal != null && lane != WriteLanes.BULK && journal.append(lane, key, value);
+    }
+
+    // commands issued while disconnected are kept in it and replayed once the device is back
+    public void setJournal(CommandJournal journal) {
+        this.journal = journal;
+    }
+
+    public CommandJournal getJournal() {
+        return journal;
+    }
+
+    // the device acks each command, up to RELIABLE_WINDOW of them are pipelined
+    public CommandFuture writeReliable(int opcode, byte[] payload, int offset, int length) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return CommandFuture.failed(new IOException("Not connected"));
+        }
+        return con.reliable().send(opcode, payload, offset, length);
+    }
+
+    // commands of the lane not written yet, false while disconnected
+    public boolean hasQueued(int lane) {
+        ConnectedThread con = connectedThread();
+        return con != null && !con.writer.getLanes().get(lane).isEmpty();
+    }
+
+    // queued commands of the lane that were not written yet are dropped, e.g. the frames of a stopped effect
+    public void discardQueued(int lane) {
+        ConnectedThread con = connectedThread();
+        if (con != null) {
+            con.writer.getLanes().get(lane).discard();
+        }
+    }
+
+    // the device echoes the send time back, the reader records the round trip.
+    // pings and clock probes use the control lane, so they measure the link and not the queues
+    public boolean ping() {
+        return sendTimestamped(Frame.OP_PING);
+    }
+
+    // one clock sample: the device answers with its micros(), see DeviceClock
+    public boolean syncClock() {
+        return sendTimestamped(Frame.OP_TIME);
+    }
+
+    private boolean sendTimestamped(int opcode) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return false;
+        }
+        synchronized (pingEncoder) {
+            long now = System.nanoTime();
+            for (int i = 0; i < 8; i++) {
+                pingPayload[i] = (byte) (now >>> (56 - 8 * i));
             }
-            con = connectedThread;
+            ByteBuffer frame = pingEncoder.encode(opcode, pingPayload, 0, pingPayload.length);
+            return con.writer.offer(WriteLanes.CONTROL, frame.array(), 0, frame.limit(), WriteQueue.NO_KEY);
         }
-        con.write(out);
     }
 
+    // the device holds the command until its clock reaches deviceMicros and reports back with OP_EXECUTED
+    public boolean writeAt(int id, int deviceMicros, int opcode, byte[] payload, int offset, int length) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return false;
+        }
+        synchronized (atFrame) {
+            atFrame.clear();
+            int start = FrameEncoder.begin(atFrame, Frame.OP_AT);
+            atFrame.put((byte) id);
+            atFrame.putInt(deviceMicros);
+            atFrame.put((byte) opcode);
+            atFrame.put(payload, offset, length);
+            int size = FrameEncoder.end(atFrame, start);
+            return con.writer.offer(WriteLanes.INTERACTIVE, atFrame.array(), 0, size, WriteQueue.NO_KEY);
+        }
+    }
 
-    private void setState(int state) {
-        if (getState() == state) {
-            return;
+    // one LED strip frame, 3 bytes per pixel. only changed ranges go out, with a full keyframe now and then
+    public boolean writeStrip(byte[] rgb, int pixels) {
+        ConnectedThread con = connectedThread();
+        if (con == null) {
+            return false;
+        }
+        synchronized (stripLock) {
+            if (stripEncoder == null || stripFrame.capacity() != StripEncoder.maxEncodedSize(pixels)) {
+                stripEncoder = new StripEncoder(pixels, STRIP_KEYFRAME_INTERVAL);
+                stripFrame = ByteBuffer.allocate(StripEncoder.maxEncodedSize(pixels));
+            }
+            stripFrame.clear();
+            stripEncoder.encode(rgb, stripFrame);
+            byte[] bytes = stripFrame.array();
+            for (int offset = 0; offset < stripFrame.position(); ) {
+                int size = Frame.size(bytes[offset + 2] & 0xFF);
+                if (!con.writer.offer(WriteLanes.BULK, bytes, offset, size, WriteQueue.NO_KEY)) {
+                    // the board ignores deltas until it has a full frame again
+                    stripEncoder.requestKeyframe();
+                    return false;
+                }
+                offset += size;
+            }
+            return true;
+        }
+    }
+
+    // what the sketch reported, kept across reconnects
+    public TelemetryStore getTelemetry() {
+        return telemetry;
+    }
+
+    public DeviceClock getClock() {
+        return clock;
+    }
+
+    // commands queued and not written yet, producers with their own pace use it to skip instead of piling up
+    public int getWriteBacklog() {
+        ConnectedThread con = connectedThread();
+        return con == null ? 0 : con.writer.getLanes().size();
+    }
+
+    public LinkMetrics getMetrics() {
+        return metrics;
+    }
+
+    private synchronized ConnectedThread connectedThread() {
+        if (getState() != STATE_CONNECTED) {
+            return null;
         }
-        this.state = state;
-        // send UI
-        handler.obtainMessage(BluetoothConnectionController._STATE_CHANGED, state, -1).sendToTarget();
+        return connectedThread;
+    }
+
+
+    // callers hold the lock, so the callbacks leave in the order of the transitions
+    private void setState(int next) {
+        if (state.moveTo(next, System.nanoTime())) {
+            // send UI
+            callback.stateChanged(next);
+        }
+    }
+
+    public BluetoothConnection(ConnectionCallback callback) {
+        this(callback, null);
+    }
+
+    // with a shared executor the writer, retransmit timer and reconnect backoff of this link run on it,
+    // only the blocking reader keeps a thread of its own
+    public BluetoothConnection(ConnectionCallback callback, ScheduledExecutorService io) {
+        this.callback = callback;
+        this.io = io;
+        this.supervisor = new ReconnectSupervisor(this, io);
+    }
+
+    // with the adapter off the link stays in STATE_NONE instead of listening
+    public void setAdapterState(AdapterState adapterState) {
+        this.adapterState = adapterState;
     }
 
-    BluetoothConnection(Handler handler) {
-        this.handler = handler;
-        this.bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+    // frames are parsed and delivered on the reader thread, before the raw bytes reach the callback
+    public void setFrameListener(FrameDecoder.FrameListener frameListener) {
+        this.frameListener = frameListener;
     }
 
-    private synchronized void connectFailed() {
+    private synchronized void connectFailed(ConnectThread thread) {
+        if (!state.transition(thread.attempt, STATE_CONNECTING, STATE_CONNECTION_FAILED, System.nanoTime())) {
+            // a cancelled attempt, a newer one already owns the state
+            return;
+        }
+        // failed
+        callback.stateChanged(STATE_CONNECTION_FAILED);
         connectionStart();
+        supervisor.connectFailed();
     }
 
-    private synchronized void connected(BluetoothDevice device, BluetoothSocket socket) {
+    private synchronized void connected(ConnectThread thread, Transport transport) {
+        if (!state.transition(thread.attempt, STATE_CONNECTING, STATE_CONNECTED, System.nanoTime())) {
+            transport.close();
+            return;
+        }
+        connectThread = null;
         connectionStop(false);
-        connectedThread = new ConnectedThread(socket);
+        connectedThread = new ConnectedThread(transport, thread.attempt);
         connectedThread.start();
-        Message message = handler.obtainMessage(BluetoothConnectionController._STATE_DEVICE_OBJ);
-        Bundle bundle = new Bundle();
-        bundle.putParcelable("device", device);
-        message.setData(bundle);
-        handler.sendMessage(message);
-        setState(STATE_CONNECTED);
+        // the name goes out first, listeners see STATE_CONNECTED with it in place
+        callback.deviceConnected(transport.getName(), transport.getAddress());
+        callback.stateChanged(STATE_CONNECTED);
+        synchronized (stripLock) {
+            if (stripEncoder != null) {
+                // the board may have been reset, its strip state is unknown
+                stripEncoder.requestKeyframe();
+            }
+        }
+        final ConnectedThread con = connectedThread;
+        if (supervisor.connected()) {
+            // the last keyed commands put the device back into the state it was in before the drop
+            keyedState.forEach((key, bytes, length) -> con.writer.offer(WriteLanes.INTERACTIVE, bytes, 0, length, key));
+        }
+        CommandJournal journal = this.journal;
+        if (journal != null) {
+            journal.setDevice(transport.getAddress());
+            // then what the user asked for while the link was down, the latest per key only
+            journal.replay((lane, key, bytes, offset, length) -> {
+                if (!con.writer.offer(lane, bytes, offset, length, key)) {
+                    return false;
+                }
+                if (key != WriteQueue.NO_KEY) {
+                    keyedState.put(key, bytes, offset, length);
+                }
+                return true;
+            });
+        }
     }
 
     private class ConnectThread extends Thread {
 
-        private BluetoothSocket socket;
-        private BluetoothDevice device;
+        private Transport transport;
+        final int attempt;
 
-        ConnectThread(BluetoothDevice bluetoothDevice) {
-            device = bluetoothDevice;
-            BluetoothSocket socket = null;
-            try {
-                socket = device.createInsecureRfcommSocketToServiceRecord(UUID);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-            this.socket = socket;
+        ConnectThread(Transport transport, int attempt) {
+            this.transport = transport;
+            this.attempt = attempt;
         }
 
         @Override
         public void run() {
             setName("ConnectThread");
-            bluetoothAdapter.cancelDiscovery();
+            Transport transport = this.transport;
+            metrics.connectAttempts.incrementAndGet();
+            long start = System.nanoTime();
             try {
-                socket.connect();
+                transport.connect();
+                metrics.connectTime.recordNanos(System.nanoTime() - start);
             } catch (Exception e) {
-                try {
-                    socket = (BluetoothSocket) device.getClass().getMethod("createRfcommSocket", new Class[]{int.class}).invoke(device, 1);
-                    socket.connect();
-                } catch (Exception fallbackException) {
-                    cancel();
-                    // failed
-                    handler.obtainMessage(BluetoothConnectionController._STATE_CHANGED, BluetoothConnection.STATE_CONNECTION_FAILED, -1).sendToTarget();
-                    connectFailed();
-                    return;
-                }
-            }
-
-            synchronized (BluetoothConnection.this) {
-                connectThread = null;
+                metrics.connectFailures.incrementAndGet();
+                cancel();
+                connectFailed(this);
+                return;
             }
 
-            connected(device, socket);
+            connected(this, transport);
         }
 
         public synchronized void cancel() {
-            try {
-                if (socket != null) {
-                    socket.close();
-                }
-                device = null;
-                socket = null;
-            } catch (Exception e) {
-                e.printStackTrace();
+            if (transport != null) {
+                transport.close();
             }
+            transport = null;
         }
     }
 
-    synchronized void connectionStart() {
+    public synchronized void connectionStart() {
         if (connectThread != null) {
             connectThread.cancel();
             connectThread = null;
@@ -152,12 +435,14 @@ public class BluetoothConnection {
             connectedThread = null;
         }
 
-        if (bluetoothAdapter.isEnabled()) {
+        AdapterState adapterState = this.adapterState;
+        if (adapterState == null || adapterState.isEnabled()) {
             setState(STATE_LISTEN);
         }
     }
 
-    synchronized void connectionStop() {
+    public synchronized void connectionStop() {
+        supervisor.stop();
         connectionStop(true);
     }
 
@@ -175,80 +460,142 @@ public class BluetoothConnection {
         }
     }
 
-    private synchronized void connectionLost() {
-        handler.obtainMessage(BluetoothConnectionController._STATE_CHANGED, STATE_NONE, -1).sendToTarget();
-//        //
+    private synchronized void connectionLost(ConnectedThread thread) {
+        if (!state.transition(thread.attempt, STATE_CONNECTED, STATE_NONE, System.nanoTime())) {
+            // reader of a link that was already replaced or stopped
+            return;
+        }
+        callback.stateChanged(STATE_NONE);
         connectionStart();
+        supervisor.connectionLost();
     }
 
-    private class ConnectedThread extends Thread {
+    private static long readLong(byte[] bytes, int offset) {
+        return ((long) readInt(bytes, offset) << 32) | (readInt(bytes, offset + 4) & 0xFFFFFFFFL);
+    }
 
-        private BluetoothSocket socket;
-        private InputStream inputStream;
-        private OutputStream outputStream;
-        private byte[] bytes;
+    private static int readShort(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 8 | (bytes[offset + 1] & 0xFF);
+    }
 
-        ConnectedThread(BluetoothSocket bluetoothSocket) {
-            socket = bluetoothSocket;
-            InputStream tmpIn = null;
-            OutputStream tmoOut = null;
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 | (bytes[offset + 2] & 0xFF) << 8 | (bytes[offset + 3] & 0xFF);
+    }
 
+    private class ConnectedThread extends Thread {
 
-            try {
-                tmpIn = socket.getInputStream();
-            } catch (Exception e) {
-                e.printStackTrace();
+        private Transport transport;
+        final int attempt;
+        private final ReceiveBufferPool pool = new ReceiveBufferPool(8, 1024);
+        private final CommandWriter writer;
+        private final FlowControl flow = new FlowControl(metrics);
+        private ReliableSender reliable;
+        private long decodeErrors;
+        private final TelemetryParser telemetryParser = new TelemetryParser(telemetry);
+        private final FrameDecoder decoder = new FrameDecoder((opcode, payload, offset, length) -> {
+            metrics.framesIn.incrementAndGet();
+            if (opcode == Frame.OP_PONG && length == 8) {
+                metrics.roundTrip.recordNanos(System.nanoTime() - readLong(payload, offset));
+                return;
+            }
+            if (opcode == Frame.OP_TIME_REPLY && length == 12) {
+                clock.sample(readLong(payload, offset), System.nanoTime(), readInt(payload, offset + 8));
+                return;
+            }
+            if (opcode == Frame.OP_EXECUTED && length == 9) {
+                int scheduled = readInt(payload, offset + 1);
+                int actual = readInt(payload, offset + 5);
+                metrics.executeLateness.record(Math.max(0, actual - scheduled));
+                clock.executed(payload[offset], scheduled, actual);
+                return;
+            }
+            if (opcode == Frame.OP_CREDIT && length == 4) {
+                flow.credit(readShort(payload, offset), readShort(payload, offset + 2), System.nanoTime());
+                ConnectedThread.this.writer.flowOpened();
+                return;
+            }
+            if (opcode == Frame.OP_TELEMETRY) {
+                telemetryParser.frameReceived(payload, offset, length, System.nanoTime());
+                return;
+            }
+            if (opcode == Frame.OP_ACK && length >= 1) {
+                ReliableSender sender = reliableIfStarted();
+                if (sender != null) {
+                    sender.ack(payload[offset]);
+                }
+                return;
+            }
+            FrameDecoder.FrameListener listener = frameListener;
+            if (listener != null) {
+                listener.frameReceived(opcode, payload, offset, length);
             }
+        });
+
+        ConnectedThread(Transport transport, int attempt) {
+            this.transport = transport;
+            this.attempt = attempt;
+            decoder.setTextListener(telemetryParser);
+            WriteLanes lanes = new WriteLanes(CONTROL_QUEUE_CAPACITY, WRITE_QUEUE_CAPACITY, WRITE_QUEUE_CAPACITY, MAX_COMMAND_SIZE, metrics);
+            if (io != null) {
+                writer = new PooledWritePipeline(transport, lanes, io, flow, WRITE_BATCH_SIZE, FLUSH_WINDOW_NANOS, metrics);
+            } else {
+                writer = new WritePipeline(transport, lanes, flow, WRITE_BATCH_SIZE, FLUSH_WINDOW_NANOS, metrics);
+            }
+        }
 
-            try {
-                tmoOut = socket.getOutputStream();
-            } catch (Exception e) {
-                e.printStackTrace();
+        synchronized ReliableSender reliable() {
+            if (reliable == null) {
+                reliable = new ReliableSender((bytes, offset, length) -> writer.offer(WriteLanes.INTERACTIVE, bytes, offset, length, WriteQueue.NO_KEY),
+                        true, RELIABLE_WINDOW, RELIABLE_TIMEOUT_MILLIS, RELIABLE_RETRIES, metrics, io);
+                writer.getLanes().get(WriteLanes.INTERACTIVE).setListener(reliable::written);
+                if (transport == null) {
+                    reliable.close();
+                }
             }
+            return reliable;
+        }
 
-            inputStream = tmpIn;
-            outputStream = tmoOut;
+        private synchronized ReliableSender reliableIfStarted() {
+            return reliable;
         }
 
         @Override
         public void run() {
             setName("ConnectedThread");
-            bytes = new byte[1024];
-            int len;
+            writer.start();
             while (true) {
+                ReceiveBuffer buffer = null;
                 try {
-                    len = inputStream.read(bytes);
-                    // send UI
-                    handler.obtainMessage(BluetoothConnectionController._STATE_READ, len, -1, bytes).sendToTarget();
+                    buffer = pool.acquire();
+                    buffer.readFrom(transport);
+                    metrics.bytesIn.addAndGet(buffer.getLength());
+                    decoder.decode(buffer.getData(), buffer.getOffset(), buffer.getLength());
+                    metrics.frameErrors.addAndGet(decoder.getErrors() - decodeErrors);
+                    decodeErrors = decoder.getErrors();
+                    // send UI, the callback owns the buffer until it releases it
+                    callback.dataReceived(buffer);
                 } catch (Exception e) {
+                    if (buffer != null) {
+                        buffer.release();
+                    }
                     e.printStackTrace();
-                    connectionLost();
+                    connectionLost(this);
                     break;
                 }
             }
         }
 
-        public void write(byte[] bytes) {
-            try {
-                outputStream.write(bytes);
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
-        }
-
         public synchronized void cancel() {
-            try {
-                if (socket != null) {
-                    socket.close();
-                }
-                socket = null;
-                bytes = null;
-                inputStream = null;
-                outputStream = null;
-            } catch (Exception e) {
-                e.printStackTrace();
+            writer.shutdown();
+            if (reliable != null) {
+                reliable.close();
+            }
+            if (transport != null) {
+                transport.close();
             }
+            transport = null;
+            interrupt();
         }
     }
 
-}
\ No newline at end of file
+}
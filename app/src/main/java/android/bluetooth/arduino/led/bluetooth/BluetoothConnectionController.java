@@ -1,72 +1,322 @@
 package android.bluetooth.arduino.led.bluetooth;
 
+import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
-import android.os.Handler;
+import android.bluetooth.arduino.led.effect.Effect;
+import android.bluetooth.arduino.led.effect.EffectEngine;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.protocol.CommandFuture;
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.scene.CompiledScene;
+import android.bluetooth.arduino.led.scene.ScenePlayer;
+import android.bluetooth.arduino.led.telemetry.TelemetryStore;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.Transport;
+import android.bluetooth.arduino.led.transport.WriteLanes;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+import android.content.Context;
 
-public class BluetoothConnectionController {
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+
+public class BluetoothConnectionController implements ConnectionCallback {
 
     private final BluetoothConnection bluetoothConnection;
-    private Handler handler;
     private final BluetoothEventListener bluetoothEventListener;
-    private BluetoothDevice bluetoothDevice;
+    private final StrategyStore strategyStore;
+    private static final int KEY_RAW = 0;
+    private String deviceName;
+    private volatile String deviceAddress;
+    private final FrameEncoder frameEncoder = new FrameEncoder();
+    // the effect thread's own, its frames must not wait for the controller lock: stopEffect() holds it
+    // while it waits for the frame in flight
+    private final FrameEncoder effectEncoder = new FrameEncoder();
+    // an RGB LED on the PWM pins of an Uno that SoftwareSerial leaves free
+    private static final int[] EFFECT_PINS = {3, 5, 6};
+    private static final int EFFECT_FPS = 50;
+    // what "on" brings back, the last color that was not black
+    private volatile int lastColor = 0xFFFFFF;
+    private EffectEngine effectEngine;
+    private EffectEngine stripEngine;
+    private ScenePlayer scenePlayer;
+    // commands issued while the link is down, 128 of them fit many times over
+    private static final int JOURNAL_SIZE = 16384;
+
+    // events a listener has not taken yet, and the reads one event holds when a listener batches them
+    private static final int EVENT_POOL_SIZE = 32;
+    private static final int EVENT_CAPACITY = 4096;
+    private final EventDispatcher dispatcher = new EventDispatcher(EVENT_POOL_SIZE, EVENT_CAPACITY);
+    // the owner's listener gets its events on the main thread, reads merged
+    private final EventDispatcher.Listener ownerEvents = this::toOwner;
 
-    static final int _STATE_CHANGED = 0;
-    static final int _STATE_READ = 1;
-    static final int _STATE_DEVICE_OBJ = 2;
+    // for a controller owned by an activity: its events come once per frame, like what it draws.
+    // must run on the main thread
+    public BluetoothConnectionController(Context context, BluetoothEventListener bluetoothEventListener) {
+        this(context, bluetoothEventListener, new FrameExecutor());
+    }
 
-    public BluetoothConnectionController(BluetoothEventListener bluetoothEventListener) {
+    // a service passes Handler::post, frame callbacks stop with the screen off and events would pile up
+    public BluetoothConnectionController(Context context, BluetoothEventListener bluetoothEventListener, Executor executor) {
         this.bluetoothEventListener = bluetoothEventListener;
-        initHandler();
-        bluetoothConnection = new BluetoothConnection(handler);
+        this.strategyStore = new StrategyStore(context.getApplicationContext());
+        dispatcher.register(ownerEvents, executor, true);
+        bluetoothConnection = new BluetoothConnection(this);
+        bluetoothConnection.setAdapterState(() -> {
+            BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+            return bluetoothAdapter != null && bluetoothAdapter.isEnabled();
+        });
+        try {
+            bluetoothConnection.setJournal(CommandJournal.open(new File(context.getFilesDir(), "command_journal"), JOURNAL_SIZE));
+        } catch (IOException e) {
+            // commands issued while disconnected are refused as before
+            e.printStackTrace();
+        }
         connectionStart();
     }
 
-    private void initHandler() {
-        handler = new Handler(msg -> {
-            switch (msg.what) {
-                case BluetoothConnectionController._STATE_CHANGED:
-                    switch (msg.arg1) {
-                        case BluetoothConnection.STATE_NONE:
-                        case BluetoothConnection.STATE_LISTEN:
-                            bluetoothDevice = null;
-                            bluetoothEventListener.bluetoothDisconnect();
-                            break;
-                        case BluetoothConnection.STATE_CONNECTED:
-                            bluetoothEventListener.bluetoothConnected(bluetoothDevice.getName());
-                            break;
-                        case BluetoothConnection.STATE_CONNECTING:
-                            bluetoothEventListener.bluetoothConnecting();
-                            break;
-                        case BluetoothConnection.STATE_CONNECTION_FAILED:
-                            bluetoothDevice = null;
-                            bluetoothEventListener.bluetoothConnectionFailed();
-                            break;
-                    }
-                    break;
-                case BluetoothConnectionController._STATE_READ:
-                    byte[] in = (byte[]) msg.obj;
-                    bluetoothEventListener.bluetoothDataTransfer(in);
-                    break;
-                case BluetoothConnectionController._STATE_DEVICE_OBJ:
-                    bluetoothDevice = msg.getData().getParcelable("device");
-                    break;
-            }
-            return false;
-        });
+    // listeners pick their thread: a FrameExecutor or Handler::post for the main thread, any executor
+    // for work that should stay off it, EventDispatcher.DIRECT to run on the reader thread itself
+    public void addListener(EventDispatcher.Listener listener, Executor executor, boolean batchReads) {
+        dispatcher.register(listener, executor, batchReads);
+    }
+
+    public void removeListener(EventDispatcher.Listener listener) {
+        dispatcher.unregister(listener);
+    }
+
+    private void toOwner(ConnectionEvent event) {
+        switch (event.getType()) {
+            case ConnectionEvent.STATE_CHANGED:
+                switch (event.getState()) {
+                    case BluetoothConnection.STATE_NONE:
+                    case BluetoothConnection.STATE_LISTEN:
+                        deviceName = null;
+                        bluetoothEventListener.bluetoothDisconnect();
+                        break;
+                    case BluetoothConnection.STATE_CONNECTED:
+                        bluetoothEventListener.bluetoothConnected(deviceName);
+                        break;
+                    case BluetoothConnection.STATE_CONNECTING:
+                        bluetoothEventListener.bluetoothConnecting();
+                        break;
+                    case BluetoothConnection.STATE_CONNECTION_FAILED:
+                        deviceName = null;
+                        bluetoothEventListener.bluetoothConnectionFailed();
+                        break;
+                }
+                break;
+            case ConnectionEvent.DATA:
+                bluetoothEventListener.bluetoothDataTransfer(event.getData(), event.getOffset(), event.getLength());
+                break;
+            case ConnectionEvent.DEVICE_CONNECTED:
+                deviceName = event.getName();
+                break;
+        }
+    }
+
+    @Override
+    public void stateChanged(int state) {
+        dispatcher.stateChanged(state);
+    }
+
+    @Override
+    public void deviceConnected(String name, String address) {
+        deviceAddress = address;
+        dispatcher.deviceConnected(name, address);
+    }
+
+    @Override
+    public void dataReceived(ReceiveBuffer buffer) {
+        try {
+            dispatcher.dataReceived(buffer.getData(), buffer.getOffset(), buffer.getLength());
+        } finally {
+            buffer.release();
+        }
     }
 
     public void connect(BluetoothDevice device) {
-        bluetoothConnection.Connect(device);
+        bluetoothConnection.connect(new RfcommTransportFactory(device, bluetoothConnection.getMetrics(), strategyStore));
     }
 
-    public void write(byte[] bytes) {
-        if (bluetoothConnection != null) {
-            bluetoothConnection.write(bytes);
+    // false once nothing will bring the link back without a new connect()
+    public boolean isReconnecting() {
+        return bluetoothConnection.isSupervised();
+    }
+
+    public String getDeviceAddress() {
+        return deviceAddress;
+    }
+
+    public void connect(Transport transport) {
+        bluetoothConnection.connect(transport);
+    }
+
+    public boolean write(byte[] bytes) {
+        return bluetoothConnection != null && bluetoothConnection.write(bytes);
+    }
+
+    // the single byte LED command is keyed so it is replayed after a reconnect.
+    // it is the kill switch, so it goes ahead of any effect or strip traffic
+    public boolean write(int value) {
+        return bluetoothConnection != null && bluetoothConnection.write(WriteLanes.CONTROL, KEY_RAW, value);
+    }
+
+    // latest-wins: only the newest pending value per target is sent, e.g. while a slider is dragged
+    public boolean write(int target, byte[] bytes) {
+        return bluetoothConnection != null && bluetoothConnection.write(target, bytes, 0, bytes.length);
+    }
+
+    public synchronized boolean writeFrame(int opcode, byte[] payload) {
+        return write(WriteQueue.NO_KEY, frameEncoder.encode(opcode, payload, 0, payload.length));
+    }
+
+    // keyed by opcode and target so only the latest value per LED/channel is pending
+    public boolean writeFrame(int opcode, int target, int value) {
+        return writeFrame(WriteLanes.INTERACTIVE, opcode, target, value);
+    }
+
+    public synchronized boolean writeFrame(int lane, int opcode, int target, int value) {
+        return writeFrame(frameEncoder, lane, opcode, target, value);
+    }
+
+    private boolean writeFrame(FrameEncoder encoder, int lane, int opcode, int target, int value) {
+        ByteBuffer frame = encoder.encode(opcode, target, value);
+        return bluetoothConnection != null && bluetoothConnection.write(lane, (opcode << 8) | (target & 0xFF),
+                frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    // 0xRRGGBB onto the effect pins, one latest-wins PWM frame per channel
+    public boolean writeColor(int rgb) {
+        if (rgb != 0) {
+            lastColor = rgb;
+        }
+        return writeColor(WriteLanes.INTERACTIVE, rgb);
+    }
+
+    private boolean writeColor(int lane, int rgb) {
+        boolean sent = true;
+        for (int i = 0; i < EFFECT_PINS.length; i++) {
+            sent &= writeFrame(lane, Frame.OP_PWM, EFFECT_PINS[i], (rgb >> (16 - 8 * i)) & 0xFF);
+        }
+        return sent;
+    }
+
+    // the whole light: the LED_PIN byte and the RGB LED on the effect pins, ahead of everything else.
+    // a color still queued on the interactive lane would be written after it, so the same frames follow
+    // it there and supersede that color
+    public synchronized boolean setLight(boolean on) {
+        stopEffect();
+        int rgb = on ? lastColor : 0;
+        boolean sent = write(on ? 1 : 0);
+        sent &= writeColor(WriteLanes.CONTROL, rgb);
+        if (bluetoothConnection.hasQueued(WriteLanes.INTERACTIVE)) {
+            writeColor(WriteLanes.INTERACTIVE, rgb);
+        }
+        return sent;
+    }
+
+    public CommandFuture writeReliable(int opcode, byte[] payload) {
+        return bluetoothConnection.writeReliable(opcode, payload, 0, payload.length);
+    }
+
+    private boolean write(int key, ByteBuffer frame) {
+        return bluetoothConnection != null && bluetoothConnection.write(key, frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    public synchronized void playEffect(Effect effect) {
+        if (effectEngine == null) {
+            effectEngine = new EffectEngine(new EffectEngine.Sink() {
+                @Override
+                public int getBacklog() {
+                    return bluetoothConnection.getWriteBacklog();
+                }
+
+                @Override
+                public boolean send(byte[] channels, int count) {
+                    boolean sent = true;
+                    for (int i = 0; i < count; i++) {
+                        sent &= writeFrame(effectEncoder, WriteLanes.BULK, Frame.OP_PWM, EFFECT_PINS[i], channels[i] & 0xFF);
+                    }
+                    return sent;
+                }
+            }, EFFECT_PINS.length, EFFECT_FPS, EFFECT_PINS.length);
+        }
+        effectEngine.play(effect);
+    }
+
+    // each batch of the scene is one queued write of frames encoded when the scene was saved.
+    // batches for another device than the connected one are skipped, and so is a scene played while
+    // the link is down: replayed from the journal all at once it would lose its timing
+    public synchronized void playScene(CompiledScene scene) {
+        if (scenePlayer == null) {
+            scenePlayer = new ScenePlayer((device, bytes, offset, length) -> (device == null || device.equals(deviceAddress))
+                    && bluetoothConnection.getState() == BluetoothConnection.STATE_CONNECTED
+                    && bluetoothConnection.write(WriteLanes.INTERACTIVE, WriteQueue.NO_KEY, bytes, offset, length));
+        }
+        scenePlayer.play(scene);
+    }
+
+    public synchronized void stopEffect() {
+        if (effectEngine != null) {
+            effectEngine.stop();
+        }
+        if (scenePlayer != null) {
+            scenePlayer.stop();
         }
+        if (stripEngine != null) {
+            stripEngine.stop();
+        }
+        // the engines returned once their last frame was queued, frames still queued would undo the
+        // command that follows the stop
+        bluetoothConnection.discardQueued(WriteLanes.BULK);
+    }
+
+    public boolean writeStrip(byte[] rgb) {
+        return bluetoothConnection.writeStrip(rgb, rgb.length / 3);
+    }
+
+    // the effect renders 3 channels per pixel, frames go out delta encoded
+    public synchronized void playStripEffect(Effect effect, final int pixels) {
+        if (stripEngine != null) {
+            stripEngine.shutdown();
+        }
+        stripEngine = new EffectEngine(new EffectEngine.Sink() {
+            @Override
+            public int getBacklog() {
+                return bluetoothConnection.getWriteBacklog();
+            }
+
+            @Override
+            public boolean send(byte[] channels, int count) {
+                return bluetoothConnection.writeStrip(channels, pixels);
+            }
+        }, pixels * 3, EFFECT_FPS, 0);
+        stripEngine.play(effect);
+    }
+
+    public boolean ping() {
+        return bluetoothConnection.ping();
     }
 
-    public void write(int value) {
-        write(new byte[]{(byte) value});
+    public LinkMetrics.Snapshot getMetrics() {
+        return bluetoothConnection.getMetrics().snapshot();
+    }
+
+    // the last transitions of the link and the time it spent connected
+    public String getStateLog(int transitions) {
+        return bluetoothConnection.getConnectionState().describe(transitions, System.nanoTime());
+    }
+
+    public TelemetryStore getTelemetry() {
+        return bluetoothConnection.getTelemetry();
+    }
+
+    public void setFrameListener(FrameDecoder.FrameListener frameListener) {
+        bluetoothConnection.setFrameListener(frameListener);
     }
 
     private void connectionStart() {
@@ -74,8 +324,22 @@ public class BluetoothConnectionController {
     }
 
     public void destroy() {
-        handler = null;
-        bluetoothDevice = null;
+        synchronized (this) {
+            if (effectEngine != null) {
+                effectEngine.shutdown();
+                effectEngine = null;
+            }
+            if (stripEngine != null) {
+                stripEngine.shutdown();
+                stripEngine = null;
+            }
+            if (scenePlayer != null) {
+                scenePlayer.shutdown();
+                scenePlayer = null;
+            }
+        }
+        dispatcher.unregister(ownerEvents);
+        deviceName = null;
         if (bluetoothConnection != null) {
             bluetoothConnection.connectionStop();
         }
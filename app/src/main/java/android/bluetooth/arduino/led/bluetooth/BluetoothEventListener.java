@@ -5,5 +5,5 @@ public interface BluetoothEventListener {
     void bluetoothConnected(String name);
     void bluetoothDisconnect();
     void bluetoothConnectionFailed();
-    void bluetoothDataTransfer(byte[] buffer);
+    void bluetoothDataTransfer(byte[] buffer, int offset, int length);
 }
\ No newline at end of file
@@ -3,11 +3,9 @@ package android.bluetooth.arduino.led.bluetooth;
 import android.Manifest;
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.app.ProgressDialog;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.arduino.led.R;
-import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -15,14 +13,10 @@ import android.content.pm.PackageManager;
 import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
-import android.widget.ArrayAdapter;
-
-import android.widget.ListAdapter;
 import android.widget.ListView;
+import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.ArrayList;
-
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 
@@ -32,18 +26,28 @@ public class BluetoothManager {
     private BluetoothAdapter bluetoothAdapter;
     private BluetoothBroadcastReceiver discoveryReceiver;
     private final Activity activity;
-    private ArrayList<BluetoothDevice> bluetoothDevices;
+    private final DeviceCache deviceCache;
+    private DeviceListAdapter deviceListAdapter;
+    private View pickerView;
     private AlertDialog alertDialog;
     private Runnable runnable;
     private Handler handler;
+    private boolean refreshPending;
+    private final Runnable refresh = () -> {
+        refreshPending = false;
+        if (deviceListAdapter != null) {
+            deviceListAdapter.notifyDataSetChanged();
+            updateEmptyView(false);
+        }
+    };
 
     public BluetoothManager(Activity activity) {
         this.activity = activity;
+        this.deviceCache = new DeviceCache(activity);
         initializeBluetooth();
     }
 
     public void initializeBluetooth() {
-        bluetoothDevices = new ArrayList<>();
         bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
         if (bluetoothAdapter == null) {
             destroy();
@@ -57,12 +61,8 @@ public class BluetoothManager {
         if (bluetoothPermissionIsFailed()) {
             return;
         }
-        bluetoothDevices.clear();
-        alertDialog = new ProgressDialog(activity);
-        alertDialog.setCancelable(false);
-        alertDialog.setTitle("Searching ...");
-        alertDialog.setMessage("Please wait");
-        alertDialog.show();
+        // known and paired devices are listed right away, discovery adds to the open list in the background
+        showPicker();
         if (bluetoothAdapter.isDiscovering()) {
             bluetoothAdapter.cancelDiscovery();
         }
@@ -113,7 +113,6 @@ public class BluetoothManager {
     }
 
     private void initDiscoveryReceiver() {
-        bluetoothDevices.clear();
         if (handler == null) {
             handler = new Handler();
         } else {
@@ -125,6 +124,9 @@ public class BluetoothManager {
             destroyDiscoveryReceiver();
             finishDiscoveryReceiver();
         };
+        if (discoveryReceiver != null) {
+            activity.unregisterReceiver(discoveryReceiver);
+        }
         handler.postDelayed(runnable, 30 * 1000);
         discoveryReceiver = new BluetoothBroadcastReceiver() {
             @Override
@@ -132,7 +134,8 @@ public class BluetoothManager {
                 String action = intent.getAction();
                 if (action.equals(BluetoothDevice.ACTION_FOUND)) {
                     BluetoothDevice device = intent.getParcelableExtra(BluetoothDevice.EXTRA_DEVICE);
-                    bluetoothDevices.add(device);
+                    int rssi = intent.getShortExtra(BluetoothDevice.EXTRA_RSSI, (short) DeviceEntry.NO_RSSI);
+                    deviceFound(device, rssi);
                 } else if (action.equals(BluetoothAdapter.ACTION_DISCOVERY_FINISHED)) {
                     // finish searching
                     destroyDiscoveryReceiver();
@@ -146,45 +149,93 @@ public class BluetoothManager {
         activity.registerReceiver(discoveryReceiver, intentFilter);
     }
 
-    private void finishDiscoveryReceiver() {
-        View view = LayoutInflater.from(activity).inflate(R.layout.bluetooth_device, null);
-        bluetoothDevices.addAll(bluetoothAdapter.getBondedDevices());
-        ArrayList<String> name = new ArrayList<>();
-        for (BluetoothDevice device : bluetoothDevices) {
-            name.add(device.getName());
-        }
-        if (name.isEmpty()) {
-            view.findViewById(R.id.devices).setVisibility(View.GONE);
-            view.findViewById(R.id.not_found).setVisibility(View.VISIBLE);
-            view.findViewById(R.id.research).setOnClickListener(v -> {
-                alertDialog.dismiss();
-                startSearching();
-            });
-        } else {
-            ListView listView = view.findViewById(R.id.list_view);
-            ListAdapter listAdapter = new ArrayAdapter<>(activity, android.R.layout.simple_list_item_1, name);
-            listView.setAdapter(listAdapter);
-            listView.setOnItemClickListener((parent, view1, position, id) -> {
-                bluetoothAdapter.cancelDiscovery();
-                alertDialog.dismiss();
-                addBluetoothDevice(bluetoothDevices.get(position));
-            });
+    private void showPicker() {
+        pickerView = LayoutInflater.from(activity).inflate(R.layout.bluetooth_device, null);
+        deviceListAdapter = new DeviceListAdapter(activity);
+        for (DeviceEntry entry : deviceCache.load()) {
+            deviceListAdapter.put(entry);
         }
+        for (BluetoothDevice device : bluetoothAdapter.getBondedDevices()) {
+            DeviceEntry entry = new DeviceEntry(device.getAddress());
+            entry.name = device.getName();
+            entry.bonded = true;
+            deviceListAdapter.put(entry);
+        }
+        ((TextView) pickerView.findViewById(R.id.title)).setText("Searching ...");
+        ListView listView = pickerView.findViewById(R.id.list_view);
+        listView.setAdapter(deviceListAdapter);
+        listView.setOnItemClickListener((parent, view1, position, id) -> {
+            DeviceEntry entry = deviceListAdapter.getItem(position);
+            bluetoothAdapter.cancelDiscovery();
+            deviceCache.recordAttempt(entry.address, entry.name);
+            destroyDiscoveryReceiver();
+            dismissPicker();
+            addBluetoothDevice(bluetoothAdapter.getRemoteDevice(entry.address));
+        });
+        pickerView.findViewById(R.id.research).setOnClickListener(v -> {
+            alertDialog.dismiss();
+            startSearching();
+        });
+        updateEmptyView(false);
 
         if (alertDialog != null && alertDialog.isShowing()) {
             alertDialog.dismiss();
-            alertDialog = null;
         }
-
         alertDialog = new AlertDialog.Builder(activity)
-                .setView(view)
+                .setView(pickerView)
+                .setOnDismissListener(dialog -> {
+                    if (bluetoothAdapter != null) {
+                        bluetoothAdapter.cancelDiscovery();
+                    }
+                })
                 .show();
     }
 
+    private void deviceFound(BluetoothDevice device, int rssi) {
+        if (device == null || deviceListAdapter == null) {
+            return;
+        }
+        DeviceEntry entry = new DeviceEntry(device.getAddress());
+        entry.name = device.getName();
+        entry.rssi = rssi;
+        entry.lastSeen = System.currentTimeMillis();
+        entry.discovered = true;
+        if (deviceListAdapter.put(entry) && !refreshPending) {
+            // inquiry results come in bursts, one refresh per burst is enough
+            refreshPending = true;
+            handler.post(refresh);
+        }
+        deviceCache.seen(entry.address, entry.name, rssi);
+    }
+
+    private void finishDiscoveryReceiver() {
+        if (pickerView == null) {
+            return;
+        }
+        ((TextView) pickerView.findViewById(R.id.title)).setText("List of available devices:");
+        pickerView.findViewById(R.id.searching).setVisibility(View.GONE);
+        updateEmptyView(true);
+    }
+
+    private void updateEmptyView(boolean finished) {
+        boolean empty = deviceListAdapter.getCount() == 0;
+        pickerView.findViewById(R.id.devices).setVisibility(empty && finished ? View.GONE : View.VISIBLE);
+        pickerView.findViewById(R.id.not_found).setVisibility(empty && finished ? View.VISIBLE : View.GONE);
+    }
+
     public void destroy() {
         destroyDiscoveryReceiver();
+        dismissPicker();
         bluetoothAdapter = null;
-        bluetoothDevices = null;
+        deviceListAdapter = null;
+        pickerView = null;
+    }
+
+    private void dismissPicker() {
+        if (alertDialog != null && alertDialog.isShowing()) {
+            alertDialog.dismiss();
+        }
+        alertDialog = null;
     }
 
     private void destroyDiscoveryReceiver() {
@@ -192,15 +243,13 @@ public class BluetoothManager {
             activity.unregisterReceiver(discoveryReceiver);
             discoveryReceiver = null;
         }
-        if (alertDialog != null && alertDialog.isShowing()) {
-            alertDialog.dismiss();
-        }
-        alertDialog = null;
         if (handler != null && runnable != null) {
             handler.removeCallbacks(runnable);
         }
         handler = null;
         runnable = null;
+        // discovery is over one way or another, write what it found
+        deviceCache.flush();
     }
 
     public void addBluetoothDevice(BluetoothDevice bluetoothDevice) {
@@ -0,0 +1,169 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.scene.CompiledScene;
+import android.bluetooth.arduino.led.scene.ScenePlayer;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+// several boards at once, events of every link arrive on the main thread tagged with the device address
+public class BluetoothPoolController implements ConnectionPool.Listener {
+
+    private static final int IO_THREADS = 2;
+    private final ConnectionPool pool = new ConnectionPool(IO_THREADS, this);
+    private final PoolEventListener poolEventListener;
+    private final StrategyStore strategyStore;
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+    // reads are tagged with a slot number instead of the address so a message needs no extra object
+    private final ArrayList<String> slots = new ArrayList<>();
+    private final FrameEncoder frameEncoder = new FrameEncoder();
+    private ScenePlayer scenePlayer;
+    private Handler handler;
+
+    static final int _STATE_CHANGED = 0;
+    static final int _STATE_READ = 1;
+
+    public BluetoothPoolController(Context context, PoolEventListener poolEventListener) {
+        this.poolEventListener = poolEventListener;
+        this.strategyStore = new StrategyStore(context.getApplicationContext());
+        initHandler();
+    }
+
+    private void initHandler() {
+        handler = new Handler(Looper.getMainLooper(), msg -> {
+            switch (msg.what) {
+                case BluetoothPoolController._STATE_CHANGED:
+                    String address = (String) msg.obj;
+                    poolEventListener.deviceStateChanged(address, names.get(address), msg.arg1);
+                    break;
+                case BluetoothPoolController._STATE_READ:
+                    ReceiveBuffer in = (ReceiveBuffer) msg.obj;
+                    try {
+                        poolEventListener.deviceDataTransfer(addressAt(msg.arg1), in.getData(), in.getOffset(), in.getLength());
+                    } finally {
+                        in.release();
+                    }
+                    break;
+            }
+            return false;
+        });
+    }
+
+    @Override
+    public void stateChanged(String id, int state) {
+        Handler handler = this.handler;
+        if (handler != null) {
+            handler.obtainMessage(_STATE_CHANGED, state, -1, id).sendToTarget();
+        }
+    }
+
+    @Override
+    public void deviceConnected(String id, String name) {
+        if (name != null) {
+            names.put(id, name);
+        }
+    }
+
+    @Override
+    public void dataReceived(String id, ReceiveBuffer buffer) {
+        Handler handler = this.handler;
+        if (handler == null || !handler.sendMessage(handler.obtainMessage(_STATE_READ, slotOf(id), -1, buffer))) {
+            buffer.release();
+        }
+    }
+
+    private synchronized int slotOf(String address) {
+        int slot = slots.indexOf(address);
+        if (slot < 0) {
+            slots.add(address);
+            slot = slots.size() - 1;
+        }
+        return slot;
+    }
+
+    private synchronized String addressAt(int slot) {
+        return slots.get(slot);
+    }
+
+    public void connect(BluetoothDevice device) {
+        BluetoothConnection connection = pool.obtain(device.getAddress());
+        connection.connect(new RfcommTransportFactory(device, connection.getMetrics(), strategyStore));
+    }
+
+    public void disconnect(String address) {
+        pool.disconnect(address);
+    }
+
+    public Collection<String> getDeviceAddresses() {
+        return pool.getIds();
+    }
+
+    public String getDeviceName(String address) {
+        return names.get(address);
+    }
+
+    // keyed like BluetoothConnectionController.writeFrame, so each board only gets the latest value per LED/channel
+    public synchronized GroupDelivery broadcastFrame(int opcode, int target, int value) {
+        ByteBuffer frame = frameEncoder.encode(opcode, target, value);
+        return pool.broadcast((opcode << 8) | (target & 0xFF), frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    public synchronized GroupDelivery multicastFrame(Collection<String> addresses, int opcode, int target, int value) {
+        ByteBuffer frame = frameEncoder.encode(opcode, target, value);
+        return pool.multicast(addresses, (opcode << 8) | (target & 0xFF), frame.array(), frame.arrayOffset() + frame.position(), frame.remaining());
+    }
+
+    public GroupDelivery broadcastReliable(int opcode, byte[] payload) {
+        return pool.broadcastReliable(opcode, payload, 0, payload.length);
+    }
+
+    public GroupDelivery multicastReliable(Collection<String> addresses, int opcode, byte[] payload) {
+        return pool.multicastReliable(addresses, opcode, payload, 0, payload.length);
+    }
+
+    // batches for Scene.ANY_DEVICE go to every board, the others to the board with that address
+    public synchronized void playScene(CompiledScene scene) {
+        if (scenePlayer == null) {
+            scenePlayer = new ScenePlayer((device, bytes, offset, length) -> {
+                if (device == null) {
+                    return pool.broadcast(WriteQueue.NO_KEY, bytes, offset, length).count(GroupDelivery.QUEUED) > 0;
+                }
+                BluetoothConnection connection = pool.get(device);
+                return connection != null && connection.write(WriteQueue.NO_KEY, bytes, offset, length);
+            });
+        }
+        scenePlayer.play(scene);
+    }
+
+    public synchronized void stopScene() {
+        if (scenePlayer != null) {
+            scenePlayer.stop();
+        }
+    }
+
+    public LinkMetrics.Snapshot getMetrics(String address) {
+        BluetoothConnection connection = pool.get(address);
+        return connection != null ? connection.getMetrics().snapshot() : null;
+    }
+
+    public void destroy() {
+        synchronized (this) {
+            if (scenePlayer != null) {
+                scenePlayer.shutdown();
+                scenePlayer = null;
+            }
+        }
+        handler = null;
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,283 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+// commands issued while the link is down, appended to a memory mapped file so they outlive the app.
+// a keyed command supersedes the earlier one with the same key, so replay sends the latest state per
+// LED/channel and the unkeyed commands, in the order they were issued. the records live in one half of
+// the file; when it is full the live ones are copied to the other half, which only becomes the journal
+// once the copy is complete, so a crash while compacting leaves the old records as they were. bounded:
+// once MAX_RECORDS commands are waiting, new ones are refused like a full write queue
+public final class CommandJournal {
+    public static final int MAX_RECORDS = 128;
+    private static final int MAGIC = 0x4A524E32;
+    private static final int MAX_ADDRESS = 32;
+    // start and end of the records as one aligned long, so both change in a single store
+    private static final int BOUNDS = 8;
+    private static final int ADDRESS = 16;
+    // [magic, 4 bytes][unused, 4 bytes][start, 4 bytes][end, 4 bytes][address length][address, MAX_ADDRESS bytes]
+    private static final int HEADER = ADDRESS + 1 + MAX_ADDRESS;
+    // [length, 2 bytes][key, 4 bytes][lane][command ...]
+    private static final int RECORD_HEADER = 2 + 4 + 1;
+    private static final int MAX_COMMAND = 0xFFFF;
+
+    public interface Replay {
+        boolean offer(int lane, int key, byte[] bytes, int offset, int length);
+    }
+
+    private final ByteBuffer buffer;
+    // size of each half
+    private final int half;
+    private int start;
+    private int end;
+    // live records in the order they were issued
+    private final int[] positions = new int[MAX_RECORDS];
+    private final int[] keys = new int[MAX_RECORDS];
+    private int live;
+    private byte[] scratch = new byte[64];
+    private final byte[] single = new byte[1];
+    private long collapsed;
+    private long refused;
+
+    // the journal lives in buffer: a mapped file, or a heap buffer when it does not need to persist
+    public CommandJournal(ByteBuffer buffer) {
+        half = (buffer.capacity() - HEADER) / 2;
+        if (half < RECORD_HEADER + 1) {
+            throw new IllegalArgumentException("Journal too small: " + buffer.capacity());
+        }
+        this.buffer = buffer;
+        load();
+    }
+
+    public static CommandJournal open(File file, int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            // the mapping stays valid after the channel is closed
+            return new CommandJournal(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity));
+        }
+    }
+
+    private void load() {
+        start = HEADER;
+        end = HEADER;
+        live = 0;
+        if (buffer.getInt(0) != MAGIC) {
+            reset(null);
+            return;
+        }
+        long bounds = buffer.getLong(BOUNDS);
+        int storedStart = (int) (bounds >>> 32);
+        int stored = (int) bounds;
+        if ((storedStart != HEADER && storedStart != HEADER + half) || stored < storedStart || stored > storedStart + half) {
+            reset(null);
+            return;
+        }
+        start = storedStart;
+        // a record cut short by a crash ends the journal, everything before it is kept
+        int position = start;
+        while (position + RECORD_HEADER <= stored) {
+            int length = buffer.getShort(position) & 0xFFFF;
+            if (length == 0 || position + RECORD_HEADER + length > stored) {
+                break;
+            }
+            index(position, buffer.getInt(position + 2));
+            position += RECORD_HEADER + length;
+        }
+        end = position;
+        publish();
+    }
+
+    private void reset(String device) {
+        buffer.putInt(0, MAGIC);
+        start = HEADER;
+        end = HEADER;
+        live = 0;
+        publish();
+        writeDevice(device);
+    }
+
+    private void publish() {
+        buffer.putLong(BOUNDS, (long) start << 32 | end & 0xFFFFFFFFL);
+    }
+
+    // the address the commands were meant for, null before any device connected
+    public synchronized String getDevice() {
+        int length = buffer.get(ADDRESS) & 0xFF;
+        if (length == 0 || length > MAX_ADDRESS) {
+            return null;
+        }
+        byte[] address = new byte[length];
+        for (int i = 0; i < length; i++) {
+            address[i] = buffer.get(ADDRESS + 1 + i);
+        }
+        return new String(address, StandardCharsets.US_ASCII);
+    }
+
+    // commands kept for another device are dropped, they must not reach this one
+    public synchronized void setDevice(String address) {
+        String device = getDevice();
+        if (device != null && !device.equals(address)) {
+            reset(address);
+        } else if (device == null) {
+            writeDevice(address);
+        }
+    }
+
+    private void writeDevice(String address) {
+        byte[] bytes = address != null ? address.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+        int length = Math.min(bytes.length, MAX_ADDRESS);
+        buffer.put(ADDRESS, (byte) length);
+        for (int i = 0; i < length; i++) {
+            buffer.put(ADDRESS + 1 + i, bytes[i]);
+        }
+    }
+
+    public synchronized boolean append(int lane, int key, byte[] bytes, int offset, int length) {
+        if (length <= 0 || length > MAX_COMMAND || RECORD_HEADER + length > half) {
+            refused++;
+            return false;
+        }
+        int superseded = key != WriteQueue.NO_KEY ? find(key) : -1;
+        if (superseded < 0 && live == MAX_RECORDS) {
+            refused++;
+            return false;
+        }
+        if (end + RECORD_HEADER + length > start + half) {
+            if (superseded >= 0) {
+                remove(superseded);
+                collapsed++;
+                superseded = -1;
+            }
+            compact();
+            if (end + RECORD_HEADER + length > start + half) {
+                refused++;
+                return false;
+            }
+        }
+        int position = end;
+        buffer.putShort(position, (short) length);
+        buffer.putInt(position + 2, key);
+        buffer.put(position + 6, (byte) lane);
+        buffer.position(position + RECORD_HEADER);
+        buffer.put(bytes, offset, length);
+        end = position + RECORD_HEADER + length;
+        // the end moves only once the record is complete, a crash before it loses just this record
+        publish();
+        if (superseded >= 0) {
+            remove(superseded);
+            collapsed++;
+        }
+        positions[live] = position;
+        keys[live++] = key;
+        return true;
+    }
+
+    public synchronized boolean append(int lane, int key, int value) {
+        single[0] = (byte) value;
+        return append(lane, key, single, 0, 1);
+    }
+
+    private void index(int position, int key) {
+        if (key != WriteQueue.NO_KEY) {
+            int superseded = find(key);
+            if (superseded >= 0) {
+                remove(superseded);
+                collapsed++;
+            }
+        }
+        if (live == MAX_RECORDS) {
+            // written by a build with a larger bound, the oldest go
+            remove(0);
+        }
+        positions[live] = position;
+        keys[live++] = key;
+    }
+
+    private int find(int key) {
+        for (int i = 0; i < live; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void remove(int index) {
+        System.arraycopy(positions, index + 1, positions, index, live - index - 1);
+        System.arraycopy(keys, index + 1, keys, index, live - index - 1);
+        live--;
+    }
+
+    // live records are copied in order to the other half, which takes over once they are all there.
+    // until then the header still points at the old half and a crash loses nothing
+    private void compact() {
+        int target = start == HEADER ? HEADER + half : HEADER;
+        int position = target;
+        for (int i = 0; i < live; i++) {
+            int from = positions[i];
+            int size = RECORD_HEADER + (buffer.getShort(from) & 0xFFFF);
+            read(from, size);
+            buffer.position(position);
+            buffer.put(scratch, 0, size);
+            positions[i] = position;
+            position += size;
+        }
+        start = target;
+        end = position;
+        publish();
+    }
+
+    private void read(int position, int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        buffer.position(position);
+        buffer.get(scratch, 0, length);
+    }
+
+    // hands the waiting commands to the link and empties the journal. returns how many the link took,
+    // the ones it refused are lost like any write to a full queue
+    public synchronized int replay(Replay replay) {
+        int offered = 0;
+        for (int i = 0; i < live; i++) {
+            int position = positions[i];
+            int length = buffer.getShort(position) & 0xFFFF;
+            read(position + RECORD_HEADER, length);
+            if (replay.offer(buffer.get(position + 6), buffer.getInt(position + 2), scratch, 0, length)) {
+                offered++;
+            } else {
+                refused++;
+            }
+        }
+        live = 0;
+        end = start;
+        publish();
+        return offered;
+    }
+
+    public synchronized void clear() {
+        live = 0;
+        end = start;
+        publish();
+    }
+
+    // commands waiting for the link
+    public synchronized int size() {
+        return live;
+    }
+
+    // commands that were replaced by a later one for the same key before they were sent
+    public synchronized long getCollapsed() {
+        return collapsed;
+    }
+
+    public synchronized long getRefused() {
+        return refused;
+    }
+}
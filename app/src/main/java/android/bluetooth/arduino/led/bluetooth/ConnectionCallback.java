@@ -0,0 +1,12 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+
+public interface ConnectionCallback {
+    void stateChanged(int state);
+
+    void deviceConnected(String name, String address);
+
+    // the buffer must be released once consumed, the reader reuses it
+    void dataReceived(ReceiveBuffer buffer);
+}
@@ -0,0 +1,72 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+// one event of a link as a listener of the EventDispatcher sees it. events are pooled,
+// a listener must not keep the event or its data after onEvent returns
+public final class ConnectionEvent {
+    public static final int STATE_CHANGED = 0;
+    public static final int DEVICE_CONNECTED = 1;
+    // bytes read from the link, several reads merged when the listener batches
+    public static final int DATA = 2;
+    int type;
+    int state;
+    String name;
+    String address;
+    final byte[] data;
+    int length;
+    int reads;
+
+    ConnectionEvent(int capacity) {
+        data = new byte[capacity];
+    }
+
+    boolean append(byte[] bytes, int offset, int count) {
+        if (length + count > data.length) {
+            return false;
+        }
+        System.arraycopy(bytes, offset, data, length, count);
+        length += count;
+        reads++;
+        return true;
+    }
+
+    void clear() {
+        name = null;
+        address = null;
+        length = 0;
+        reads = 0;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    // one of the BluetoothConnection.STATE_ values, for STATE_CHANGED
+    public int getState() {
+        return state;
+    }
+
+    // for DEVICE_CONNECTED
+    public String getName() {
+        return name;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return 0;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getReads() {
+        return reads;
+    }
+}
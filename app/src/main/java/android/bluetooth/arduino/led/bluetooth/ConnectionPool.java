@@ -0,0 +1,187 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.protocol.CommandFuture;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.Transport;
+import android.bluetooth.arduino.led.transport.TransportFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+// drives many boards at once. RFCOMM streams only offer blocking reads, so each link keeps its reader thread;
+// writers, retransmit timers and reconnect backoff of all links share a small bounded executor
+public class ConnectionPool {
+    public interface Listener {
+        void stateChanged(String id, int state);
+
+        void deviceConnected(String id, String name);
+
+        // the buffer must be released once consumed, the reader reuses it
+        void dataReceived(String id, ReceiveBuffer buffer);
+    }
+
+    private final Listener listener;
+    private final ScheduledThreadPoolExecutor io;
+    private final LinkedHashMap<String, BluetoothConnection> connections = new LinkedHashMap<>();
+    // copy on write, group sends iterate it without taking the pool lock
+    private volatile Link[] links = new Link[0];
+
+    private static final class Link {
+        final String id;
+        final BluetoothConnection connection;
+
+        Link(String id, BluetoothConnection connection) {
+            this.id = id;
+            this.connection = connection;
+        }
+    }
+
+    public ConnectionPool(int ioThreads, Listener listener) {
+        this.listener = listener;
+        io = new ScheduledThreadPoolExecutor(ioThreads, runnable -> {
+            Thread thread = new Thread(runnable, "LinkIO");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // cancelled retransmit ticks and backoff timers would otherwise stay queued until they are due
+        io.setRemoveOnCancelPolicy(true);
+    }
+
+    // the connection for this id, created on first use so callers can build a transport factory around its metrics
+    public synchronized BluetoothConnection obtain(final String id) {
+        BluetoothConnection connection = connections.get(id);
+        if (connection == null) {
+            connection = new BluetoothConnection(new ConnectionCallback() {
+                @Override
+                public void stateChanged(int state) {
+                    listener.stateChanged(id, state);
+                }
+
+                @Override
+                public void deviceConnected(String name, String address) {
+                    listener.deviceConnected(id, name);
+                }
+
+                @Override
+                public void dataReceived(ReceiveBuffer buffer) {
+                    listener.dataReceived(id, buffer);
+                }
+            }, io);
+            connections.put(id, connection);
+            publish();
+        }
+        return connection;
+    }
+
+    public BluetoothConnection connect(String id, TransportFactory factory) {
+        BluetoothConnection connection = obtain(id);
+        connection.connect(factory);
+        return connection;
+    }
+
+    public BluetoothConnection connect(String id, Transport transport) {
+        BluetoothConnection connection = obtain(id);
+        connection.connect(transport);
+        return connection;
+    }
+
+    public void disconnect(String id) {
+        BluetoothConnection connection;
+        synchronized (this) {
+            connection = connections.remove(id);
+            publish();
+        }
+        if (connection != null) {
+            connection.connectionStop();
+        }
+    }
+
+    public synchronized BluetoothConnection get(String id) {
+        return connections.get(id);
+    }
+
+    public synchronized List<String> getIds() {
+        return new ArrayList<>(connections.keySet());
+    }
+
+    public int size() {
+        return links.length;
+    }
+
+    private void publish() {
+        Link[] links = new Link[connections.size()];
+        int i = 0;
+        for (String id : connections.keySet()) {
+            links[i++] = new Link(id, connections.get(id));
+        }
+        this.links = links;
+    }
+
+    // the command is encoded once by the caller, each link copies it into its own write queue
+    public GroupDelivery broadcast(int key, byte[] bytes, int offset, int length) {
+        Link[] links = this.links;
+        GroupDelivery delivery = new GroupDelivery(links.length);
+        for (Link link : links) {
+            delivery.add(link.id, write(link.connection, key, bytes, offset, length));
+        }
+        return delivery;
+    }
+
+    public GroupDelivery multicast(Collection<String> ids, int key, byte[] bytes, int offset, int length) {
+        GroupDelivery delivery = new GroupDelivery(ids.size());
+        for (String id : ids) {
+            BluetoothConnection connection = get(id);
+            delivery.add(id, connection == null ? GroupDelivery.NOT_CONNECTED : write(connection, key, bytes, offset, length));
+        }
+        return delivery;
+    }
+
+    public GroupDelivery broadcastReliable(int opcode, byte[] payload, int offset, int length) {
+        Link[] links = this.links;
+        GroupDelivery delivery = new GroupDelivery(links.length);
+        for (Link link : links) {
+            writeReliable(delivery, link.id, link.connection, opcode, payload, offset, length);
+        }
+        return delivery;
+    }
+
+    public GroupDelivery multicastReliable(Collection<String> ids, int opcode, byte[] payload, int offset, int length) {
+        GroupDelivery delivery = new GroupDelivery(ids.size());
+        for (String id : ids) {
+            writeReliable(delivery, id, get(id), opcode, payload, offset, length);
+        }
+        return delivery;
+    }
+
+    private static int write(BluetoothConnection connection, int key, byte[] bytes, int offset, int length) {
+        if (connection.getState() != BluetoothConnection.STATE_CONNECTED) {
+            return GroupDelivery.NOT_CONNECTED;
+        }
+        return connection.write(key, bytes, offset, length) ? GroupDelivery.QUEUED : GroupDelivery.DROPPED;
+    }
+
+    private static void writeReliable(GroupDelivery delivery, String id, BluetoothConnection connection, int opcode, byte[] payload, int offset, int length) {
+        if (connection == null || connection.getState() != BluetoothConnection.STATE_CONNECTED) {
+            delivery.add(id, GroupDelivery.NOT_CONNECTED);
+            return;
+        }
+        CommandFuture future = connection.writeReliable(opcode, payload, offset, length);
+        delivery.add(id, future);
+    }
+
+    public void shutdown() {
+        Link[] links;
+        synchronized (this) {
+            links = this.links;
+            connections.clear();
+            publish();
+        }
+        for (Link link : links) {
+            link.connection.connectionStop();
+        }
+        io.shutdown();
+    }
+}
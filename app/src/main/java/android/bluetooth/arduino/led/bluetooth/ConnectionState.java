@@ -0,0 +1,178 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static android.bluetooth.arduino.led.bluetooth.BluetoothConnection.STATE_CONNECTED;
+import static android.bluetooth.arduino.led.bluetooth.BluetoothConnection.STATE_CONNECTING;
+import static android.bluetooth.arduino.led.bluetooth.BluetoothConnection.STATE_CONNECTION_FAILED;
+import static android.bluetooth.arduino.led.bluetooth.BluetoothConnection.STATE_LISTEN;
+import static android.bluetooth.arduino.led.bluetooth.BluetoothConnection.STATE_NONE;
+
+// the state of one link together with the connect attempt it belongs to, packed into one atomic.
+// a thread of an older attempt compares against its own attempt number, so it can never move a newer
+// attempt along, and a move the table does not allow is refused. the last transitions are kept with
+// their time, and the time spent in each state adds up
+public final class ConnectionState {
+    private static final int STATES = 5;
+    private static final int LOG_SIZE = 64;
+    // allowed targets per state, bit n is state n - 1 so STATE_CONNECTION_FAILED fits in
+    private static final int[] ALLOWED = new int[STATES];
+
+    static {
+        allow(STATE_NONE, STATE_LISTEN, STATE_CONNECTING);
+        allow(STATE_LISTEN, STATE_NONE, STATE_CONNECTING);
+        allow(STATE_CONNECTING, STATE_NONE, STATE_LISTEN, STATE_CONNECTING, STATE_CONNECTED, STATE_CONNECTION_FAILED);
+        allow(STATE_CONNECTED, STATE_NONE, STATE_LISTEN, STATE_CONNECTING);
+        allow(STATE_CONNECTION_FAILED, STATE_NONE, STATE_LISTEN, STATE_CONNECTING);
+    }
+
+    private final AtomicLong current = new AtomicLong(pack(0, STATE_NONE));
+    private final long[] logTimes = new long[LOG_SIZE];
+    private final int[] logAttempts = new int[LOG_SIZE];
+    private final byte[] logFrom = new byte[LOG_SIZE];
+    private final byte[] logTo = new byte[LOG_SIZE];
+    private long logged;
+    private final long[] timeIn = new long[STATES];
+    private long enteredAt = -1;
+    private long refused;
+
+    private static void allow(int from, int... to) {
+        for (int state : to) {
+            ALLOWED[from + 1] |= 1 << (state + 1);
+        }
+    }
+
+    public static boolean allowed(int from, int to) {
+        return (ALLOWED[from + 1] & 1 << (to + 1)) != 0;
+    }
+
+    private static long pack(int attempt, int state) {
+        return (long) attempt << 8 | (state + 1);
+    }
+
+    private static int stateOf(long packed) {
+        return (int) (packed & 0xFF) - 1;
+    }
+
+    private static int attemptOf(long packed) {
+        return (int) (packed >>> 8);
+    }
+
+    public int get() {
+        return stateOf(current.get());
+    }
+
+    public int getAttempt() {
+        return attemptOf(current.get());
+    }
+
+    // a new connect attempt from whatever state the link is in, returns its number
+    public int begin(long now) {
+        while (true) {
+            long packed = current.get();
+            int attempt = attemptOf(packed) + 1;
+            if (current.compareAndSet(packed, pack(attempt, STATE_CONNECTING))) {
+                record(attempt, stateOf(packed), STATE_CONNECTING, now);
+                return attempt;
+            }
+        }
+    }
+
+    // only succeeds while the link is still in from within the given attempt
+    public boolean transition(int attempt, int from, int to, long now) {
+        if (!allowed(from, to)) {
+            refuse();
+            return false;
+        }
+        if (!current.compareAndSet(pack(attempt, from), pack(attempt, to))) {
+            refuse();
+            return false;
+        }
+        record(attempt, from, to, now);
+        return true;
+    }
+
+    // from whatever state the current attempt is in, false when it already was there or may not go there
+    public boolean moveTo(int to, long now) {
+        while (true) {
+            long packed = current.get();
+            int from = stateOf(packed);
+            if (from == to) {
+                return false;
+            }
+            if (!allowed(from, to)) {
+                refuse();
+                return false;
+            }
+            if (current.compareAndSet(packed, pack(attemptOf(packed), to))) {
+                record(attemptOf(packed), from, to, now);
+                return true;
+            }
+        }
+    }
+
+    private synchronized void refuse() {
+        refused++;
+    }
+
+    private synchronized void record(int attempt, int from, int to, long now) {
+        if (enteredAt >= 0) {
+            timeIn[from + 1] += now - enteredAt;
+        }
+        enteredAt = now;
+        int index = (int) (logged++ % LOG_SIZE);
+        logTimes[index] = now;
+        logAttempts[index] = attempt;
+        logFrom[index] = (byte) from;
+        logTo[index] = (byte) to;
+    }
+
+    // total time in the state, including the current stay
+    public synchronized long getNanosIn(int state, long now) {
+        long total = timeIn[state + 1];
+        if (enteredAt >= 0 && get() == state) {
+            total += now - enteredAt;
+        }
+        return total;
+    }
+
+    public synchronized long getTransitions() {
+        return logged;
+    }
+
+    // transitions the table or a newer attempt refused, a stale thread shows up here
+    public synchronized long getRefused() {
+        return refused;
+    }
+
+    // up to count of the last transitions, oldest first, as "-12 ms #2 CONNECTING -> CONNECTED" before now
+    public synchronized String describe(int count, long now) {
+        StringBuilder out = new StringBuilder();
+        long first = Math.max(0, logged - Math.min(count, LOG_SIZE));
+        for (long i = first; i < logged; i++) {
+            int index = (int) (i % LOG_SIZE);
+            out.append((logTimes[index] - now) / 1000000L).append(" ms #").append(logAttempts[index]).append(' ')
+                    .append(name(logFrom[index])).append(" -> ").append(name(logTo[index])).append('\n');
+        }
+        out.append("connected ").append(getNanosIn(STATE_CONNECTED, now) / 1000000L).append(" ms, connecting ")
+                .append(getNanosIn(STATE_CONNECTING, now) / 1000000L).append(" ms, ").append(refused).append(" refused");
+        return out.toString();
+    }
+
+    public static String name(int state) {
+        switch (state) {
+            case STATE_NONE:
+                return "NONE";
+            case STATE_LISTEN:
+                return "LISTEN";
+            case STATE_CONNECTING:
+                return "CONNECTING";
+            case STATE_CONNECTED:
+                return "CONNECTED";
+            case STATE_CONNECTION_FAILED:
+                return "FAILED";
+            default:
+                return Integer.toString(state);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+// devices seen or used before, so the picker can show them before discovery finds anything.
+// what discovery finds stays in memory and is written in one go by flush() once it is over
+public class DeviceCache {
+    private static final int MAX_ENTRIES = 64;
+    // most successful connections first, then most recently seen
+    private static final Comparator<DeviceEntry> ORDER = (a, b) -> {
+        if (a.successes != b.successes) {
+            return Integer.compare(b.successes, a.successes);
+        }
+        return Long.compare(b.lastSeen, a.lastSeen);
+    };
+    private final SharedPreferences preferences;
+    // name, signal and time of the devices seen since the last flush
+    private final HashMap<String, DeviceEntry> sightings = new HashMap<>();
+
+    public DeviceCache(Context context) {
+        preferences = context.getSharedPreferences("device_cache", Context.MODE_PRIVATE);
+    }
+
+    public ArrayList<DeviceEntry> load() {
+        ArrayList<DeviceEntry> entries = new ArrayList<>(entries().values());
+        Collections.sort(entries, ORDER);
+        return entries;
+    }
+
+    // the stored entries with the sightings not written yet on top
+    private HashMap<String, DeviceEntry> entries() {
+        HashMap<String, DeviceEntry> entries = new HashMap<>();
+        for (Map.Entry<String, ?> value : preferences.getAll().entrySet()) {
+            if (value.getValue() instanceof String) {
+                entries.put(value.getKey(), DeviceEntry.decode(value.getKey(), (String) value.getValue()));
+            }
+        }
+        for (DeviceEntry sighting : sightings.values()) {
+            DeviceEntry entry = entries.get(sighting.address);
+            if (entry == null) {
+                entry = new DeviceEntry(sighting.address);
+                entries.put(entry.address, entry);
+            }
+            apply(sighting, entry);
+        }
+        return entries;
+    }
+
+    private static void apply(DeviceEntry sighting, DeviceEntry entry) {
+        if (sighting.name != null) {
+            entry.name = sighting.name;
+        }
+        if (sighting.rssi != DeviceEntry.NO_RSSI) {
+            entry.rssi = sighting.rssi;
+        }
+        entry.lastSeen = Math.max(entry.lastSeen, sighting.lastSeen);
+    }
+
+    public DeviceEntry get(String address) {
+        String value = preferences.getString(address, null);
+        return value != null ? DeviceEntry.decode(address, value) : new DeviceEntry(address);
+    }
+
+    // called for every inquiry result, nothing is written until flush()
+    public void seen(String address, String name, int rssi) {
+        DeviceEntry sighting = sightings.get(address);
+        if (sighting == null) {
+            sighting = new DeviceEntry(address);
+            sightings.put(address, sighting);
+        }
+        if (name != null) {
+            sighting.name = name;
+        }
+        if (rssi != DeviceEntry.NO_RSSI) {
+            sighting.rssi = rssi;
+        }
+        sighting.lastSeen = System.currentTimeMillis();
+    }
+
+    // one write for the whole discovery. the sightings go onto what is stored now, so counts another
+    // instance recorded in the meantime, e.g. the connection service's, are kept
+    public void flush() {
+        if (sightings.isEmpty()) {
+            return;
+        }
+        HashMap<String, DeviceEntry> entries = entries();
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String address : sightings.keySet()) {
+            editor.putString(address, entries.get(address).encode());
+        }
+        if (entries.size() > MAX_ENTRIES) {
+            // forget the least used devices
+            ArrayList<DeviceEntry> sorted = new ArrayList<>(entries.values());
+            Collections.sort(sorted, ORDER);
+            for (int i = MAX_ENTRIES; i < sorted.size(); i++) {
+                editor.remove(sorted.get(i).address);
+            }
+        }
+        sightings.clear();
+        editor.apply();
+    }
+
+    public void recordAttempt(String address, String name) {
+        DeviceEntry entry = get(address);
+        if (name != null) {
+            entry.name = name;
+        }
+        entry.attempts++;
+        put(entry);
+    }
+
+    public void recordSuccess(String address) {
+        DeviceEntry entry = get(address);
+        entry.successes = Math.min(entry.successes + 1, Math.max(entry.attempts, 1));
+        entry.attempts = Math.max(entry.attempts, entry.successes);
+        entry.lastSeen = System.currentTimeMillis();
+        put(entry);
+    }
+
+    private void put(DeviceEntry entry) {
+        SharedPreferences.Editor editor = preferences.edit().putString(entry.address, entry.encode());
+        Map<String, ?> all = preferences.getAll();
+        if (!all.containsKey(entry.address) && all.size() >= MAX_ENTRIES) {
+            // forget the least used device
+            ArrayList<DeviceEntry> entries = load();
+            editor.remove(entries.get(entries.size() - 1).address);
+        }
+        editor.apply();
+    }
+}
@@ -0,0 +1,160 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+// model of one board's micros() clock seen from System.nanoTime(), fitted from OP_TIME exchanges.
+// the device clock is a wrapping 32 bit counter, it is unwrapped against the model's prediction
+public final class DeviceClock {
+    private static final int SAMPLES = 16;
+    private static final int MIN_SAMPLES = 4;
+    // samples whose round trip is this much above the best one carry mostly queueing delay
+    private static final long RTT_SLACK_MICROS = 2000;
+    // below this span the drift can not be told apart from jitter
+    private static final long MIN_DRIFT_SPAN_MICROS = 2000000;
+    private final long[] hostMicros = new long[SAMPLES];
+    private final long[] offsetMicros = new long[SAMPLES];
+    private final long[] rttMicros = new long[SAMPLES];
+    private final int[] executedAt = new int[256];
+    private final int[] scheduledAt = new int[256];
+    private final boolean[] executed = new boolean[256];
+    private int count;
+    private int next;
+    private long lastDevice;
+    private long reference;
+    private double offset;
+    private double drift;
+    private long bestRtt = Long.MAX_VALUE;
+
+    public static long hostMicros() {
+        return System.nanoTime() / 1000;
+    }
+
+    // one exchange: the host sent at sentNanos, the device answered with its clock, the answer arrived at receivedNanos
+    public synchronized void sample(long sentNanos, long receivedNanos, int deviceMicros) {
+        long rtt = (receivedNanos - sentNanos) / 1000;
+        long mid = (sentNanos + receivedNanos) / 2000;
+        long device = count == 0 ? deviceMicros & 0xFFFFFFFFL : expand(deviceMicros, count < MIN_SAMPLES ? lastDevice : predict(mid));
+        lastDevice = device;
+        hostMicros[next] = mid;
+        offsetMicros[next] = device - mid;
+        rttMicros[next] = rtt;
+        next = (next + 1) % SAMPLES;
+        if (count < SAMPLES) {
+            count++;
+        }
+        fit();
+    }
+
+    private void fit() {
+        bestRtt = Long.MAX_VALUE;
+        for (int i = 0; i < count; i++) {
+            bestRtt = Math.min(bestRtt, rttMicros[i]);
+        }
+        long limit = bestRtt + Math.max(RTT_SLACK_MICROS, bestRtt / 2);
+        // least squares over the clean samples, relative to the first one to keep the doubles small
+        reference = -1;
+        int n = 0;
+        double sumX = 0;
+        double sumY = 0;
+        double sumXX = 0;
+        double sumXY = 0;
+        long first = 0;
+        long minX = Long.MAX_VALUE;
+        long maxX = Long.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            if (rttMicros[i] > limit) {
+                continue;
+            }
+            if (n == 0) {
+                reference = hostMicros[i];
+                first = offsetMicros[i];
+            }
+            double x = hostMicros[i] - reference;
+            double y = offsetMicros[i] - first;
+            sumX += x;
+            sumY += y;
+            sumXX += x * x;
+            sumXY += x * y;
+            minX = Math.min(minX, hostMicros[i]);
+            maxX = Math.max(maxX, hostMicros[i]);
+            n++;
+        }
+        double denominator = n * sumXX - sumX * sumX;
+        if (n >= 3 && maxX - minX >= MIN_DRIFT_SPAN_MICROS && denominator != 0) {
+            drift = (n * sumXY - sumX * sumY) / denominator;
+            offset = first + (sumY - drift * sumX) / n;
+        } else {
+            drift = 0;
+            offset = first + sumY / n;
+        }
+    }
+
+    private long predict(long hostMicros) {
+        return hostMicros + Math.round(offset + drift * (hostMicros - reference));
+    }
+
+    private static long expand(int raw, long near) {
+        return near + (raw - (int) near);
+    }
+
+    public synchronized boolean isSynced() {
+        return count >= MIN_SAMPLES;
+    }
+
+    // device clock value at the given host time
+    public synchronized int toDevice(long hostMicros) {
+        return (int) predict(hostMicros);
+    }
+
+    // host time of a device clock value from around now
+    public synchronized long toHost(int deviceMicros) {
+        long now = hostMicros();
+        long device = expand(deviceMicros, predict(now));
+        return now + (device - predict(now));
+    }
+
+    // half the best round trip, also the bound on the offset error
+    public synchronized long getLatencyMicros() {
+        return bestRtt == Long.MAX_VALUE ? 0 : bestRtt / 2;
+    }
+
+    public synchronized double getDriftPpm() {
+        return drift * 1000000;
+    }
+
+    public synchronized void executed(int id, int scheduled, int actual) {
+        id &= 0xFF;
+        scheduledAt[id] = scheduled;
+        executedAt[id] = actual;
+        executed[id] = true;
+        notifyAll();
+    }
+
+    synchronized void expect(int id) {
+        executed[id & 0xFF] = false;
+    }
+
+    // device clock value the command ran at, or waits until the deadline and reports false
+    synchronized boolean awaitExecuted(int id, long deadlineNanos) throws InterruptedException {
+        id &= 0xFF;
+        while (!executed[id]) {
+            long remaining = deadlineNanos - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(Math.max(1, remaining / 1000000));
+        }
+        return true;
+    }
+
+    synchronized int getExecutedAt(int id) {
+        return executedAt[id & 0xFF];
+    }
+
+    synchronized int getScheduledAt(int id) {
+        return scheduledAt[id & 0xFF];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return isSynced() ? "offset " + Math.round(offset) + " us +-" + getLatencyMicros() + " us, drift " + Math.round(getDriftPpm()) + " ppm" : "not synced";
+    }
+}
@@ -0,0 +1,75 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+public class DeviceEntry {
+    public static final int NO_RSSI = Short.MIN_VALUE;
+    final String address;
+    final long id;
+    String name;
+    long lastSeen;
+    int rssi = NO_RSSI;
+    int attempts;
+    int successes;
+    boolean bonded;
+    boolean discovered;
+    int moduleScore;
+
+    DeviceEntry(String address) {
+        this.address = address;
+        this.id = toId(address);
+    }
+
+    // the 48 bit MAC itself, stable and unique for list item ids
+    private static long toId(String address) {
+        long id = 0;
+        for (int i = 0; i < address.length(); i++) {
+            int digit = Character.digit(address.charAt(i), 16);
+            if (digit >= 0) {
+                id = (id << 4) | digit;
+            }
+        }
+        return id;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public String getName() {
+        return name != null ? name : address;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    public long getLastSeen() {
+        return lastSeen;
+    }
+
+    public int getSuccessRate() {
+        return attempts == 0 ? -1 : successes * 100 / attempts;
+    }
+
+    // lastSeen|rssi|attempts|successes|name, the name goes last because it may contain anything
+    String encode() {
+        return lastSeen + "|" + rssi + "|" + attempts + "|" + successes + "|" + (name != null ? name : "");
+    }
+
+    static DeviceEntry decode(String address, String value) {
+        DeviceEntry entry = new DeviceEntry(address);
+        String[] parts = value.split("\\|", 5);
+        if (parts.length < 5) {
+            return entry;
+        }
+        try {
+            entry.lastSeen = Long.parseLong(parts[0]);
+            entry.rssi = Integer.parseInt(parts[1]);
+            entry.attempts = Integer.parseInt(parts[2]);
+            entry.successes = Integer.parseInt(parts[3]);
+        } catch (NumberFormatException e) {
+            return new DeviceEntry(address);
+        }
+        entry.name = parts[4].isEmpty() ? null : parts[4];
+        return entry;
+    }
+}
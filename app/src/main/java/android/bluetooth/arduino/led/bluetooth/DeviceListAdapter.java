@@ -0,0 +1,131 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+
+// one row per device address kept in rank order, discovery results update rows in place
+class DeviceListAdapter extends BaseAdapter {
+    private final Context context;
+    private final ArrayList<DeviceEntry> entries = new ArrayList<>();
+    private final HashMap<String, DeviceEntry> byAddress = new HashMap<>();
+    private final DeviceRanking ranking = new DeviceRanking();
+
+    DeviceListAdapter(Context context) {
+        this.context = context;
+    }
+
+    // returns false when the entry changed nothing that is shown, so the list does not need a refresh
+    boolean put(DeviceEntry entry) {
+        DeviceEntry existing = byAddress.get(entry.address);
+        if (existing == null) {
+            entry.moduleScore = DeviceRanking.moduleScore(entry.name);
+            byAddress.put(entry.address, entry);
+            insert(entry);
+            return true;
+        }
+        boolean changed = false;
+        if (entry.name != null && !entry.name.equals(existing.name)) {
+            existing.name = entry.name;
+            existing.moduleScore = DeviceRanking.moduleScore(entry.name);
+            changed = true;
+        }
+        if (entry.rssi != DeviceEntry.NO_RSSI && entry.rssi != existing.rssi) {
+            existing.rssi = entry.rssi;
+            changed = true;
+        }
+        if (entry.bonded && !existing.bonded) {
+            existing.bonded = true;
+            changed = true;
+        }
+        if (entry.discovered && !existing.discovered) {
+            existing.discovered = true;
+            changed = true;
+        }
+        boolean seen = entry.lastSeen > existing.lastSeen;
+        if (seen) {
+            existing.lastSeen = entry.lastSeen;
+        }
+        if (changed || seen) {
+            int index = entries.indexOf(existing);
+            if (!inOrder(index)) {
+                entries.remove(index);
+                insert(existing);
+                changed = true;
+            }
+        }
+        // a newer lastSeen alone is not shown for devices in range
+        return changed;
+    }
+
+    private void insert(DeviceEntry entry) {
+        int index = Collections.binarySearch(entries, entry, ranking);
+        entries.add(index < 0 ? -index - 1 : index, entry);
+    }
+
+    private boolean inOrder(int index) {
+        DeviceEntry entry = entries.get(index);
+        return (index == 0 || ranking.compare(entries.get(index - 1), entry) <= 0)
+                && (index == entries.size() - 1 || ranking.compare(entry, entries.get(index + 1)) <= 0);
+    }
+
+    @Override
+    public int getCount() {
+        return entries.size();
+    }
+
+    @Override
+    public DeviceEntry getItem(int position) {
+        return entries.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return entries.get(position).id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        View view = convertView;
+        if (view == null) {
+            view = LayoutInflater.from(context).inflate(android.R.layout.simple_list_item_2, parent, false);
+        }
+        DeviceEntry entry = entries.get(position);
+        ((TextView) view.findViewById(android.R.id.text1)).setText(entry.getName());
+        ((TextView) view.findViewById(android.R.id.text2)).setText(describe(entry));
+        return view;
+    }
+
+    private static String describe(DeviceEntry entry) {
+        StringBuilder text = new StringBuilder(entry.address);
+        if (entry.discovered) {
+            text.append(", in range");
+            if (entry.rssi != DeviceEntry.NO_RSSI) {
+                text.append(" ").append(entry.rssi).append(" dBm");
+            }
+        } else if (entry.lastSeen > 0) {
+            text.append(", seen ").append(DateUtils.getRelativeTimeSpanString(entry.lastSeen));
+        }
+        if (entry.bonded) {
+            text.append(", paired");
+        }
+        int successRate = entry.getSuccessRate();
+        if (successRate >= 0) {
+            text.append(", ").append(successRate).append("% connected");
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import java.util.Comparator;
+import java.util.Locale;
+
+// likely Arduino serial modules first, then devices that connected before, then the strongest signal
+class DeviceRanking implements Comparator<DeviceEntry> {
+    // default names of the common serial modules, linvor is the factory name of older HC-06 boards
+    private static final String[] MODULE_NAMES = {"hc-0", "linvor", "jdy-", "bt05", "bt04", "hm-1", "at-09", "arduino"};
+    // rssi changes by a few dB between inquiry results, 8 dB buckets keep rows from jumping around
+    private static final int RSSI_BUCKET_SHIFT = 3;
+
+    static int moduleScore(String name) {
+        if (name == null) {
+            return 0;
+        }
+        String lower = name.toLowerCase(Locale.US);
+        for (String module : MODULE_NAMES) {
+            if (lower.contains(module)) {
+                return 1;
+            }
+        }
+        return 0;
+    }
+
+    static int signalBucket(int rssi) {
+        if (rssi == DeviceEntry.NO_RSSI) {
+            return Integer.MIN_VALUE;
+        }
+        return rssi >> RSSI_BUCKET_SHIFT;
+    }
+
+    @Override
+    public int compare(DeviceEntry a, DeviceEntry b) {
+        int result = Integer.compare(b.moduleScore, a.moduleScore);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(b.successes, a.successes);
+        if (result != 0) {
+            return result;
+        }
+        result = Boolean.compare(b.discovered, a.discovered);
+        if (result != 0) {
+            return result;
+        }
+        result = Integer.compare(signalBucket(b.rssi), signalBucket(a.rssi));
+        if (result != 0) {
+            return result;
+        }
+        result = Long.compare(b.lastSeen, a.lastSeen);
+        if (result != 0) {
+            return result;
+        }
+        return a.address.compareTo(b.address);
+    }
+}
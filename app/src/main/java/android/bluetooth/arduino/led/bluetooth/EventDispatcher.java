@@ -0,0 +1,183 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+// fans the events of a link out to listeners, each on the executor it registered with: the main thread,
+// a background executor or DIRECT on the thread that published. every listener gets its own copy of the
+// bytes read, so the reader hands its buffer back at once and a slow listener only ever slows itself
+public final class EventDispatcher {
+    public static final Executor DIRECT = Runnable::run;
+    // events waiting for one listener, reads beyond that are dropped for it, state changes never are
+    private static final int MAX_QUEUED = 64;
+
+    public interface Listener {
+        // the event is recycled once this returns
+        void onEvent(ConnectionEvent event);
+    }
+
+    private final ArrayBlockingQueue<ConnectionEvent> pool;
+    private final int eventCapacity;
+    private volatile Registration[] registrations = new Registration[0];
+    private final AtomicLong dropped = new AtomicLong();
+
+    public EventDispatcher(int poolSize, int eventCapacity) {
+        this.eventCapacity = eventCapacity;
+        pool = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            pool.add(new ConnectionEvent(eventCapacity));
+        }
+    }
+
+    // batchReads: reads that arrive before the executor runs the listener are merged into one DATA event,
+    // with a per frame executor the listener sees at most one read event per frame
+    public synchronized void register(Listener listener, Executor executor, boolean batchReads) {
+        Registration[] current = registrations;
+        Registration[] next = new Registration[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = new Registration(listener, executor, batchReads);
+        registrations = next;
+    }
+
+    public synchronized void unregister(Listener listener) {
+        Registration[] current = registrations;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i].listener == listener) {
+                current[i].active = false;
+                Registration[] next = new Registration[current.length - 1];
+                System.arraycopy(current, 0, next, 0, i);
+                System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+                registrations = next;
+                return;
+            }
+        }
+    }
+
+    public void stateChanged(int state) {
+        for (Registration registration : registrations) {
+            ConnectionEvent event = obtain();
+            event.type = ConnectionEvent.STATE_CHANGED;
+            event.state = state;
+            registration.enqueue(event);
+        }
+    }
+
+    public void deviceConnected(String name, String address) {
+        for (Registration registration : registrations) {
+            ConnectionEvent event = obtain();
+            event.type = ConnectionEvent.DEVICE_CONNECTED;
+            event.name = name;
+            event.address = address;
+            registration.enqueue(event);
+        }
+    }
+
+    // the bytes are copied before this returns
+    public void dataReceived(byte[] bytes, int offset, int length) {
+        for (Registration registration : registrations) {
+            for (int at = offset; at < offset + length; at += eventCapacity) {
+                if (!registration.append(bytes, at, Math.min(eventCapacity, offset + length - at))) {
+                    dropped.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    private ConnectionEvent obtain() {
+        ConnectionEvent event = pool.poll();
+        // the pool only runs dry while listeners lag behind, a state change is still worth an allocation
+        return event != null ? event : new ConnectionEvent(eventCapacity);
+    }
+
+    private void recycle(ConnectionEvent event) {
+        event.clear();
+        pool.offer(event);
+    }
+
+    // reads a lagging listener did not get
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    // runs on the executor of its listener, one drain at a time so the listener sees events in order
+    private final class Registration implements Runnable {
+        final Listener listener;
+        final Executor executor;
+        final boolean batchReads;
+        volatile boolean active = true;
+        private final ArrayDeque<ConnectionEvent> queued = new ArrayDeque<>(MAX_QUEUED);
+        private boolean scheduled;
+
+        Registration(Listener listener, Executor executor, boolean batchReads) {
+            this.listener = listener;
+            this.executor = executor;
+            this.batchReads = batchReads;
+        }
+
+        void enqueue(ConnectionEvent event) {
+            boolean schedule;
+            synchronized (this) {
+                queued.addLast(event);
+                schedule = !scheduled;
+                scheduled = true;
+            }
+            if (schedule) {
+                executor.execute(this);
+            }
+        }
+
+        boolean append(byte[] bytes, int offset, int length) {
+            synchronized (this) {
+                ConnectionEvent last = queued.peekLast();
+                if (batchReads && last != null && last.type == ConnectionEvent.DATA && last.append(bytes, offset, length)) {
+                    return true;
+                }
+                if (queued.size() >= MAX_QUEUED) {
+                    return false;
+                }
+            }
+            ConnectionEvent event = pool.poll();
+            if (event == null) {
+                return false;
+            }
+            event.type = ConnectionEvent.DATA;
+            event.append(bytes, offset, length);
+            enqueue(event);
+            return true;
+        }
+
+        @Override
+        public void run() {
+            boolean drained = false;
+            try {
+                while (true) {
+                    ConnectionEvent event;
+                    synchronized (this) {
+                        event = queued.pollFirst();
+                        if (event == null) {
+                            scheduled = false;
+                            drained = true;
+                            return;
+                        }
+                    }
+                    try {
+                        if (active) {
+                            listener.onEvent(event);
+                        }
+                    } finally {
+                        recycle(event);
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    // the listener threw, the next event schedules the rest
+                    synchronized (this) {
+                        scheduled = false;
+                    }
+                }
+            }
+        }
+    }
+}
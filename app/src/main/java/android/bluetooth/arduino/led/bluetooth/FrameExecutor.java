@@ -0,0 +1,39 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+// runs tasks on the main thread at the start of the next frame, so whatever a listener gets
+// is drawn once per frame however fast the link reads. create it on the main thread
+public final class FrameExecutor implements Executor, Choreographer.FrameCallback {
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private ArrayList<Runnable> pending = new ArrayList<>();
+    private ArrayList<Runnable> running = new ArrayList<>();
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            pending.add(task);
+            if (pending.size() > 1) {
+                return;
+            }
+        }
+        // thread safe, from another thread the choreographer forwards it to its looper
+        choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        synchronized (this) {
+            ArrayList<Runnable> tasks = pending;
+            pending = running;
+            running = tasks;
+        }
+        for (int i = 0; i < running.size(); i++) {
+            running.get(i).run();
+        }
+        running.clear();
+    }
+}
@@ -0,0 +1,88 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.protocol.CommandFuture;
+
+import java.util.concurrent.TimeUnit;
+
+// per device outcome of one command sent to a group of links
+public class GroupDelivery {
+    // accepted by the link's write queue, or sent reliably and not acked yet
+    public static final int QUEUED = 0;
+    public static final int NOT_CONNECTED = 1;
+    // the link's write queue was full
+    public static final int DROPPED = 2;
+    public static final int ACKED = 3;
+    public static final int FAILED = 4;
+    private final String[] ids;
+    private final int[] status;
+    private final CommandFuture[] futures;
+    private int size;
+
+    GroupDelivery(int capacity) {
+        ids = new String[capacity];
+        status = new int[capacity];
+        futures = new CommandFuture[capacity];
+    }
+
+    void add(String id, int status) {
+        ids[size] = id;
+        this.status[size] = status;
+        size++;
+    }
+
+    void add(String id, CommandFuture future) {
+        futures[size] = future;
+        add(id, QUEUED);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public int getStatus(int index) {
+        CommandFuture future = futures[index];
+        if (future != null && future.isDone()) {
+            return future.isSuccess() ? ACKED : FAILED;
+        }
+        return status[index];
+    }
+
+    public CommandFuture getFuture(int index) {
+        return futures[index];
+    }
+
+    public int count(int status) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (getStatus(i) == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // true when every reliable send in the group has been acked or has failed, the statuses tell which
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (int i = 0; i < size; i++) {
+            if (futures[i] != null) {
+                // false from the future's await also means it failed, only one still open counts
+                futures[i].await(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                if (!futures[i].isDone()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return size + " devices: " + count(QUEUED) + " queued, " + count(ACKED) + " acked, "
+                + count(NOT_CONNECTED) + " not connected, " + count(DROPPED) + " dropped, " + count(FAILED) + " failed";
+    }
+}
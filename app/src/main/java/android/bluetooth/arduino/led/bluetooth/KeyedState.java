@@ -0,0 +1,60 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+// latest command per key (LED, channel ...), replayed after a reconnect so the device ends up where the user left it
+final class KeyedState {
+    private int[] keys = new int[16];
+    private byte[][] values = new byte[16][];
+    private int[] lengths = new int[16];
+    private int size;
+
+    synchronized void put(int key, byte[] bytes, int offset, int length) {
+        int index = indexOf(key);
+        if (index < 0) {
+            if (size == keys.length) {
+                keys = java.util.Arrays.copyOf(keys, size * 2);
+                values = java.util.Arrays.copyOf(values, size * 2);
+                lengths = java.util.Arrays.copyOf(lengths, size * 2);
+            }
+            index = size++;
+            keys[index] = key;
+        }
+        if (values[index] == null || values[index].length < length) {
+            values[index] = new byte[Math.max(length, 8)];
+        }
+        System.arraycopy(bytes, offset, values[index], 0, length);
+        lengths[index] = length;
+    }
+
+    synchronized void put(int key, int value) {
+        int index = indexOf(key);
+        if (index >= 0 && values[index] != null) {
+            values[index][0] = (byte) value;
+            lengths[index] = 1;
+            return;
+        }
+        put(key, new byte[]{(byte) value}, 0, 1);
+    }
+
+    private int indexOf(int key) {
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    interface Visitor {
+        void visit(int key, byte[] bytes, int length);
+    }
+
+    synchronized void forEach(Visitor visitor) {
+        for (int i = 0; i < size; i++) {
+            visitor.visit(keys[i], values[i], lengths[i]);
+        }
+    }
+
+    synchronized void clear() {
+        size = 0;
+    }
+}
@@ -0,0 +1,6 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+public interface PoolEventListener {
+    void deviceStateChanged(String address, String name, int state);
+    void deviceDataTransfer(String address, byte[] buffer, int offset, int length);
+}
@@ -0,0 +1,117 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.transport.TransportFactory;
+
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// brings a dropped link back to the same device: first retry right away, then jittered exponential backoff
+class ReconnectSupervisor {
+    private static final long BASE_DELAY_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 8000;
+    private static final int MAX_ATTEMPTS = 20;
+    private final BluetoothConnection connection;
+    private final Random random = new Random();
+    private final ScheduledExecutorService sharedScheduler;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> pending;
+    private TransportFactory factory;
+    private boolean established;
+    private int attempt;
+    private long lostAt;
+
+    ReconnectSupervisor(BluetoothConnection connection, ScheduledExecutorService sharedScheduler) {
+        this.connection = connection;
+        this.sharedScheduler = sharedScheduler;
+        this.scheduler = sharedScheduler;
+    }
+
+    synchronized void start(TransportFactory factory) {
+        cancelPending();
+        this.factory = factory;
+        established = false;
+        attempt = 0;
+    }
+
+    synchronized void stop() {
+        cancelPending();
+        factory = null;
+        if (scheduler != null && scheduler != sharedScheduler) {
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    synchronized boolean isActive() {
+        return factory != null;
+    }
+
+    // returns true when this connect was a recovery and the device state should be replayed
+    synchronized boolean connected() {
+        cancelPending();
+        boolean recovered = established && lostAt != 0;
+        if (recovered) {
+            connection.getMetrics().reconnects.incrementAndGet();
+            connection.getMetrics().reconnectTime.recordNanos(System.nanoTime() - lostAt);
+        }
+        established = true;
+        attempt = 0;
+        lostAt = 0;
+        return recovered;
+    }
+
+    synchronized void connectionLost() {
+        if (factory == null || !established) {
+            return;
+        }
+        if (lostAt == 0) {
+            lostAt = System.nanoTime();
+        }
+        schedule();
+    }
+
+    synchronized void connectFailed() {
+        if (factory == null) {
+            return;
+        }
+        if (!established || attempt >= MAX_ATTEMPTS) {
+            // the first connect is the user's, report it instead of retrying behind their back
+            stop();
+            return;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        cancelPending();
+        long delay = 0;
+        if (attempt > 0) {
+            long ceiling = Math.min(MAX_DELAY_MILLIS, BASE_DELAY_MILLIS << Math.min(attempt - 1, 16));
+            delay = ceiling / 2 + (long) (random.nextDouble() * ceiling / 2);
+        }
+        attempt++;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ReconnectSupervisor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        final TransportFactory factory = this.factory;
+        pending = scheduler.schedule(() -> connection.reconnect(this, factory), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    synchronized boolean owns(TransportFactory factory) {
+        return this.factory == factory && factory != null;
+    }
+}
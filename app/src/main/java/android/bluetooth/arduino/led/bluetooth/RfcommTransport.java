@@ -0,0 +1,147 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.transport.Transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public class RfcommTransport implements Transport {
+    private static final SocketStrategy[] DEFAULT_ORDER = {SocketStrategy.INSECURE, SocketStrategy.CHANNEL_1, SocketStrategy.SECURE};
+    // unknown device: the next strategy starts if the previous one has not connected by then
+    private static final long STAGGER_MILLIS = 400;
+    // known device: give the learned strategy time before racing the others
+    private static final long LEARNED_STAGGER_MILLIS = 1500;
+    private final BluetoothDevice device;
+    private final LinkMetrics metrics;
+    private final StrategyStore strategyStore;
+    private SocketRace race;
+    private BluetoothSocket socket;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+    private boolean closed;
+
+    public RfcommTransport(BluetoothDevice device, LinkMetrics metrics, StrategyStore strategyStore) {
+        this.device = device;
+        this.metrics = metrics;
+        this.strategyStore = strategyStore;
+    }
+
+    public BluetoothDevice getDevice() {
+        return device;
+    }
+
+    @Override
+    public String getName() {
+        return device.getName();
+    }
+
+    @Override
+    public String getAddress() {
+        return device.getAddress();
+    }
+
+    @Override
+    public void connect() throws IOException {
+        BluetoothAdapter bluetoothAdapter = BluetoothAdapter.getDefaultAdapter();
+        if (bluetoothAdapter != null) {
+            bluetoothAdapter.cancelDiscovery();
+        }
+        SocketStrategy learned = strategyStore != null ? strategyStore.get(device.getAddress()) : null;
+        SocketRace race = new SocketRace(device, order(learned), learned != null ? LEARNED_STAGGER_MILLIS : STAGGER_MILLIS);
+        synchronized (this) {
+            if (closed) {
+                throw new IOException("Closed");
+            }
+            this.race = race;
+        }
+        BluetoothSocket socket = race.run();
+        SocketStrategy winner = race.getWinningStrategy();
+        if (winner == SocketStrategy.CHANNEL_1) {
+            metrics.connectFallbacks.incrementAndGet();
+        }
+        if (strategyStore != null) {
+            strategyStore.put(device.getAddress(), winner);
+        }
+        synchronized (this) {
+            this.race = null;
+            if (closed) {
+                closeQuietly(socket);
+                throw new IOException("Closed");
+            }
+            this.socket = socket;
+            inputStream = socket.getInputStream();
+            outputStream = socket.getOutputStream();
+        }
+    }
+
+    private static SocketStrategy[] order(SocketStrategy learned) {
+        if (learned == null) {
+            return DEFAULT_ORDER;
+        }
+        SocketStrategy[] order = new SocketStrategy[DEFAULT_ORDER.length];
+        order[0] = learned;
+        int i = 1;
+        for (SocketStrategy strategy : DEFAULT_ORDER) {
+            if (strategy != learned) {
+                order[i++] = strategy;
+            }
+        }
+        return order;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        InputStream in;
+        synchronized (this) {
+            in = inputStream;
+        }
+        if (in == null) {
+            throw new IOException("Not connected");
+        }
+        int len = in.read(buffer, offset, length);
+        if (len < 0) {
+            throw new IOException("Connection closed");
+        }
+        return len;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        OutputStream out;
+        synchronized (this) {
+            out = outputStream;
+        }
+        if (out == null) {
+            throw new IOException("Not connected");
+        }
+        out.write(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (race != null) {
+            race.cancel();
+            race = null;
+        }
+        closeQuietly(socket);
+        socket = null;
+        inputStream = null;
+        outputStream = null;
+    }
+
+    private static void closeQuietly(BluetoothSocket socket) {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
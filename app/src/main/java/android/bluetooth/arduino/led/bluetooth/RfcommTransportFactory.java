@@ -0,0 +1,23 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.transport.Transport;
+import android.bluetooth.arduino.led.transport.TransportFactory;
+
+public class RfcommTransportFactory implements TransportFactory {
+    private final BluetoothDevice device;
+    private final LinkMetrics metrics;
+    private final StrategyStore strategyStore;
+
+    public RfcommTransportFactory(BluetoothDevice device, LinkMetrics metrics, StrategyStore strategyStore) {
+        this.device = device;
+        this.metrics = metrics;
+        this.strategyStore = strategyStore;
+    }
+
+    @Override
+    public Transport create() {
+        return new RfcommTransport(device, metrics, strategyStore);
+    }
+}
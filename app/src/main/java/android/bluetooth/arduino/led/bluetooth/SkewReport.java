@@ -0,0 +1,127 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import java.util.concurrent.TimeUnit;
+
+// what the boards of one synchronized command reported back: when each ran it and how far apart they were
+public class SkewReport {
+    public static final int QUEUED = 0;
+    public static final int NOT_CONNECTED = 1;
+    public static final int DROPPED = 2;
+    // no clock model yet, sending it unscheduled would defeat the point
+    public static final int NOT_SYNCED = 3;
+    public static final int EXECUTED = 4;
+    // no OP_EXECUTED report before the deadline
+    public static final int MISSED = 5;
+    private final int id;
+    private final long scheduledMicros;
+    private final String[] ids;
+    private final DeviceClock[] clocks;
+    private final int[] status;
+    private final long[] executedMicros;
+    private final long[] latenessMicros;
+    private int size;
+
+    SkewReport(int id, long scheduledMicros, int capacity) {
+        this.id = id;
+        this.scheduledMicros = scheduledMicros;
+        ids = new String[capacity];
+        clocks = new DeviceClock[capacity];
+        status = new int[capacity];
+        executedMicros = new long[capacity];
+        latenessMicros = new long[capacity];
+    }
+
+    void add(String id, DeviceClock clock, int status) {
+        ids[size] = id;
+        clocks[size] = clock;
+        this.status[size] = status;
+        size++;
+    }
+
+    // waits for the reports of every board the command was queued for, false if any did not arrive in time
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        boolean complete = true;
+        for (int i = 0; i < size; i++) {
+            if (status[i] != QUEUED) {
+                continue;
+            }
+            if (!clocks[i].awaitExecuted(id, deadline)) {
+                status[i] = MISSED;
+                complete = false;
+                continue;
+            }
+            int actual = clocks[i].getExecutedAt(id);
+            status[i] = EXECUTED;
+            latenessMicros[i] = actual - clocks[i].getScheduledAt(id);
+            executedMicros[i] = clocks[i].toHost(actual);
+        }
+        return complete;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getId(int index) {
+        return ids[index];
+    }
+
+    public int getStatus(int index) {
+        return status[index];
+    }
+
+    // host time the board ran the command at, as far as its clock model can tell
+    public long getExecutedMicros(int index) {
+        return executedMicros[index];
+    }
+
+    // how late the board ran it by its own clock, serial transfer and a busy loop() show up here
+    public long getLatenessMicros(int index) {
+        return latenessMicros[index];
+    }
+
+    public long getScheduledMicros() {
+        return scheduledMicros;
+    }
+
+    public int count(int status) {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            if (this.status[i] == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // spread between the first and the last board, only counts boards that reported back.
+    // it is measured through the clock models, so their offset error (about half the best ping) comes on top
+    public long getSkewMicros() {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            if (status[i] == EXECUTED) {
+                first = Math.min(first, executedMicros[i]);
+                last = Math.max(last, executedMicros[i]);
+            }
+        }
+        return first == Long.MAX_VALUE ? 0 : last - first;
+    }
+
+    public long getMaxLatenessMicros() {
+        long max = 0;
+        for (int i = 0; i < size; i++) {
+            if (status[i] == EXECUTED) {
+                max = Math.max(max, latenessMicros[i]);
+            }
+        }
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return count(EXECUTED) + "/" + size + " executed, skew " + getSkewMicros() + " us, late max " + getMaxLatenessMicros() + " us, "
+                + count(MISSED) + " missed, " + count(NOT_SYNCED) + " not synced, " + count(NOT_CONNECTED) + " not connected, " + count(DROPPED) + " dropped";
+    }
+}
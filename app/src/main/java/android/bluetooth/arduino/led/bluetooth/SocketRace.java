@@ -0,0 +1,126 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+// starts the strategies one after another, stagger apart, or right away when the previous one failed.
+// the first socket to connect wins and every other attempt is closed
+final class SocketRace {
+    private final BluetoothDevice device;
+    private final SocketStrategy[] order;
+    private final long staggerMillis;
+    private final ArrayList<BluetoothSocket> sockets = new ArrayList<>();
+    private BluetoothSocket winner;
+    private SocketStrategy winningStrategy;
+    private Exception lastFailure;
+    private int started;
+    private int failed;
+    private boolean cancelled;
+
+    SocketRace(BluetoothDevice device, SocketStrategy[] order, long staggerMillis) {
+        this.device = device;
+        this.order = order;
+        this.staggerMillis = staggerMillis;
+    }
+
+    BluetoothSocket run() throws IOException {
+        try {
+            synchronized (this) {
+                for (SocketStrategy strategy : order) {
+                    start(strategy);
+                    long deadline = System.currentTimeMillis() + staggerMillis;
+                    long remaining;
+                    while (winner == null && !cancelled && failed < started
+                            && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                        wait(remaining);
+                    }
+                    if (winner != null || cancelled) {
+                        break;
+                    }
+                }
+                while (winner == null && !cancelled && failed < started) {
+                    wait();
+                }
+                if (winner == null) {
+                    throw new IOException(cancelled ? "Cancelled" : "Unable to connect to " + device.getAddress(), lastFailure);
+                }
+                // losers are closed, a late connect closes itself
+                for (BluetoothSocket socket : sockets) {
+                    if (socket != winner) {
+                        closeQuietly(socket);
+                    }
+                }
+                return winner;
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    synchronized SocketStrategy getWinningStrategy() {
+        return winningStrategy;
+    }
+
+    synchronized void cancel() {
+        cancelled = true;
+        for (BluetoothSocket socket : sockets) {
+            closeQuietly(socket);
+        }
+        notifyAll();
+    }
+
+    private void start(final SocketStrategy strategy) {
+        started++;
+        Thread thread = new Thread(() -> attempt(strategy), "Connect-" + strategy.name());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void attempt(SocketStrategy strategy) {
+        BluetoothSocket socket = null;
+        try {
+            socket = strategy.create(device);
+            synchronized (this) {
+                if (winner != null || cancelled) {
+                    closeQuietly(socket);
+                    failed++;
+                    notifyAll();
+                    return;
+                }
+                sockets.add(socket);
+            }
+            socket.connect();
+            synchronized (this) {
+                if (winner == null && !cancelled) {
+                    winner = socket;
+                    winningStrategy = strategy;
+                } else {
+                    closeQuietly(socket);
+                    failed++;
+                }
+                notifyAll();
+            }
+        } catch (Exception e) {
+            closeQuietly(socket);
+            synchronized (this) {
+                lastFailure = e;
+                failed++;
+                notifyAll();
+            }
+        }
+    }
+
+    private static void closeQuietly(BluetoothSocket socket) {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+}
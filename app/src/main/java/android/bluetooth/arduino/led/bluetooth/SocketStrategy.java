@@ -0,0 +1,32 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+
+import java.util.UUID;
+
+public enum SocketStrategy {
+    INSECURE {
+        @Override
+        BluetoothSocket create(BluetoothDevice device) throws Exception {
+            return device.createInsecureRfcommSocketToServiceRecord(SPP_UUID);
+        }
+    },
+    // hidden createRfcommSocket(1), skips the SDP lookup that many HC-05 clones answer slowly or not at all
+    CHANNEL_1 {
+        @Override
+        BluetoothSocket create(BluetoothDevice device) throws Exception {
+            return (BluetoothSocket) device.getClass().getMethod("createRfcommSocket", new Class[]{int.class}).invoke(device, 1);
+        }
+    },
+    SECURE {
+        @Override
+        BluetoothSocket create(BluetoothDevice device) throws Exception {
+            return device.createRfcommSocketToServiceRecord(SPP_UUID);
+        }
+    };
+
+    static final UUID SPP_UUID = UUID.fromString("00001101-0000-1000-8000-00805F9B34FB");
+
+    abstract BluetoothSocket create(BluetoothDevice device) throws Exception;
+}
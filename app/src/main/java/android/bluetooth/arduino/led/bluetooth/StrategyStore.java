@@ -0,0 +1,31 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+// remembers per device which socket strategy connected first
+public class StrategyStore {
+    private final SharedPreferences preferences;
+
+    public StrategyStore(Context context) {
+        preferences = context.getSharedPreferences("socket_strategy", Context.MODE_PRIVATE);
+    }
+
+    public SocketStrategy get(String address) {
+        String name = preferences.getString(address, null);
+        if (name == null) {
+            return null;
+        }
+        try {
+            return SocketStrategy.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    public void put(String address, SocketStrategy strategy) {
+        if (strategy != get(address)) {
+            preferences.edit().putString(address, strategy.name()).apply();
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.metrics.LatencyHistogram;
+
+import java.util.List;
+
+// runs one command on every board of a pool at the same moment. each board gets the start time
+// translated to its own clock, so the order the frames go out in no longer shows as a ripple
+public class SyncGroup {
+    private static final long DEFAULT_MARGIN_MICROS = 30000;
+    private final ConnectionPool pool;
+    private final LatencyHistogram skew = new LatencyHistogram();
+    private volatile long marginMicros = DEFAULT_MARGIN_MICROS;
+    private int nextId;
+
+    public SyncGroup(ConnectionPool pool) {
+        this.pool = pool;
+    }
+
+    // a few clock samples per board, spaced so the exchanges do not queue behind each other
+    public void calibrate(int rounds, long intervalMillis) throws InterruptedException {
+        for (int round = 0; round < rounds; round++) {
+            resync();
+            Thread.sleep(intervalMillis);
+        }
+    }
+
+    // one more sample per board, call it now and then so the models follow the drift of the boards' resonators
+    public void resync() {
+        for (String id : pool.getIds()) {
+            BluetoothConnection connection = pool.get(id);
+            if (connection != null) {
+                connection.syncClock();
+            }
+        }
+    }
+
+    // time on top of the slowest one way latency, covers queueing and the serial transfer on the board
+    public void setMarginMillis(long marginMillis) {
+        this.marginMicros = marginMillis * 1000;
+    }
+
+    public SkewReport schedule(int opcode, byte[] payload, int offset, int length) {
+        List<String> ids = pool.getIds();
+        BluetoothConnection[] connections = new BluetoothConnection[ids.size()];
+        long latency = 0;
+        for (int i = 0; i < connections.length; i++) {
+            connections[i] = pool.get(ids.get(i));
+            if (connections[i] != null && connections[i].getClock().isSynced()) {
+                latency = Math.max(latency, connections[i].getClock().getLatencyMicros());
+            }
+        }
+        int id;
+        synchronized (this) {
+            id = nextId++ & 0xFF;
+        }
+        // the worst ping is twice the one way latency, the margin absorbs the rest
+        long at = DeviceClock.hostMicros() + 2 * latency + marginMicros;
+        SkewReport report = new SkewReport(id, at, connections.length);
+        for (int i = 0; i < connections.length; i++) {
+            BluetoothConnection connection = connections[i];
+            if (connection == null || connection.getState() != BluetoothConnection.STATE_CONNECTED) {
+                report.add(ids.get(i), null, SkewReport.NOT_CONNECTED);
+                continue;
+            }
+            DeviceClock clock = connection.getClock();
+            if (!clock.isSynced()) {
+                report.add(ids.get(i), clock, SkewReport.NOT_SYNCED);
+                continue;
+            }
+            clock.expect(id);
+            boolean queued = connection.writeAt(id, clock.toDevice(at), opcode, payload, offset, length);
+            report.add(ids.get(i), clock, queued ? SkewReport.QUEUED : SkewReport.DROPPED);
+        }
+        return report;
+    }
+
+    // keeps the skew of awaited reports, so it can be checked under load
+    public void record(SkewReport report) {
+        if (report.count(SkewReport.EXECUTED) > 1) {
+            skew.record(report.getSkewMicros());
+        }
+    }
+
+    public LatencyHistogram.Snapshot getSkew() {
+        return skew.snapshot();
+    }
+}
@@ -0,0 +1,24 @@
+package android.bluetooth.arduino.led.effect;
+
+import java.util.concurrent.TimeUnit;
+
+// one lit channel running along the others, with a dimmed tail behind it
+public class Chase implements Effect {
+    private final int level;
+    private final long stepNanos;
+
+    public Chase(int level, long stepMillis) {
+        this.level = level;
+        this.stepNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(stepMillis));
+    }
+
+    @Override
+    public boolean render(long elapsedNanos, byte[] channels, int count) {
+        int head = (int) ((elapsedNanos / stepNanos) % count);
+        for (int i = 0; i < count; i++) {
+            int distance = (head - i + count) % count;
+            channels[i] = (byte) (distance == 0 ? level : distance == 1 && count > 2 ? level / 4 : 0);
+        }
+        return true;
+    }
+}
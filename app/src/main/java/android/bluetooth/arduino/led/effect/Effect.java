@@ -0,0 +1,8 @@
+package android.bluetooth.arduino.led.effect;
+
+// fills one frame of channel values (0-255) for the time since the effect started.
+// called on the engine thread for every frame, so it must not allocate
+public interface Effect {
+    // false once the effect has reached its last frame, the engine then holds that frame
+    boolean render(long elapsedNanos, byte[] channels, int count);
+}
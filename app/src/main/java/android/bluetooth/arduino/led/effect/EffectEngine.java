@@ -0,0 +1,171 @@
+package android.bluetooth.arduino.led.effect;
+
+import android.bluetooth.arduino.led.metrics.LatencyHistogram;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// renders the current effect on its own thread at a fixed frame rate. a frame is dropped, not queued,
+// when the link still has the previous one pending or the tick came late, so a slow link never builds a backlog
+public class EffectEngine {
+    public interface Sink {
+        // commands queued on the link and not written yet
+        int getBacklog();
+
+        boolean send(byte[] channels, int count);
+    }
+
+    private final Sink sink;
+    private final int channels;
+    private final int maxBacklog;
+    private final long periodNanos;
+    private final byte[] frame;
+    private final byte[] lastSent;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable tick = this::tick;
+    private final LatencyHistogram renderTime = new LatencyHistogram();
+    private ScheduledFuture<?> running;
+    // held by a tick from reading the effect to handing its frame to the sink, taken after the engine's
+    // own lock and never the other way round
+    private final Object sendLock = new Object();
+    private volatile Effect effect;
+    // the timing fields belong to the engine thread, play() only asks for a restart
+    private volatile boolean restart;
+    private long startNanos;
+    private long dueNanos;
+    private boolean unsent;
+    private volatile long framesSent;
+    private volatile long framesDropped;
+    private volatile long framesSkipped;
+
+    // maxBacklog is in commands, a sink that writes one command per channel passes the channel count
+    public EffectEngine(Sink sink, int channels, int fps, int maxBacklog) {
+        this.sink = sink;
+        this.channels = channels;
+        this.maxBacklog = maxBacklog;
+        this.periodNanos = TimeUnit.SECONDS.toNanos(1) / fps;
+        this.frame = new byte[channels];
+        this.lastSent = new byte[channels];
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "EffectEngine");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MAX_PRIORITY);
+            return thread;
+        });
+    }
+
+    public synchronized void play(Effect effect) {
+        stop();
+        this.effect = effect;
+        restart = true;
+        running = scheduler.scheduleAtFixedRate(tick, 0, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // returns once a tick that was already running has sent its frame, so what the caller queues
+    // next, or discards from the link, is not undone by a late frame
+    public synchronized void stop() {
+        if (running != null) {
+            running.cancel(false);
+            running = null;
+        }
+        synchronized (sendLock) {
+            effect = null;
+        }
+    }
+
+    public boolean isPlaying() {
+        return effect != null;
+    }
+
+    public void shutdown() {
+        stop();
+        scheduler.shutdown();
+    }
+
+    private void tick() {
+        Effect effect;
+        boolean done;
+        synchronized (sendLock) {
+            effect = this.effect;
+            if (effect == null) {
+                return;
+            }
+            done = render(effect);
+        }
+        if (done) {
+            finished(effect);
+        }
+    }
+
+    // returns true once the effect ended and its last frame went out
+    private boolean render(Effect effect) {
+        long now = System.nanoTime();
+        if (restart) {
+            restart = false;
+            startNanos = now;
+            dueNanos = now;
+            unsent = true;
+        }
+        long due = dueNanos;
+        dueNanos = due + periodNanos;
+        if (now - due > periodNanos) {
+            // a fixed rate timer fires missed ticks back to back after a stall, those frames are stale
+            framesDropped++;
+            return false;
+        }
+        boolean more = effect.render(now - startNanos, frame, channels);
+        renderTime.recordNanos(System.nanoTime() - now);
+        if (!unsent && equal(frame, lastSent)) {
+            framesSkipped++;
+        } else if (sink.getBacklog() > maxBacklog || !sink.send(frame, channels)) {
+            // the link has not caught up, the next frame replaces this one
+            framesDropped++;
+            unsent = true;
+        } else {
+            System.arraycopy(frame, 0, lastSent, 0, channels);
+            unsent = false;
+            framesSent++;
+        }
+        return !more && !unsent;
+    }
+
+    private synchronized void finished(Effect effect) {
+        if (this.effect == effect) {
+            stop();
+        }
+    }
+
+    private static boolean equal(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public long getFramesSent() {
+        return framesSent;
+    }
+
+    // frames the link or the timer could not keep up with
+    public long getFramesDropped() {
+        return framesDropped;
+    }
+
+    // frames equal to the one before, nothing to send
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    public LatencyHistogram.Snapshot getRenderTime() {
+        return renderTime.snapshot();
+    }
+
+    @Override
+    public String toString() {
+        return "effect " + framesSent + " sent, " + framesDropped + " dropped, " + framesSkipped + " unchanged, render " + renderTime.snapshot();
+    }
+}
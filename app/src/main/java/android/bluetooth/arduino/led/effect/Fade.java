@@ -0,0 +1,25 @@
+package android.bluetooth.arduino.led.effect;
+
+import java.util.concurrent.TimeUnit;
+
+public class Fade implements Effect {
+    private final int from;
+    private final int to;
+    private final long durationNanos;
+
+    public Fade(int from, int to, long durationMillis) {
+        this.from = from;
+        this.to = to;
+        this.durationNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(durationMillis));
+    }
+
+    @Override
+    public boolean render(long elapsedNanos, byte[] channels, int count) {
+        long elapsed = Math.min(elapsedNanos, durationNanos);
+        int value = (int) (from + (to - from) * elapsed / durationNanos);
+        for (int i = 0; i < count; i++) {
+            channels[i] = (byte) value;
+        }
+        return elapsedNanos < durationNanos;
+    }
+}
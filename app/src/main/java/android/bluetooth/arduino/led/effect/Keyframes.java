@@ -0,0 +1,51 @@
+package android.bluetooth.arduino.led.effect;
+
+import java.util.concurrent.TimeUnit;
+
+// user defined frames, values are interpolated linearly between the keyframe times
+public class Keyframes implements Effect {
+    private final long[] times;
+    private final int[] values;
+    private final int width;
+    private final boolean loop;
+
+    // values holds one row of width channel values per keyframe, times are ascending and start at 0
+    public Keyframes(long[] timesMillis, int[] values, int width, boolean loop) {
+        if (timesMillis.length == 0 || values.length != timesMillis.length * width) {
+            throw new IllegalArgumentException("Need " + width + " values for each of the " + timesMillis.length + " keyframes");
+        }
+        this.times = new long[timesMillis.length];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = TimeUnit.MILLISECONDS.toNanos(timesMillis[i]);
+            if (i > 0 && times[i] < times[i - 1]) {
+                throw new IllegalArgumentException("Keyframe times must be ascending");
+            }
+        }
+        this.values = values.clone();
+        this.width = width;
+        this.loop = loop;
+    }
+
+    @Override
+    public boolean render(long elapsedNanos, byte[] channels, int count) {
+        long end = times[times.length - 1];
+        long time = loop && end > 0 ? elapsedNanos % end : Math.min(elapsedNanos, end);
+        int next = 1;
+        while (next < times.length && times[next] <= time) {
+            next++;
+        }
+        int previous = next - 1;
+        for (int i = 0; i < count; i++) {
+            int channel = i % width;
+            int from = values[previous * width + channel];
+            if (next == times.length) {
+                channels[i] = (byte) from;
+                continue;
+            }
+            int to = values[next * width + channel];
+            long span = times[next] - times[previous];
+            channels[i] = (byte) (from + (to - from) * (time - times[previous]) / span);
+        }
+        return loop || elapsedNanos < end;
+    }
+}
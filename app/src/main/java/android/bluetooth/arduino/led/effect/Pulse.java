@@ -0,0 +1,26 @@
+package android.bluetooth.arduino.led.effect;
+
+import java.util.concurrent.TimeUnit;
+
+// smooth breathing between two levels
+public class Pulse implements Effect {
+    private final int min;
+    private final int max;
+    private final long periodNanos;
+
+    public Pulse(int min, int max, long periodMillis) {
+        this.min = min;
+        this.max = max;
+        this.periodNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+    }
+
+    @Override
+    public boolean render(long elapsedNanos, byte[] channels, int count) {
+        double phase = (double) (elapsedNanos % periodNanos) / periodNanos;
+        int value = (int) (min + (max - min) * (1 - Math.cos(2 * Math.PI * phase)) / 2);
+        for (int i = 0; i < count; i++) {
+            channels[i] = (byte) value;
+        }
+        return true;
+    }
+}
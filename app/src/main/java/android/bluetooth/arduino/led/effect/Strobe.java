@@ -0,0 +1,24 @@
+package android.bluetooth.arduino.led.effect;
+
+import java.util.concurrent.TimeUnit;
+
+public class Strobe implements Effect {
+    private final int level;
+    private final long periodNanos;
+    private final long onNanos;
+
+    public Strobe(int level, long periodMillis, int dutyPercent) {
+        this.level = level;
+        this.periodNanos = Math.max(1, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+        this.onNanos = periodNanos * dutyPercent / 100;
+    }
+
+    @Override
+    public boolean render(long elapsedNanos, byte[] channels, int count) {
+        int value = elapsedNanos % periodNanos < onNanos ? level : 0;
+        for (int i = 0; i < count; i++) {
+            channels[i] = (byte) value;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,119 @@
+package android.bluetooth.arduino.led.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// counters and histograms of one connection, shared by the connect, reader and writer threads
+public final class LinkMetrics {
+    public final AtomicLong connectAttempts = new AtomicLong();
+    public final AtomicLong connectFailures = new AtomicLong();
+    public final AtomicLong connectFallbacks = new AtomicLong();
+    public final LatencyHistogram connectTime = new LatencyHistogram();
+    public final AtomicLong reconnects = new AtomicLong();
+    public final LatencyHistogram reconnectTime = new LatencyHistogram();
+
+    public final AtomicLong bytesIn = new AtomicLong();
+    public final AtomicLong framesIn = new AtomicLong();
+    public final AtomicLong frameErrors = new AtomicLong();
+
+    public final AtomicLong bytesOut = new AtomicLong();
+    public final AtomicLong packetsOut = new AtomicLong();
+    public final AtomicLong commandsOut = new AtomicLong();
+    public final AtomicLong commandsDropped = new AtomicLong();
+    public final LatencyHistogram writeStall = new LatencyHistogram();
+    public final LatencyHistogram writeQueueDepth = new LatencyHistogram();
+    // time from offer to socket write per priority lane, see WriteLanes
+    public final LatencyHistogram controlLatency = new LatencyHistogram();
+    public final LatencyHistogram interactiveLatency = new LatencyHistogram();
+    public final LatencyHistogram bulkLatency = new LatencyHistogram();
+    // gauges of the flow control: paced rate in bytes per second and the window the device advertised
+    public final AtomicLong flowRate = new AtomicLong();
+    public final AtomicLong flowWindow = new AtomicLong();
+    public final LatencyHistogram flowWait = new LatencyHistogram();
+    public final AtomicLong creditTimeouts = new AtomicLong();
+
+    public final AtomicLong retransmits = new AtomicLong();
+    public final LatencyHistogram commandLatency = new LatencyHistogram();
+    public final LatencyHistogram roundTrip = new LatencyHistogram();
+    public final LatencyHistogram executeLateness = new LatencyHistogram();
+
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    public static final class Snapshot {
+        public final long connectAttempts;
+        public final long connectFailures;
+        public final long connectFallbacks;
+        public final LatencyHistogram.Snapshot connectTime;
+        public final long reconnects;
+        public final LatencyHistogram.Snapshot reconnectTime;
+        public final long bytesIn;
+        public final long framesIn;
+        public final long frameErrors;
+        public final long bytesOut;
+        public final long packetsOut;
+        public final long commandsOut;
+        public final long commandsDropped;
+        public final LatencyHistogram.Snapshot writeStall;
+        public final LatencyHistogram.Snapshot writeQueueDepth;
+        public final LatencyHistogram.Snapshot controlLatency;
+        public final LatencyHistogram.Snapshot interactiveLatency;
+        public final LatencyHistogram.Snapshot bulkLatency;
+        public final long flowRate;
+        public final long flowWindow;
+        public final LatencyHistogram.Snapshot flowWait;
+        public final long creditTimeouts;
+        public final long retransmits;
+        public final LatencyHistogram.Snapshot commandLatency;
+        public final LatencyHistogram.Snapshot roundTrip;
+        public final LatencyHistogram.Snapshot executeLateness;
+
+        Snapshot(LinkMetrics metrics) {
+            connectAttempts = metrics.connectAttempts.get();
+            connectFailures = metrics.connectFailures.get();
+            connectFallbacks = metrics.connectFallbacks.get();
+            connectTime = metrics.connectTime.snapshot();
+            reconnects = metrics.reconnects.get();
+            reconnectTime = metrics.reconnectTime.snapshot();
+            bytesIn = metrics.bytesIn.get();
+            framesIn = metrics.framesIn.get();
+            frameErrors = metrics.frameErrors.get();
+            bytesOut = metrics.bytesOut.get();
+            packetsOut = metrics.packetsOut.get();
+            commandsOut = metrics.commandsOut.get();
+            commandsDropped = metrics.commandsDropped.get();
+            writeStall = metrics.writeStall.snapshot();
+            writeQueueDepth = metrics.writeQueueDepth.snapshot();
+            controlLatency = metrics.controlLatency.snapshot();
+            interactiveLatency = metrics.interactiveLatency.snapshot();
+            bulkLatency = metrics.bulkLatency.snapshot();
+            flowRate = metrics.flowRate.get();
+            flowWindow = metrics.flowWindow.get();
+            flowWait = metrics.flowWait.snapshot();
+            creditTimeouts = metrics.creditTimeouts.get();
+            retransmits = metrics.retransmits.get();
+            commandLatency = metrics.commandLatency.snapshot();
+            roundTrip = metrics.roundTrip.snapshot();
+            executeLateness = metrics.executeLateness.snapshot();
+        }
+
+        @Override
+        public String toString() {
+            return "connect " + connectAttempts + " tries, " + connectFailures + " failed, " + connectFallbacks + " fallback\n"
+                    + "connect time " + connectTime + "\n"
+                    + "recovered " + reconnects + " times " + reconnectTime + "\n"
+                    + "in " + bytesIn + " B, " + framesIn + " frames, " + frameErrors + " bad\n"
+                    + "out " + bytesOut + " B, " + packetsOut + " packets, " + commandsOut + " commands, " + commandsDropped + " dropped\n"
+                    + "write stall " + writeStall + "\n"
+                    + "queue depth p99 " + writeQueueDepth.percentileMicros(99) + ", max " + writeQueueDepth.getMaxMicros() + "\n"
+                    + "queued control " + controlLatency + "\n"
+                    + "queued interactive " + interactiveLatency + "\n"
+                    + "queued bulk " + bulkLatency + "\n"
+                    + "paced " + flowRate + " B/s, window " + (flowWindow < 0 ? "none" : flowWindow + " B") + ", " + creditTimeouts + " credit timeouts\n"
+                    + "flow wait " + flowWait + "\n"
+                    + "acked " + commandLatency + ", " + retransmits + " retransmits\n"
+                    + "ping " + roundTrip + "\n"
+                    + "scheduled late " + executeLateness;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package android.bluetooth.arduino.led.protocol;
+
+import java.util.concurrent.TimeUnit;
+
+// completion of a reliable command, minimal stand-in for CompletableFuture which needs API 24
+public final class CommandFuture {
+    public interface Listener {
+        void onComplete(CommandFuture future);
+    }
+
+    private final long createdNanos = System.nanoTime();
+    private boolean done;
+    private Exception failure;
+    private long completedNanos;
+    private Listener listener;
+
+    public static CommandFuture failed(Exception failure) {
+        CommandFuture future = new CommandFuture();
+        future.fail(failure);
+        return future;
+    }
+
+    void complete() {
+        finish(null);
+    }
+
+    void fail(Exception failure) {
+        finish(failure);
+    }
+
+    private void finish(Exception failure) {
+        Listener listener;
+        synchronized (this) {
+            if (done) {
+                return;
+            }
+            done = true;
+            this.failure = failure;
+            completedNanos = System.nanoTime();
+            listener = this.listener;
+            this.listener = null;
+            notifyAll();
+        }
+        if (listener != null) {
+            listener.onComplete(this);
+        }
+    }
+
+    // runs on the completing thread, or right away if already done
+    public void setListener(Listener listener) {
+        synchronized (this) {
+            if (!done) {
+                this.listener = listener;
+                return;
+            }
+        }
+        listener.onComplete(this);
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return done && failure == null;
+    }
+
+    public synchronized Exception getFailure() {
+        return failure;
+    }
+
+    public synchronized long getLatencyNanos() {
+        return done ? completedNanos - createdNanos : -1;
+    }
+
+    public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (!done) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return failure == null;
+        }
+    }
+}
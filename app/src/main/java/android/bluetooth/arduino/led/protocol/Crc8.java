@@ -0,0 +1,30 @@
+package android.bluetooth.arduino.led.protocol;
+
+// CRC-8 with polynomial 0x07, same as the sketch
+public final class Crc8 {
+    private static final byte[] TABLE = new byte[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc = i;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x80) != 0 ? (crc << 1) ^ 0x07 : crc << 1;
+            }
+            TABLE[i] = (byte) crc;
+        }
+    }
+
+    private Crc8() {
+    }
+
+    public static int update(int crc, int value) {
+        return TABLE[(crc ^ value) & 0xFF] & 0xFF;
+    }
+
+    public static int update(int crc, byte[] bytes, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            crc = TABLE[(crc ^ bytes[i]) & 0xFF] & 0xFF;
+        }
+        return crc;
+    }
+}
@@ -0,0 +1,39 @@
+package android.bluetooth.arduino.led.protocol;
+
+// [START][opcode][length][payload ... ][crc8 over opcode, length and payload]
+public final class Frame {
+    public static final int START = 0x7E;
+    public static final int HEADER_SIZE = 3;
+    public static final int MAX_PAYLOAD = 255;
+    public static final int MAX_FRAME_SIZE = HEADER_SIZE + MAX_PAYLOAD + 1;
+
+    public static final int OP_LED = 0x01;
+    public static final int OP_PWM = 0x02;
+    // payload [seq], sent back by the device for every OP_SEQ frame
+    public static final int OP_ACK = 0x03;
+    // payload echoed back unchanged as OP_PONG, the app sends its send time to measure the round trip
+    public static final int OP_PING = 0x04;
+    public static final int OP_PONG = 0x05;
+    // payload echoed back as OP_TIME_REPLY followed by the device micros() clock, 4 bytes big endian
+    public static final int OP_TIME = 0x06;
+    public static final int OP_TIME_REPLY = 0x07;
+    // payload [id][scheduled micros, 4 bytes][executed micros, 4 bytes], sent by the device for every OP_AT frame it ran
+    public static final int OP_EXECUTED = 0x08;
+    // one packet of an LED strip frame, see StripEncoder
+    public static final int OP_STRIP = 0x09;
+    // payload [receive window, 2 bytes][bytes read since the last OP_CREDIT, 2 bytes], sent by the device, see FlowControl
+    public static final int OP_CREDIT = 0x0A;
+    // payload [channel][sample interval micros, 2 bytes][sample, 2 bytes signed] ..., sent by the device, see TelemetryParser
+    public static final int OP_TELEMETRY = 0x0B;
+    // payload [seq][opcode][payload ...], a command the device has to acknowledge
+    public static final int OP_SEQ = 0x10;
+    // payload [id][device micros, 4 bytes][opcode][payload ...], a command the device runs once its clock reaches the time
+    public static final int OP_AT = 0x11;
+
+    private Frame() {
+    }
+
+    public static int size(int payloadLength) {
+        return HEADER_SIZE + payloadLength + 1;
+    }
+}
@@ -0,0 +1,141 @@
+package android.bluetooth.arduino.led.protocol;
+
+// incremental parser, survives frames split over any number of reads and resyncs on a bad crc
+public final class FrameDecoder {
+    private static final int HUNT = 0;
+    private static final int OPCODE = 1;
+    private static final int LENGTH = 2;
+    private static final int PAYLOAD = 3;
+    private static final int CRC = 4;
+
+    public interface FrameListener {
+        // the payload is only valid for the duration of the call
+        void frameReceived(int opcode, byte[] payload, int offset, int length);
+    }
+
+    public interface TextListener {
+        // bytes between frames, e.g. what a sketch prints with Serial.println. only valid for the duration of the call
+        void textReceived(byte[] bytes, int offset, int length);
+    }
+
+    private final FrameListener listener;
+    private TextListener textListener;
+    private final byte[] partial = new byte[Frame.MAX_PAYLOAD];
+    private int state = HUNT;
+    private int opcode;
+    private int length;
+    private int received;
+    private int crc;
+    private byte[] payload;
+    private int payloadOffset;
+    private long frames;
+    private long errors;
+
+    public FrameDecoder(FrameListener listener) {
+        this.listener = listener;
+    }
+
+    public void decode(byte[] bytes, int offset, int count) {
+        int end = offset + count;
+        int i = offset;
+        while (i < end) {
+            int value = bytes[i] & 0xFF;
+            switch (state) {
+                case HUNT:
+                    if (value == Frame.START) {
+                        state = OPCODE;
+                        i++;
+                        break;
+                    }
+                    int text = i;
+                    while (i < end && (bytes[i] & 0xFF) != Frame.START) {
+                        i++;
+                    }
+                    if (textListener != null) {
+                        textListener.textReceived(bytes, text, i - text);
+                    }
+                    break;
+                case OPCODE:
+                    opcode = value;
+                    crc = Crc8.update(0, value);
+                    state = LENGTH;
+                    i++;
+                    break;
+                case LENGTH:
+                    length = value;
+                    crc = Crc8.update(crc, value);
+                    received = 0;
+                    i++;
+                    if (length == 0) {
+                        payload = partial;
+                        payloadOffset = 0;
+                        state = CRC;
+                    } else if (end - i >= length) {
+                        // whole payload is inside this read, hand out a view instead of copying
+                        payload = bytes;
+                        payloadOffset = i;
+                        crc = Crc8.update(crc, bytes, i, length);
+                        i += length;
+                        state = CRC;
+                    } else {
+                        payload = partial;
+                        payloadOffset = 0;
+                        state = PAYLOAD;
+                    }
+                    break;
+                case PAYLOAD:
+                    int take = Math.min(length - received, end - i);
+                    System.arraycopy(bytes, i, partial, received, take);
+                    crc = Crc8.update(crc, bytes, i, take);
+                    received += take;
+                    i += take;
+                    if (received == length) {
+                        state = CRC;
+                    }
+                    break;
+                case CRC:
+                    i++;
+                    state = HUNT;
+                    if (value == crc) {
+                        frames++;
+                        listener.frameReceived(opcode, payload, payloadOffset, length);
+                    } else {
+                        errors++;
+                        if (payload == bytes) {
+                            // rescan the bytes we skipped, a real frame may start inside them
+                            i = Math.max(offset, payloadOffset - 2);
+                        }
+                    }
+                    payload = null;
+                    break;
+            }
+        }
+        if (payload == bytes) {
+            // the view cannot outlive this call
+            System.arraycopy(bytes, payloadOffset, partial, 0, length);
+            payload = partial;
+            payloadOffset = 0;
+        }
+    }
+
+    public void setTextListener(TextListener textListener) {
+        this.textListener = textListener;
+    }
+
+    public boolean isHunting() {
+        return state == HUNT;
+    }
+
+    public void reset() {
+        state = HUNT;
+        payload = null;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+}
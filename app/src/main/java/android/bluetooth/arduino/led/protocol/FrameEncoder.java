@@ -0,0 +1,61 @@
+package android.bluetooth.arduino.led.protocol;
+
+import java.nio.ByteBuffer;
+
+// not thread safe, every producer thread keeps its own encoder
+public final class FrameEncoder {
+    private final ByteBuffer buffer = ByteBuffer.allocate(Frame.MAX_FRAME_SIZE);
+
+    public ByteBuffer encode(int opcode, byte[] payload, int offset, int length) {
+        buffer.clear();
+        encode(buffer, opcode, payload, offset, length);
+        buffer.flip();
+        return buffer;
+    }
+
+    public ByteBuffer encode(int opcode, int value) {
+        buffer.clear();
+        int start = begin(buffer, opcode);
+        buffer.put((byte) value);
+        end(buffer, start);
+        buffer.flip();
+        return buffer;
+    }
+
+    public ByteBuffer encode(int opcode, int first, int second) {
+        buffer.clear();
+        int start = begin(buffer, opcode);
+        buffer.put((byte) first);
+        buffer.put((byte) second);
+        end(buffer, start);
+        buffer.flip();
+        return buffer;
+    }
+
+    // appends one frame at the buffer position, so several frames can share a buffer
+    public static int encode(ByteBuffer out, int opcode, byte[] payload, int offset, int length) {
+        int start = begin(out, opcode);
+        out.put(payload, offset, length);
+        return end(out, start);
+    }
+
+    public static int begin(ByteBuffer out, int opcode) {
+        int start = out.position();
+        out.put((byte) Frame.START);
+        out.put((byte) opcode);
+        out.put((byte) 0);
+        return start;
+    }
+
+    public static int end(ByteBuffer out, int start) {
+        int length = out.position() - start - Frame.HEADER_SIZE;
+        if (length > Frame.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Payload too large: " + length);
+        }
+        out.put(start + 2, (byte) length);
+        byte[] array = out.array();
+        int crc = Crc8.update(0, array, out.arrayOffset() + start + 1, length + 2);
+        out.put((byte) crc);
+        return out.position() - start;
+    }
+}
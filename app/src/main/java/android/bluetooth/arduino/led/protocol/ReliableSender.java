@@ -0,0 +1,254 @@
+package android.bluetooth.arduino.led.protocol;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// sliding window of sequenced commands, acked one by one and retransmitted on timeout. the window spans
+// from the oldest command not acked yet, so a sequence number is only reused once its command is done
+// and an ack outside the window, a late duplicate from before the numbers wrapped, is ignored.
+// a retransmitted command whose ack got lost runs on the device again, only idempotent commands belong here
+public final class ReliableSender {
+    public interface Sink {
+        // false when the frame was refused, it is tried again after the timeout
+        boolean write(byte[] bytes, int offset, int length);
+    }
+
+    private static final int MAX_PENDING = 256;
+
+    private static final class PendingCommand {
+        final int opcode;
+        final byte[] payload;
+        final CommandFuture future;
+
+        PendingCommand(int opcode, byte[] payload, CommandFuture future) {
+            this.opcode = opcode;
+            this.payload = payload;
+            this.future = future;
+        }
+    }
+
+    private final Sink sink;
+    private final int window;
+    private final long timeoutNanos;
+    private final int maxRetries;
+    private final byte[][] frames = new byte[256][Frame.MAX_FRAME_SIZE];
+    private final int[] frameLengths = new int[256];
+    private final CommandFuture[] futures = new CommandFuture[256];
+    private final long[] sentAt = new long[256];
+    private final int[] retries = new int[256];
+    // copies handed to a queued sink and not written yet, the timeout only starts once none is left
+    private final int[] queuedCopies = new int[256];
+    private final boolean queuedSink;
+    private final ArrayDeque<PendingCommand> pending = new ArrayDeque<>();
+    private final ByteBuffer scratch = ByteBuffer.allocate(Frame.MAX_FRAME_SIZE);
+    private final ScheduledExecutorService timer;
+    private final boolean ownsTimer;
+    private final ScheduledFuture<?> tick;
+    private final LinkMetrics metrics;
+    private int nextSeq;
+    // oldest sequence number that may still be acked, equal to nextSeq when nothing is in flight
+    private int base;
+    private int inFlight;
+    private boolean closed;
+
+    // for a sink that writes right away
+    public ReliableSender(Sink sink, int window, long timeoutMillis, int maxRetries, LinkMetrics metrics) {
+        this(sink, false, window, timeoutMillis, maxRetries, metrics, null);
+    }
+
+    // a queued sink only puts the frame into a write queue and calls written() once the writer takes it,
+    // so a frame waiting behind other lanes or the flow control is not retransmitted before it went out.
+    // with a shared timer many senders tick on one thread, the timer is not shut down on close
+    public ReliableSender(Sink sink, boolean queuedSink, int window, long timeoutMillis, int maxRetries, LinkMetrics metrics,
+                          ScheduledExecutorService sharedTimer) {
+        if (window < 1 || window > 128) {
+            throw new IllegalArgumentException("Window must be between 1 and 128");
+        }
+        this.sink = sink;
+        this.queuedSink = queuedSink;
+        this.window = window;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.maxRetries = maxRetries;
+        this.metrics = metrics;
+        ownsTimer = sharedTimer == null;
+        timer = ownsTimer ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "RetransmitTimer");
+            thread.setDaemon(true);
+            return thread;
+        }) : sharedTimer;
+        long period = Math.max(1, timeoutMillis / 4);
+        tick = timer.scheduleAtFixedRate(this::checkTimeouts, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized CommandFuture send(int opcode, byte[] payload, int offset, int length) {
+        if (length > Frame.MAX_PAYLOAD - 2) {
+            throw new IllegalArgumentException("Payload too large: " + length);
+        }
+        CommandFuture future = new CommandFuture();
+        if (closed) {
+            future.fail(new IOException("Connection closed"));
+        } else if (span() < window && pending.isEmpty()) {
+            transmit(opcode, payload, offset, length, future);
+        } else if (pending.size() < MAX_PENDING) {
+            byte[] copy = new byte[length];
+            System.arraycopy(payload, offset, copy, 0, length);
+            pending.add(new PendingCommand(opcode, copy, future));
+        } else {
+            future.fail(new IOException("Too many commands in flight"));
+        }
+        return future;
+    }
+
+    private void transmit(int opcode, byte[] payload, int offset, int length, CommandFuture future) {
+        int seq = nextSeq;
+        nextSeq = (nextSeq + 1) & 0xFF;
+        scratch.clear();
+        int start = FrameEncoder.begin(scratch, Frame.OP_SEQ);
+        scratch.put((byte) seq);
+        scratch.put((byte) opcode);
+        scratch.put(payload, offset, length);
+        int size = FrameEncoder.end(scratch, start);
+        System.arraycopy(scratch.array(), 0, frames[seq], 0, size);
+        frameLengths[seq] = size;
+        futures[seq] = future;
+        retries[seq] = 0;
+        inFlight++;
+        post(seq);
+    }
+
+    private void post(int seq) {
+        if (sink.write(frames[seq], 0, frameLengths[seq]) && queuedSink) {
+            queuedCopies[seq]++;
+        } else {
+            sentAt[seq] = System.nanoTime();
+        }
+    }
+
+    // called by a queued sink's writer for every frame it takes, frames other than OP_SEQ are ignored
+    public void written(byte[] bytes, int offset, int length) {
+        if (length < Frame.HEADER_SIZE + 2 || (bytes[offset + 1] & 0xFF) != Frame.OP_SEQ) {
+            return;
+        }
+        int seq = bytes[offset + Frame.HEADER_SIZE] & 0xFF;
+        synchronized (this) {
+            // a copy still queued from before the number was reused counts as well
+            if (queuedCopies[seq] > 0 && --queuedCopies[seq] == 0) {
+                sentAt[seq] = System.nanoTime();
+            }
+        }
+    }
+
+    // called from the reader thread for every OP_ACK frame
+    public void ack(int seq) {
+        CommandFuture future;
+        synchronized (this) {
+            seq &= 0xFF;
+            if (((seq - base) & 0xFF) >= span()) {
+                // from before the window, it would complete whatever reuses the number now
+                return;
+            }
+            future = futures[seq];
+            if (future == null) {
+                // late ack of a retransmitted command
+                return;
+            }
+            futures[seq] = null;
+            inFlight--;
+            advance();
+            fillWindow();
+        }
+        future.complete();
+        metrics.commandLatency.recordNanos(future.getLatencyNanos());
+    }
+
+    // sequence numbers from the oldest one in flight up to the next one to send
+    private int span() {
+        return (nextSeq - base) & 0xFF;
+    }
+
+    private void advance() {
+        while (base != nextSeq && futures[base] == null) {
+            base = (base + 1) & 0xFF;
+        }
+    }
+
+    // a command that is not acked holds the window, the ones after it wait even when they were acked
+    private void fillWindow() {
+        while (!closed && span() < window && !pending.isEmpty()) {
+            PendingCommand command = pending.poll();
+            transmit(command.opcode, command.payload, 0, command.payload.length, command.future);
+        }
+    }
+
+    private void checkTimeouts() {
+        long now = System.nanoTime();
+        CommandFuture[] expired = null;
+        int count = 0;
+        synchronized (this) {
+            for (int seq = 0; seq < 256 && !closed; seq++) {
+                if (futures[seq] == null || queuedCopies[seq] > 0 || now - sentAt[seq] < timeoutNanos) {
+                    continue;
+                }
+                if (retries[seq] < maxRetries) {
+                    retries[seq]++;
+                    metrics.retransmits.incrementAndGet();
+                    post(seq);
+                } else {
+                    if (expired == null) {
+                        expired = new CommandFuture[window];
+                    }
+                    expired[count++] = futures[seq];
+                    futures[seq] = null;
+                    inFlight--;
+                }
+            }
+            if (count > 0) {
+                advance();
+                fillWindow();
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            expired[i].fail(new IOException("No acknowledgement after " + maxRetries + " retries"));
+        }
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    public void close() {
+        ArrayDeque<CommandFuture> failed = new ArrayDeque<>();
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            tick.cancel(false);
+            if (ownsTimer) {
+                timer.shutdown();
+            }
+            for (int seq = 0; seq < 256; seq++) {
+                if (futures[seq] != null) {
+                    failed.add(futures[seq]);
+                    futures[seq] = null;
+                }
+            }
+            for (PendingCommand command : pending) {
+                failed.add(command.future);
+            }
+            pending.clear();
+            inFlight = 0;
+            base = nextSeq;
+        }
+        for (CommandFuture future : failed) {
+            future.fail(new IOException("Connection closed"));
+        }
+    }
+}
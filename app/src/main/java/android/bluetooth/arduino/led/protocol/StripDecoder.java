@@ -0,0 +1,97 @@
+package android.bluetooth.arduino.led.protocol;
+
+// board side of StripEncoder, the Arduino reference in arduino/led_protocol does the same.
+// a lost packet leaves the pixels out of sync, deltas are ignored from then on until the next keyframe
+public final class StripDecoder {
+    private final int pixels;
+    private final byte[] rgb;
+    private boolean synced;
+    private int frameId = -1;
+    private int nextIndex;
+    private long shown;
+    private long ignored;
+
+    public StripDecoder(int pixels) {
+        this.pixels = pixels;
+        this.rgb = new byte[pixels * 3];
+    }
+
+    // applies one OP_STRIP payload, true when it completed a frame that should be shown now
+    public boolean decode(byte[] payload, int offset, int length) {
+        if (length < StripEncoder.PACKET_HEADER) {
+            return false;
+        }
+        int id = payload[offset] & 0xFF;
+        int flags = payload[offset + 1] & 0xFF;
+        int index = flags >> 4;
+        boolean key = (flags & StripEncoder.FLAG_KEYFRAME) != 0;
+        if (index == 0) {
+            // a delta must follow the frame that was shown last
+            if (!key && (!synced || id != ((frameId + 1) & 0xFF))) {
+                synced = false;
+            } else {
+                synced = true;
+            }
+            frameId = id;
+            nextIndex = 0;
+        } else if (id != frameId || index != nextIndex) {
+            synced = false;
+        }
+        if (!synced) {
+            ignored++;
+            return false;
+        }
+        nextIndex = index + 1;
+        int pixel = (payload[offset + 2] & 0xFF) << 8 | (payload[offset + 3] & 0xFF);
+        int i = offset + StripEncoder.PACKET_HEADER;
+        int end = offset + length;
+        while (i < end) {
+            int op = payload[i] & 0xC0;
+            int count = (payload[i] & 0x3F) + 1;
+            i++;
+            if (op == StripEncoder.OP_SKIP) {
+                pixel += count;
+            } else if (op == StripEncoder.OP_LITERAL) {
+                int n = Math.max(0, Math.min(count, Math.min(pixels - pixel, (end - i) / 3)));
+                if (n > 0) {
+                    System.arraycopy(payload, i, rgb, pixel * 3, n * 3);
+                }
+                i += count * 3;
+                pixel += count;
+            } else if (op == StripEncoder.OP_RUN) {
+                if (end - i < 3) {
+                    break;
+                }
+                for (int n = 0; n < count && pixel < pixels; n++, pixel++) {
+                    rgb[pixel * 3] = payload[i];
+                    rgb[pixel * 3 + 1] = payload[i + 1];
+                    rgb[pixel * 3 + 2] = payload[i + 2];
+                }
+                i += 3;
+            } else {
+                break;
+            }
+        }
+        if ((flags & StripEncoder.FLAG_SHOW) == 0) {
+            return false;
+        }
+        shown++;
+        return true;
+    }
+
+    public byte[] getPixels() {
+        return rgb;
+    }
+
+    public boolean isSynced() {
+        return synced;
+    }
+
+    public long getShown() {
+        return shown;
+    }
+
+    public long getIgnored() {
+        return ignored;
+    }
+}
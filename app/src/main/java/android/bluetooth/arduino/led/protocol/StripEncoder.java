@@ -0,0 +1,191 @@
+package android.bluetooth.arduino.led.protocol;
+
+import java.nio.ByteBuffer;
+
+// LED strip frames as OP_STRIP packets: only the pixels that changed since the previous frame are sent,
+// uniform spans are run length encoded and every keyframeInterval frames all pixels are sent again,
+// so a board that lost a packet is back in sync soon.
+// payload [frame id][flags, packet index in the high nibble][first pixel, 2 bytes][ops ...], an op is
+//   00nnnnnn  skip n+1 pixels that did not change
+//   01nnnnnn  n+1 pixels follow, 3 bytes each
+//   10nnnnnn  n+1 pixels of the one color that follows
+// not thread safe, one encoder per strip
+public final class StripEncoder {
+    public static final int FLAG_KEYFRAME = 0x01;
+    // last packet of the frame, the board shows the frame once it is applied
+    public static final int FLAG_SHOW = 0x02;
+    static final int OP_SKIP = 0x00;
+    static final int OP_LITERAL = 0x40;
+    static final int OP_RUN = 0x80;
+    static final int MAX_COUNT = 64;
+    static final int PACKET_HEADER = 4;
+    // a keyframe has to fit the 16 packet indexes
+    public static final int MAX_PIXELS = 1024;
+    private final int pixels;
+    private final int keyframeInterval;
+    private final byte[] shadow;
+    private int frameId;
+    private int sinceKeyframe;
+    private boolean keyframeRequested = true;
+    private long frames;
+    private long keyframes;
+    private long rawBytes;
+    private long encodedBytes;
+
+    public StripEncoder(int pixels, int keyframeInterval) {
+        if (pixels < 1 || pixels > MAX_PIXELS) {
+            throw new IllegalArgumentException("Pixels must be between 1 and " + MAX_PIXELS);
+        }
+        this.pixels = pixels;
+        this.keyframeInterval = keyframeInterval;
+        this.shadow = new byte[pixels * 3];
+    }
+
+    // bound for one encoded frame, packets included
+    public static int maxEncodedSize(int pixels) {
+        // no op spends more than 4 bytes on a pixel. a packet is closed with less room left than
+        // a run or the skips over the longest unchanged span would need
+        int payload = pixels * 4;
+        int packets = payload / (Frame.MAX_PAYLOAD - PACKET_HEADER - MAX_PIXELS / MAX_COUNT) + 1;
+        return payload + packets * Frame.size(PACKET_HEADER);
+    }
+
+    // the board lost its state, e.g. after a reconnect
+    public void requestKeyframe() {
+        keyframeRequested = true;
+    }
+
+    // appends the packets of one frame to out and returns how many there are, 0 when nothing changed
+    public int encode(byte[] rgb, ByteBuffer out) {
+        boolean key = keyframeRequested || sinceKeyframe + 1 >= keyframeInterval;
+        int begin = out.position();
+        int packets = 0;
+        int packetStart = begin(out, key, packets, 0);
+        int ops = 0;
+        int i = 0;
+        while (i < pixels) {
+            if (!key && unchanged(rgb, i)) {
+                int end = i + 1;
+                while (end < pixels && unchanged(rgb, end)) {
+                    end++;
+                }
+                if (end == pixels) {
+                    break;
+                }
+                int skips = (end - i + MAX_COUNT - 1) / MAX_COUNT;
+                if (ops == 0) {
+                    // nothing in this packet yet, start it at the next change instead
+                    setFirstPixel(out, packetStart, end);
+                } else if (out.position() - packetStart - Frame.HEADER_SIZE + skips > Frame.MAX_PAYLOAD) {
+                    FrameEncoder.end(out, packetStart);
+                    packetStart = begin(out, key, ++packets, end);
+                    ops = 0;
+                } else {
+                    for (int skip = end - i; skip > 0; skip -= MAX_COUNT) {
+                        out.put((byte) (OP_SKIP | (Math.min(skip, MAX_COUNT) - 1)));
+                    }
+                    ops += skips;
+                }
+                i = end;
+                continue;
+            }
+            int run = runLength(rgb, i);
+            int literal = run >= 2 ? 0 : literalLength(rgb, i, key);
+            int size = run >= 2 ? 4 : 1 + literal * 3;
+            int room = Frame.MAX_PAYLOAD - (out.position() - packetStart - Frame.HEADER_SIZE);
+            if (run < 2 && size > room && room >= 4) {
+                // fill the packet up, the rest of the literal goes into the next one
+                literal = (room - 1) / 3;
+                size = 1 + literal * 3;
+            }
+            if (size > room) {
+                FrameEncoder.end(out, packetStart);
+                packetStart = begin(out, key, ++packets, i);
+                ops = 0;
+            }
+            if (run >= 2) {
+                out.put((byte) (OP_RUN | (run - 1)));
+                out.put(rgb, i * 3, 3);
+                i += run;
+            } else {
+                out.put((byte) (OP_LITERAL | (literal - 1)));
+                out.put(rgb, i * 3, literal * 3);
+                i += literal;
+            }
+            ops++;
+        }
+        if (!key && packets == 0 && ops == 0) {
+            out.position(begin);
+            return 0;
+        }
+        out.put(packetStart + Frame.HEADER_SIZE + 1, (byte) (out.get(packetStart + Frame.HEADER_SIZE + 1) | FLAG_SHOW));
+        FrameEncoder.end(out, packetStart);
+        packets++;
+
+        System.arraycopy(rgb, 0, shadow, 0, pixels * 3);
+        frameId = (frameId + 1) & 0xFF;
+        frames++;
+        rawBytes += pixels * 3;
+        encodedBytes += out.position() - begin;
+        if (key) {
+            keyframes++;
+            keyframeRequested = false;
+            sinceKeyframe = 0;
+        } else {
+            sinceKeyframe++;
+        }
+        return packets;
+    }
+
+    private int begin(ByteBuffer out, boolean key, int index, int firstPixel) {
+        int start = FrameEncoder.begin(out, Frame.OP_STRIP);
+        out.put((byte) frameId);
+        out.put((byte) ((index << 4) | (key ? FLAG_KEYFRAME : 0)));
+        out.putShort((short) firstPixel);
+        return start;
+    }
+
+    private static void setFirstPixel(ByteBuffer out, int packetStart, int firstPixel) {
+        out.putShort(packetStart + Frame.HEADER_SIZE + 2, (short) firstPixel);
+    }
+
+    private boolean unchanged(byte[] rgb, int pixel) {
+        int p = pixel * 3;
+        return rgb[p] == shadow[p] && rgb[p + 1] == shadow[p + 1] && rgb[p + 2] == shadow[p + 2];
+    }
+
+    private int runLength(byte[] rgb, int pixel) {
+        int p = pixel * 3;
+        int end = pixel + 1;
+        while (end < pixels && end - pixel < MAX_COUNT) {
+            int q = end * 3;
+            if (rgb[q] != rgb[p] || rgb[q + 1] != rgb[p + 1] || rgb[q + 2] != rgb[p + 2]) {
+                break;
+            }
+            end++;
+        }
+        return end - pixel;
+    }
+
+    // changed pixels up to the next unchanged one or the start of a run, a run of two is already cheaper
+    private int literalLength(byte[] rgb, int pixel, boolean key) {
+        int end = pixel + 1;
+        while (end < pixels && end - pixel < MAX_COUNT && (key || !unchanged(rgb, end)) && runLength(rgb, end) < 2) {
+            end++;
+        }
+        return end - pixel;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getKeyframes() {
+        return keyframes;
+    }
+
+    // encoded bytes per raw frame byte, below 1 is the saving
+    public double getRatio() {
+        return rawBytes == 0 ? 1 : (double) encodedBytes / rawBytes;
+    }
+}
@@ -0,0 +1,113 @@
+package android.bluetooth.arduino.led.scene;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+// the encoded batches of a scene in the order they are due, all in one array. immutable, so one instance
+// is played from any thread as often as needed
+public final class CompiledScene {
+    private static final int FORMAT = 1;
+    private final String name;
+    private final String[] devices;
+    private final long[] delays;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final byte[] data;
+
+    CompiledScene(String name, String[] devices, long[] delays, int[] offsets, int[] lengths, byte[] data) {
+        this.name = name;
+        this.devices = devices;
+        this.delays = delays;
+        this.offsets = offsets;
+        this.lengths = lengths;
+        this.data = data;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getBatchCount() {
+        return delays.length;
+    }
+
+    // address of the batch, Scene.ANY_DEVICE for the connected one or all of them
+    public String getDevice(int batch) {
+        return devices[batch];
+    }
+
+    public long getDelayMillis(int batch) {
+        return delays[batch];
+    }
+
+    public int getOffset(int batch) {
+        return offsets[batch];
+    }
+
+    public int getLength(int batch) {
+        return lengths[batch];
+    }
+
+    // shared, not a copy: callers only read from it
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getDurationMillis() {
+        return delays.length == 0 ? 0 : delays[delays.length - 1];
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(FORMAT);
+        out.writeUTF(name);
+        out.writeInt(delays.length);
+        for (int i = 0; i < delays.length; i++) {
+            out.writeBoolean(devices[i] != null);
+            if (devices[i] != null) {
+                out.writeUTF(devices[i]);
+            }
+            out.writeLong(delays[i]);
+            out.writeInt(offsets[i]);
+            out.writeInt(lengths[i]);
+        }
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    public static CompiledScene readFrom(DataInputStream in) throws IOException {
+        int format = in.readUnsignedByte();
+        if (format != FORMAT) {
+            throw new IOException("Unknown scene format " + format);
+        }
+        String name = in.readUTF();
+        int batches = in.readInt();
+        if (batches < 0) {
+            throw new IOException("Bad batch count " + batches);
+        }
+        String[] devices = new String[batches];
+        long[] delays = new long[batches];
+        int[] offsets = new int[batches];
+        int[] lengths = new int[batches];
+        for (int i = 0; i < batches; i++) {
+            devices[i] = in.readBoolean() ? in.readUTF() : null;
+            delays[i] = in.readLong();
+            offsets[i] = in.readInt();
+            lengths[i] = in.readInt();
+        }
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        for (int i = 0; i < batches; i++) {
+            if (offsets[i] < 0 || lengths[i] <= 0 || lengths[i] > Scene.MAX_BATCH || offsets[i] + lengths[i] > data.length
+                    || (i > 0 && delays[i] < delays[i - 1])) {
+                throw new IOException("Corrupt scene '" + name + "'");
+            }
+        }
+        return new CompiledScene(name, devices, delays, offsets, lengths, data);
+    }
+
+    @Override
+    public String toString() {
+        return name + ": " + delays.length + " batches, " + data.length + " bytes, " + getDurationMillis() + " ms";
+    }
+}
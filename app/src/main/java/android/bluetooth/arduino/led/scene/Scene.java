@@ -0,0 +1,105 @@
+package android.bluetooth.arduino.led.scene;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+// a named sequence of commands, each for a device and at a delay from the start. compile() encodes it once:
+// the commands of one device that are due at the same time become one batch of frames, so playing the
+// scene only hands ready bytes to the links
+public class Scene {
+    // the single byte 0 / 1 command of the old sketch, sent as it is instead of framed
+    public static final int RAW = -1;
+    // the device that is connected, or every device of a pool
+    public static final String ANY_DEVICE = null;
+    // a batch never grows beyond one write queue command
+    static final int MAX_BATCH = Frame.MAX_FRAME_SIZE;
+
+    private final String name;
+    private final ArrayList<Step> steps = new ArrayList<>();
+
+    private static final class Step {
+        final String device;
+        final long delayMillis;
+        final int opcode;
+        final byte[] payload;
+
+        Step(String device, long delayMillis, int opcode, byte[] payload) {
+            this.device = device;
+            this.delayMillis = delayMillis;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+
+    public Scene(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Scene add(String device, long delayMillis, int opcode, byte... payload) {
+        if (delayMillis < 0) {
+            throw new IllegalArgumentException("Negative delay: " + delayMillis);
+        }
+        if (opcode == RAW ? payload.length != 1 : payload.length > Frame.MAX_PAYLOAD) {
+            throw new IllegalArgumentException("Bad payload size: " + payload.length);
+        }
+        steps.add(new Step(device, delayMillis, opcode, payload.clone()));
+        return this;
+    }
+
+    public Scene add(String device, long delayMillis, int opcode, int target, int value) {
+        return add(device, delayMillis, opcode, new byte[]{(byte) target, (byte) value});
+    }
+
+    public CompiledScene compile() {
+        // by delay, then by device, keeping the order the steps were added in otherwise
+        ArrayList<Step> sorted = new ArrayList<>(steps);
+        Collections.sort(sorted, (a, b) -> a.delayMillis != b.delayMillis
+                ? Long.compare(a.delayMillis, b.delayMillis) : compareDevices(a.device, b.device));
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        ArrayList<String> devices = new ArrayList<>();
+        long[] delays = new long[sorted.size()];
+        int[] offsets = new int[sorted.size()];
+        int[] lengths = new int[sorted.size()];
+        ByteBuffer frame = ByteBuffer.allocate(Frame.MAX_FRAME_SIZE);
+        int batches = 0;
+        for (int i = 0; i < sorted.size(); i++) {
+            Step step = sorted.get(i);
+            frame.clear();
+            if (step.opcode == RAW) {
+                frame.put(step.payload);
+            } else {
+                FrameEncoder.encode(frame, step.opcode, step.payload, 0, step.payload.length);
+            }
+            boolean sameBatch = batches > 0 && delays[batches - 1] == step.delayMillis
+                    && compareDevices(devices.get(batches - 1), step.device) == 0
+                    && lengths[batches - 1] + frame.position() <= MAX_BATCH;
+            if (!sameBatch) {
+                devices.add(step.device);
+                delays[batches] = step.delayMillis;
+                offsets[batches] = data.size();
+                batches++;
+            }
+            data.write(frame.array(), 0, frame.position());
+            lengths[batches - 1] += frame.position();
+        }
+        return new CompiledScene(name, devices.toArray(new String[0]), Arrays.copyOf(delays, batches),
+                Arrays.copyOf(offsets, batches), Arrays.copyOf(lengths, batches), data.toByteArray());
+    }
+
+    private static int compareDevices(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+}
@@ -0,0 +1,95 @@
+package android.bluetooth.arduino.led.scene;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// plays compiled scenes: the batches due at the start are written on the calling thread, each later
+// group is one timer tick that writes its batches and arms the next. a new scene replaces the one playing
+public class ScenePlayer {
+    public interface Sink {
+        // one batch of ready frames for the device, Scene.ANY_DEVICE for the connected one or all of them
+        boolean write(String device, byte[] bytes, int offset, int length);
+    }
+
+    private final Sink sink;
+    private final ScheduledExecutorService scheduler;
+    private final Runnable advance = this::advance;
+    private ScheduledFuture<?> pending;
+    private CompiledScene scene;
+    private int next;
+    private long startNanos;
+    private long batchesWritten;
+    private long batchesFailed;
+
+    public ScenePlayer(Sink sink) {
+        this.sink = sink;
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ScenePlayer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public synchronized void play(CompiledScene scene) {
+        stop();
+        this.scene = scene;
+        next = 0;
+        startNanos = System.nanoTime();
+        advance();
+    }
+
+    public synchronized void stop() {
+        if (pending != null) {
+            pending.cancel(false);
+            pending = null;
+        }
+        scene = null;
+    }
+
+    public synchronized boolean isPlaying() {
+        return scene != null;
+    }
+
+    private synchronized void advance() {
+        CompiledScene scene = this.scene;
+        if (scene == null) {
+            return;
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        byte[] data = scene.getData();
+        while (next < scene.getBatchCount() && scene.getDelayMillis(next) <= elapsedMillis) {
+            if (sink.write(scene.getDevice(next), data, scene.getOffset(next), scene.getLength(next))) {
+                batchesWritten++;
+            } else {
+                batchesFailed++;
+            }
+            next++;
+        }
+        if (pending != null) {
+            // a tick of the scene this one replaced may have been running already, only one stays armed
+            pending.cancel(false);
+        }
+        if (next < scene.getBatchCount()) {
+            pending = scheduler.schedule(advance, startNanos + TimeUnit.MILLISECONDS.toNanos(scene.getDelayMillis(next)) - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } else {
+            pending = null;
+            this.scene = null;
+        }
+    }
+
+    public synchronized long getBatchesWritten() {
+        return batchesWritten;
+    }
+
+    // the link was down or its queue full, the scene went on without the batch
+    public synchronized long getBatchesFailed() {
+        return batchesFailed;
+    }
+
+    public void shutdown() {
+        stop();
+        scheduler.shutdown();
+    }
+}
@@ -0,0 +1,117 @@
+package android.bluetooth.arduino.led.scene;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.content.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+// compiled scenes kept in one file, read on first use. a scene is only compiled when it is saved,
+// so playing one after a restart is as cheap as playing it the hundredth time
+public class SceneStore {
+    private static final String FILE = "scenes";
+    // the RGB pins the effects use
+    private static final int[] PINS = {3, 5, 6};
+    private final File file;
+    private LinkedHashMap<String, CompiledScene> scenes;
+
+    public SceneStore(Context context) {
+        file = new File(context.getFilesDir(), FILE);
+    }
+
+    public synchronized CompiledScene get(String name) {
+        return scenes().get(name);
+    }
+
+    public synchronized ArrayList<String> getNames() {
+        return new ArrayList<>(scenes().keySet());
+    }
+
+    public synchronized CompiledScene put(Scene scene) {
+        CompiledScene compiled = scene.compile();
+        scenes().put(compiled.getName(), compiled);
+        save();
+        return compiled;
+    }
+
+    public synchronized void remove(String name) {
+        if (scenes().remove(name) != null) {
+            save();
+        }
+    }
+
+    private LinkedHashMap<String, CompiledScene> scenes() {
+        if (scenes == null) {
+            scenes = new LinkedHashMap<>();
+            if (file.exists()) {
+                load();
+            } else {
+                for (Scene scene : defaults()) {
+                    CompiledScene compiled = scene.compile();
+                    scenes.put(compiled.getName(), compiled);
+                }
+                save();
+            }
+        }
+        return scenes;
+    }
+
+    private void load() {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                CompiledScene scene = CompiledScene.readFrom(in);
+                scenes.put(scene.getName(), scene);
+            }
+        } catch (IOException e) {
+            // what was read before the damage is kept
+            e.printStackTrace();
+        }
+    }
+
+    // into a new file first, a crash while writing leaves the old one in place
+    private void save() {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(scenes.size());
+            for (CompiledScene scene : scenes.values()) {
+                scene.writeTo(out);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        temp.renameTo(file);
+    }
+
+    private static Scene color(Scene scene, long delayMillis, int rgb) {
+        for (int i = 0; i < PINS.length; i++) {
+            scene.add(Scene.ANY_DEVICE, delayMillis, Frame.OP_PWM, PINS[i], (rgb >> (16 - 8 * i)) & 0xFF);
+        }
+        return scene;
+    }
+
+    private static Scene[] defaults() {
+        Scene evening = color(new Scene("Evening"), 0, 0x603010);
+        Scene wakeUp = new Scene("Wake up");
+        for (int step = 0; step <= 10; step++) {
+            color(wakeUp, step * 1000L, (step * 25) * 0x010101);
+        }
+        wakeUp.add(Scene.ANY_DEVICE, 10000, Scene.RAW, (byte) 1);
+        Scene party = new Scene("Party");
+        int[] colors = {0xFF0000, 0x00FF00, 0x0000FF, 0xFF00FF};
+        for (int i = 0; i < 16; i++) {
+            color(party, i * 250L, colors[i % colors.length]);
+        }
+        Scene allOff = color(new Scene("All off"), 0, 0).add(Scene.ANY_DEVICE, 0, Scene.RAW, (byte) 0);
+        return new Scene[]{evening, wakeUp, party, allOff};
+    }
+}
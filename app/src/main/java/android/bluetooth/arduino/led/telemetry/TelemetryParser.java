@@ -0,0 +1,205 @@
+package android.bluetooth.arduino.led.telemetry;
+
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+
+import java.nio.charset.StandardCharsets;
+
+// turns what a sketch reports into samples, on the reader thread and without allocating per sample.
+// binary: OP_TELEMETRY frames. text: lines outside of frames the way the Arduino serial plotter reads them,
+// "temp:21.5,light:310" or bare numbers "21.5 310" that become channels "1", "2", ...
+public final class TelemetryParser implements FrameDecoder.TextListener {
+    private static final int MAX_LINE = 128;
+    private static final byte[][] COLUMNS = new byte[TelemetryStore.MAX_CHANNELS][];
+    private static final double[] POWERS = new double[19];
+
+    static {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            COLUMNS[i] = Integer.toString(i + 1).getBytes(StandardCharsets.US_ASCII);
+        }
+        POWERS[0] = 1;
+        for (int i = 1; i < POWERS.length; i++) {
+            POWERS[i] = POWERS[i - 1] * 10;
+        }
+    }
+
+    private final TelemetryStore store;
+    private final byte[] line = new byte[MAX_LINE];
+    private int length;
+    private boolean overflow;
+    // one line is checked completely before any of it is stored, noise between frames stores nothing
+    private final TimeSeries[] lineSeries = new TimeSeries[TelemetryStore.MAX_CHANNELS];
+    private final float[] lineValues = new float[TelemetryStore.MAX_CHANNELS];
+    private long lines;
+    private long rejected;
+
+    public TelemetryParser(TelemetryStore store) {
+        this.store = store;
+    }
+
+    // payload [channel][sample interval micros, 2 bytes][sample, 2 bytes signed] ..., oldest sample first,
+    // the newest one taken right before the frame was sent
+    public boolean frameReceived(byte[] payload, int offset, int length, long now) {
+        if (length < 5 || (length - 3) % 2 != 0) {
+            rejected++;
+            return false;
+        }
+        TimeSeries series = store.channel(payload[offset] & 0xFF);
+        if (series == null) {
+            return false;
+        }
+        long interval = ((payload[offset + 1] & 0xFF) << 8 | (payload[offset + 2] & 0xFF)) * 1000L;
+        int count = (length - 3) / 2;
+        for (int i = 0, at = offset + 3; i < count; i++, at += 2) {
+            short sample = (short) ((payload[at] & 0xFF) << 8 | (payload[at + 1] & 0xFF));
+            store.append(series, now - (count - 1 - i) * interval, sample);
+        }
+        return true;
+    }
+
+    @Override
+    public void textReceived(byte[] bytes, int offset, int count) {
+        for (int i = offset; i < offset + count; i++) {
+            byte value = bytes[i];
+            if (value == '\n') {
+                if (!overflow && length > 0) {
+                    parseLine(System.nanoTime());
+                }
+                length = 0;
+                overflow = false;
+            } else if (value != '\r') {
+                if (length < MAX_LINE) {
+                    line[length++] = value;
+                } else {
+                    overflow = true;
+                }
+            }
+        }
+    }
+
+    private void parseLine(long now) {
+        int found = 0;
+        int column = 0;
+        int i = 0;
+        while (i < length) {
+            if (separator(line[i])) {
+                i++;
+                continue;
+            }
+            int start = i;
+            int colon = -1;
+            while (i < length && !separator(line[i])) {
+                if (colon < 0 && (line[i] == ':' || line[i] == '=')) {
+                    colon = i;
+                }
+                i++;
+            }
+            if (column == TelemetryStore.MAX_CHANNELS) {
+                rejected++;
+                return;
+            }
+            float value = parseNumber(line, colon < 0 ? start : colon + 1, i);
+            if (Float.isNaN(value) || colon == start) {
+                rejected++;
+                return;
+            }
+            TimeSeries series = colon < 0
+                    ? store.channel(COLUMNS[column], 0, COLUMNS[column].length)
+                    : store.channel(line, start, colon - start);
+            column++;
+            if (series != null) {
+                lineSeries[found] = series;
+                lineValues[found++] = value;
+            }
+        }
+        for (int j = 0; j < found; j++) {
+            store.append(lineSeries[j], now, lineValues[j]);
+        }
+        lines++;
+    }
+
+    private static boolean separator(byte value) {
+        return value == ' ' || value == ',' || value == '\t' || value == ';';
+    }
+
+    // [-+]digits[.digits][e[-+]digits], NaN for anything else
+    static float parseNumber(byte[] bytes, int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int scale = 0;
+        boolean point = false;
+        for (; i < to; i++) {
+            int value = bytes[i];
+            if (value >= '0' && value <= '9') {
+                if (digits < 18) {
+                    mantissa = mantissa * 10 + value - '0';
+                    if (point) {
+                        scale--;
+                    }
+                    if (mantissa != 0) {
+                        digits++;
+                    }
+                } else if (!point) {
+                    scale++;
+                }
+            } else if (value == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (!digit(bytes, from, i)) {
+            return Float.NaN;
+        }
+        if (i < to && (bytes[i] == 'e' || bytes[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < to && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            int exponent = 0;
+            int start = i;
+            for (; i < to && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                exponent = Math.min(exponent * 10 + bytes[i] - '0', 1000);
+            }
+            if (i == start) {
+                return Float.NaN;
+            }
+            scale += negativeExponent ? -exponent : exponent;
+        }
+        if (i != to) {
+            return Float.NaN;
+        }
+        double result = mantissa;
+        if (scale > 0) {
+            result *= scale < POWERS.length ? POWERS[scale] : Math.pow(10, scale);
+        } else if (scale < 0) {
+            result /= -scale < POWERS.length ? POWERS[-scale] : Math.pow(10, -scale);
+        }
+        return (float) (negative ? -result : result);
+    }
+
+    private static boolean digit(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] >= '0' && bytes[i] <= '9') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getLines() {
+        return lines;
+    }
+
+    // lines and frames that did not parse
+    public long getRejected() {
+        return rejected;
+    }
+}
@@ -0,0 +1,79 @@
+package android.bluetooth.arduino.led.telemetry;
+
+import java.nio.charset.StandardCharsets;
+
+// the channels one link reported, in the order they first showed up. a channel is created once,
+// after that every sample goes straight into its ring without touching the heap
+public final class TelemetryStore {
+    public static final int MAX_CHANNELS = 16;
+    private final int capacity;
+    private final TimeSeries[] series = new TimeSeries[MAX_CHANNELS];
+    private final byte[][] names = new byte[MAX_CHANNELS][];
+    // binary channels by number, filled on first use
+    private final TimeSeries[] numbered = new TimeSeries[256];
+    private volatile int count;
+    private volatile long samples;
+
+    public TelemetryStore(int capacity) {
+        this.capacity = capacity;
+    }
+
+    // writer only, null once all channels are taken
+    TimeSeries channel(byte[] name, int offset, int length) {
+        int channels = count;
+        for (int i = 0; i < channels; i++) {
+            if (equal(names[i], name, offset, length)) {
+                return series[i];
+            }
+        }
+        if (channels == MAX_CHANNELS) {
+            return null;
+        }
+        byte[] copy = new byte[length];
+        System.arraycopy(name, offset, copy, 0, length);
+        names[channels] = copy;
+        series[channels] = new TimeSeries(new String(copy, StandardCharsets.US_ASCII), capacity);
+        count = channels + 1;
+        return series[channels];
+    }
+
+    // writer only, binary channel n shows up as "#n"
+    TimeSeries channel(int number) {
+        TimeSeries found = numbered[number];
+        if (found == null) {
+            byte[] name = ("#" + number).getBytes(StandardCharsets.US_ASCII);
+            found = numbered[number] = channel(name, 0, name.length);
+        }
+        return found;
+    }
+
+    void append(TimeSeries series, long nanos, float value) {
+        series.append(nanos, value);
+        samples++;
+    }
+
+    private static boolean equal(byte[] name, byte[] bytes, int offset, int length) {
+        if (name.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (name[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getChannelCount() {
+        return count;
+    }
+
+    public TimeSeries get(int channel) {
+        return series[channel];
+    }
+
+    // all samples so far, a view redraws only when this moved
+    public long getSamples() {
+        return samples;
+    }
+}
@@ -0,0 +1,106 @@
+package android.bluetooth.arduino.led.telemetry;
+
+// the last samples of one channel in two primitive rings, written by the reader thread only.
+// readers on other threads take the newest samples and stay clear of the slots the writer reaches next
+public final class TimeSeries {
+    private final String name;
+    private final int mask;
+    // a read skips the oldest slots, the writer would have to append this many samples during one read to tear it
+    private final int margin;
+    private final long[] times;
+    private final float[] values;
+    private volatile long written;
+
+    TimeSeries(String name, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.name = name;
+        mask = size - 1;
+        margin = size / 8;
+        times = new long[size];
+        values = new float[size];
+    }
+
+    // writer only, times never go backwards so a read can search them
+    void append(long nanos, float value) {
+        long position = written;
+        if (position > 0) {
+            nanos = Math.max(nanos, times[(int) ((position - 1) & mask)]);
+        }
+        int index = (int) (position & mask);
+        times[index] = nanos;
+        values[index] = value;
+        written = position + 1;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    // samples appended since the series was created, including the ones the ring dropped
+    public long getWritten() {
+        return written;
+    }
+
+    public float getLatest() {
+        long position = written;
+        return position == 0 ? Float.NaN : values[(int) ((position - 1) & mask)];
+    }
+
+    public long getLatestTime() {
+        long position = written;
+        return position == 0 ? 0 : times[(int) ((position - 1) & mask)];
+    }
+
+    // min and max of the samples in each of buckets equal slices of [from, to), NaN where a slice has none.
+    // a spike narrower than a pixel still shows, which plain decimation would drop. returns the samples seen
+    public int downsample(long from, long to, float[] min, float[] max, int buckets) {
+        for (int i = 0; i < buckets; i++) {
+            min[i] = Float.NaN;
+            max[i] = Float.NaN;
+        }
+        long end = written;
+        long start = Math.max(0, end - (mask + 1) + margin);
+        if (end == 0 || to <= from) {
+            return 0;
+        }
+        long position = first(start, end, from);
+        long span = to - from;
+        int seen = 0;
+        for (; position < end; position++) {
+            int index = (int) (position & mask);
+            long time = times[index];
+            if (time >= to) {
+                break;
+            }
+            int bucket = (int) ((time - from) * buckets / span);
+            float value = values[index];
+            if (!(min[bucket] <= value)) {
+                min[bucket] = value;
+            }
+            if (!(max[bucket] >= value)) {
+                max[bucket] = value;
+            }
+            seen++;
+        }
+        return seen;
+    }
+
+    // position of the first sample at or after time in [start, end)
+    private long first(long start, long end, long time) {
+        long low = start;
+        long high = end;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (times[(int) (middle & mask)] < time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
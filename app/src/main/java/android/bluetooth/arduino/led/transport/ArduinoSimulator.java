@@ -0,0 +1,263 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.protocol.StripDecoder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// device side of a LoopbackTransport, behaves like the LED sketch behind an HC-05 at the given baud rate.
+// the link latency lives in the pipes, the simulator only spends the serial transfer time
+public class ArduinoSimulator extends Thread {
+    private final BytePipe in;
+    private final BytePipe out;
+    private final int baudRate;
+    private volatile int ledState;
+    private volatile long bytesReceived;
+    private volatile boolean running = true;
+    private final byte[] single = new byte[1];
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final FrameDecoder decoder = new FrameDecoder(this::frameReceived);
+    private final ByteBuffer reply = ByteBuffer.allocate(Frame.MAX_FRAME_SIZE);
+    // micros() of the board: its own zero point and a resonator that runs a little fast or slow
+    private final long clockStart = System.nanoTime();
+    private volatile long clockOffsetMicros;
+    private volatile double clockRate = 1;
+    private volatile long lastExecutedNanos;
+    private ScheduledExecutorService timer;
+    private volatile StripDecoder strip;
+    private volatile int creditWindow;
+    private int unreported;
+    private final byte[] credit = new byte[4];
+    private volatile int peakBuffered;
+
+    public ArduinoSimulator(BytePipe in, BytePipe out, int baudRate) {
+        this.in = in;
+        this.out = out;
+        this.baudRate = baudRate;
+        setName("ArduinoSimulator");
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        // the sketch reads from a 64 byte serial buffer
+        byte[] bytes = new byte[64];
+        while (running) {
+            try {
+                // everything that has arrived and is not read yet sits in the serial buffer of the board
+                peakBuffered = Math.max(peakBuffered, in.available());
+                int len = in.read(bytes, 0, bytes.length);
+                throttle(len);
+                bytesReceived += len;
+                for (int i = 0; i < len; i++) {
+                    receive(bytes[i]);
+                }
+                credit(len);
+            } catch (IOException e) {
+                break;
+            }
+        }
+    }
+
+    protected void receive(byte value) throws IOException {
+        // same rule as the sketch: a bare 0 or 1 outside a frame is the legacy command
+        if (decoder.isHunting() && (value == 0 || value == 1)) {
+            ledState = value;
+            return;
+        }
+        single[0] = value;
+        decoder.decode(single, 0, 1);
+    }
+
+    protected synchronized void frameReceived(int opcode, byte[] payload, int offset, int length) {
+        try {
+            switch (opcode) {
+                case Frame.OP_LED:
+                    if (length >= 2) {
+                        ledState = payload[offset + 1];
+                    }
+                    break;
+                case Frame.OP_PING:
+                    ByteBuffer pong = encoder.encode(Frame.OP_PONG, payload, offset, length);
+                    send(pong.array(), 0, pong.limit());
+                    break;
+                case Frame.OP_TIME:
+                    reply.clear();
+                    int start = FrameEncoder.begin(reply, Frame.OP_TIME_REPLY);
+                    reply.put(payload, offset, length);
+                    reply.putInt(micros());
+                    send(reply.array(), 0, FrameEncoder.end(reply, start));
+                    break;
+                case Frame.OP_STRIP:
+                    StripDecoder strip = this.strip;
+                    if (strip != null) {
+                        strip.decode(payload, offset, length);
+                    }
+                    break;
+                case Frame.OP_AT:
+                    if (length >= 6) {
+                        schedule(payload, offset, length);
+                    }
+                    break;
+                case Frame.OP_SEQ:
+                    if (length >= 2) {
+                        frameReceived(payload[offset + 1] & 0xFF, payload, offset + 2, length - 2);
+                        ByteBuffer ack = encoder.encode(Frame.OP_ACK, payload[offset]);
+                        send(ack.array(), 0, ack.limit());
+                    }
+                    break;
+            }
+        } catch (IOException e) {
+            running = false;
+        }
+    }
+
+    // same rule as the sketch: report read bytes once half the window is used up or the input went quiet
+    private void credit(int read) throws IOException {
+        int window = creditWindow;
+        if (window <= 0) {
+            return;
+        }
+        unreported += read;
+        if (unreported >= window / 2 || in.available() == 0) {
+            credit[0] = (byte) (window >> 8);
+            credit[1] = (byte) window;
+            credit[2] = (byte) (unreported >> 8);
+            credit[3] = (byte) unreported;
+            unreported = 0;
+            synchronized (this) {
+                ByteBuffer frame = encoder.encode(Frame.OP_CREDIT, credit, 0, credit.length);
+                send(frame.array(), 0, frame.limit());
+            }
+        }
+    }
+
+    private void schedule(byte[] payload, int offset, int length) {
+        final byte id = payload[offset];
+        final int at = ByteBuffer.wrap(payload, offset + 1, 4).getInt();
+        final int opcode = payload[offset + 5] & 0xFF;
+        final byte[] command = new byte[length - 6];
+        System.arraycopy(payload, offset + 6, command, 0, command.length);
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "ArduinoSimulatorClock");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        long delayMicros = (long) ((at - micros()) / clockRate);
+        timer.schedule(() -> execute(id, at, opcode, command), Math.max(0, delayMicros), TimeUnit.MICROSECONDS);
+    }
+
+    private synchronized void execute(byte id, int at, int opcode, byte[] command) {
+        int now = micros();
+        lastExecutedNanos = System.nanoTime();
+        frameReceived(opcode, command, 0, command.length);
+        reply.clear();
+        int start = FrameEncoder.begin(reply, Frame.OP_EXECUTED);
+        reply.put(id);
+        reply.putInt(at);
+        reply.putInt(now);
+        try {
+            send(reply.array(), 0, FrameEncoder.end(reply, start));
+        } catch (IOException e) {
+            running = false;
+        }
+    }
+
+    // an addressable strip on the board, OP_STRIP packets are ignored without one
+    public void setStrip(int pixels) {
+        strip = new StripDecoder(pixels);
+    }
+
+    public StripDecoder getStrip() {
+        return strip;
+    }
+
+    // a board running the flow control sketch advertises this receive window with OP_CREDIT, 0 is the old sketch
+    public void setCreditWindow(int bytes) {
+        creditWindow = bytes;
+    }
+
+    // the most bytes that were waiting to be read at once, a real board loses what does not fit its 64 byte buffer
+    public int getPeakBuffered() {
+        return peakBuffered;
+    }
+
+    // count samples of one channel taken intervalMicros apart as a single OP_TELEMETRY frame, like the sketch sends them
+    public synchronized void sendTelemetry(int channel, int intervalMicros, short[] samples, int count) throws IOException {
+        reply.clear();
+        int start = FrameEncoder.begin(reply, Frame.OP_TELEMETRY);
+        reply.put((byte) channel);
+        reply.putShort((short) intervalMicros);
+        for (int i = 0; i < count; i++) {
+            reply.putShort(samples[i]);
+        }
+        send(reply.array(), 0, FrameEncoder.end(reply, start));
+    }
+
+    // what Serial.println would put on the line between frames
+    public synchronized void println(String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.US_ASCII);
+        send(bytes, 0, bytes.length);
+    }
+
+    public int micros() {
+        return (int) (clockOffsetMicros + (long) ((System.nanoTime() - clockStart) / 1000 * clockRate));
+    }
+
+    public void setClock(long offsetMicros, int driftPpm) {
+        clockOffsetMicros = offsetMicros;
+        clockRate = 1 + driftPpm / 1000000.0;
+    }
+
+    // host System.nanoTime() of the last scheduled command, the ground truth for the skew a test measures
+    public long getLastExecutedNanos() {
+        return lastExecutedNanos;
+    }
+
+    protected void send(byte[] bytes, int offset, int length) throws IOException {
+        throttle(length);
+        out.write(bytes, offset, length);
+    }
+
+    private void throttle(int length) throws IOException {
+        if (baudRate <= 0) {
+            return;
+        }
+        // 8N1 framing: ten bits on the wire for every byte
+        long nanos = length * 10L * 1000000000L / baudRate;
+        try {
+            Thread.sleep(nanos / 1000000L, (int) (nanos % 1000000L));
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted", e);
+        }
+    }
+
+    public int getLedState() {
+        return ledState;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void shutdown() {
+        running = false;
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+        in.close();
+        out.close();
+        interrupt();
+    }
+}
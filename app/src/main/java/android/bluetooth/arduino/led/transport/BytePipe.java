@@ -0,0 +1,100 @@
+package android.bluetooth.arduino.led.transport;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// bounded single-direction byte channel, a writer blocks while the pipe is full like a real serial buffer.
+// with a latency every byte becomes readable only that long after it was written, so delay is pipelined
+public class BytePipe {
+    private final byte[] ring;
+    private final long[] readyAt;
+    private final long latencyNanos;
+    private int head;
+    private int size;
+    private boolean closed;
+
+    public BytePipe(int capacity) {
+        this(capacity, 0);
+    }
+
+    public BytePipe(int capacity, long latencyNanos) {
+        ring = new byte[capacity];
+        readyAt = latencyNanos > 0 ? new long[capacity] : null;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public synchronized int read(byte[] buffer, int offset, int length) throws IOException {
+        int count;
+        while ((count = readable(length)) == 0) {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            try {
+                if (size == 0) {
+                    wait();
+                } else {
+                    TimeUnit.NANOSECONDS.timedWait(this, readyAt[head] - System.nanoTime());
+                }
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+        }
+        int first = Math.min(count, ring.length - head);
+        System.arraycopy(ring, head, buffer, offset, first);
+        System.arraycopy(ring, 0, buffer, offset + first, count - first);
+        head = (head + count) % ring.length;
+        size -= count;
+        notifyAll();
+        return count;
+    }
+
+    private int readable(int length) {
+        int count = Math.min(length, size);
+        if (readyAt == null || count == 0) {
+            return count;
+        }
+        long now = System.nanoTime();
+        int ready = 0;
+        while (ready < count && readyAt[(head + ready) % ring.length] - now <= 0) {
+            ready++;
+        }
+        return ready;
+    }
+
+    public synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+        long ready = System.nanoTime() + latencyNanos;
+        while (length > 0) {
+            while (size == ring.length && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted", e);
+                }
+            }
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+            int tail = (head + size) % ring.length;
+            int count = Math.min(length, Math.min(ring.length - size, ring.length - tail));
+            System.arraycopy(buffer, offset, ring, tail, count);
+            if (readyAt != null) {
+                for (int i = tail; i < tail + count; i++) {
+                    readyAt[i] = ready;
+                }
+            }
+            size += count;
+            offset += count;
+            length -= count;
+            notifyAll();
+        }
+    }
+
+    public synchronized int available() {
+        return readable(size);
+    }
+
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+}
@@ -0,0 +1,17 @@
+package android.bluetooth.arduino.led.transport;
+
+// the write side of one link, commands are queued by the caller into a WriteLanes lane and written by the implementation
+public interface CommandWriter {
+    boolean offer(int lane, byte[] bytes, int offset, int length, int key);
+
+    boolean offer(int lane, int value, int key);
+
+    void start();
+
+    // the flow control has room again, a writer waiting on it goes on right away
+    void flowOpened();
+
+    void shutdown();
+
+    WriteLanes getLanes();
+}
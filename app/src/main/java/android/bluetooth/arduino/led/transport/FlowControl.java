@@ -0,0 +1,199 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.protocol.Frame;
+
+// paces one link so bytes leave no faster than the device takes them, the rest waits in the write queue
+// where keyed commands still coalesce. a device that sends OP_CREDIT frames bounds the bytes in flight to
+// its receive window, a window of 0 pauses the link like XOFF. on top of that a token bucket follows the
+// measured throughput, so bytes do not pile up in the socket buffers where nothing can drop or replace them
+public final class FlowControl {
+    public static final int NO_WINDOW = -1;
+    // until the device shows it sends credits it gets the serial buffer of an Uno,
+    // a device that has not sent one this long after the window filled runs the old sketch
+    static final int ASSUMED_WINDOW = 64;
+    private static final long PROBE_TIMEOUT_NANOS = 250000000L;
+    // bytes of the window only control commands may use, room for a ping or two LED frames
+    static final int CONTROL_RESERVE = 12;
+    // bytes per second, 115200 baud 8N1 until the link shows what it does
+    static final long INITIAL_RATE = 11520;
+    static final long MIN_RATE = 480;
+    static final long MAX_RATE = 1 << 20;
+    // the bucket holds this much time at the current rate, never less than one full frame
+    private static final long BURST_NANOS = 20000000L;
+    // a write that blocked this long found the socket buffers full
+    private static final long STALL_NANOS = 10000000L;
+    // the rate grows at most once per this interval while it holds the link back, and one congestion episode cuts it once
+    private static final long INCREASE_INTERVAL_NANOS = 20000000L;
+    private static final long DECREASE_INTERVAL_NANOS = 100000000L;
+    // a credit frame lost on the serial line would hold the window shut, after this long without one
+    // the device is assumed to have read everything. a device paused with window 0 repeats its credit frame
+    private static final long CREDIT_TIMEOUT_NANOS = 1000000000L;
+    private final LinkMetrics metrics;
+    private long rate = INITIAL_RATE;
+    private double tokens = Frame.MAX_FRAME_SIZE;
+    private long refilledAt;
+    private boolean started;
+    private int window = ASSUMED_WINDOW;
+    private boolean credited;
+    private long inFlight;
+    private long lastCredit;
+    private boolean creditLimited;
+    private boolean rateLimited;
+    private boolean waiting;
+    private long waitingSince;
+    private double measured;
+    private long adjustedAt;
+    private boolean stalled;
+    private long stalledAt;
+    private long bytesSinceStall;
+
+    public FlowControl(LinkMetrics metrics) {
+        this.metrics = metrics;
+        metrics.flowRate.set(rate);
+        metrics.flowWindow.set(window);
+    }
+
+    // how many bytes may be written now, next is the size of the oldest queued command.
+    // control commands are not held back by the bucket, the bytes they take are paid by the traffic after them
+    public synchronized int allowance(int next, boolean control, long now) {
+        refill(now);
+        long room = room(next, control);
+        long budget = (long) tokens;
+        if (control) {
+            budget = Integer.MAX_VALUE;
+        } else if (tokens >= burst()) {
+            budget = Math.max(budget, next);
+        }
+        return (int) Math.max(0, Math.min(room, budget));
+    }
+
+    private long room(int next, boolean control) {
+        if (window == NO_WINDOW) {
+            return Integer.MAX_VALUE;
+        }
+        long room = window - inFlight - (control ? 0 : CONTROL_RESERVE);
+        if (window > 0 && inFlight == 0) {
+            // a command larger than the window goes out alone
+            room = Math.max(room, next);
+        }
+        return room;
+    }
+
+    // how long until a command of next bytes fits, credits from the device can end the wait early
+    public synchronized long delayNanos(int next, boolean control, long now) {
+        refill(now);
+        if (!waiting) {
+            waiting = true;
+            waitingSince = now;
+        }
+        if (next > room(next, control)) {
+            creditLimited = true;
+            long silent = credited ? Math.min(now - waitingSince, now - lastCredit) : now - waitingSince;
+            long timeout = credited ? CREDIT_TIMEOUT_NANOS : PROBE_TIMEOUT_NANOS;
+            if (silent < timeout) {
+                return timeout - silent;
+            }
+            if (credited) {
+                inFlight = 0;
+                if (window == 0) {
+                    // the frame that opened the window again got lost
+                    window = ASSUMED_WINDOW;
+                }
+                metrics.creditTimeouts.incrementAndGet();
+            } else {
+                window = NO_WINDOW;
+                metrics.flowWindow.set(NO_WINDOW);
+            }
+        }
+        double missing = Math.min(next, burst()) - tokens;
+        if (control || missing <= 0) {
+            return 0;
+        }
+        rateLimited = true;
+        return Math.max(1, (long) Math.ceil(missing * 1e9 / rate));
+    }
+
+    public synchronized void sent(int length, long stallNanos, long now) {
+        refill(now);
+        tokens -= length;
+        inFlight += length;
+        if (waiting) {
+            waiting = false;
+            metrics.flowWait.recordNanos(now - waitingSince);
+        }
+        bytesSinceStall += length;
+        if (window == NO_WINDOW && stallNanos >= STALL_NANOS) {
+            // the socket takes bytes at the link rate while it blocks, stay below that so its buffers empty
+            if (stalled && now - stalledAt < CREDIT_TIMEOUT_NANOS) {
+                sample(bytesSinceStall * 1e9 / (now - stalledAt));
+            }
+            if (now - adjustedAt >= DECREASE_INTERVAL_NANOS) {
+                setRate(measured > 0 ? (long) (Math.min(rate, measured) * 0.9) : rate * 7 / 10);
+                adjustedAt = now;
+            }
+            stalled = true;
+            stalledAt = now;
+            bytesSinceStall = 0;
+        } else if (rateLimited && now - adjustedAt >= INCREASE_INTERVAL_NANOS) {
+            // probe upwards while the bucket is what holds the link back
+            setRate(rate + rate / 16 + 16);
+            adjustedAt = now;
+        }
+        rateLimited = false;
+    }
+
+    // an OP_CREDIT frame: the receive window of the device and the bytes it read since its last credit frame
+    public synchronized void credit(int window, int consumed, long now) {
+        if (credited && creditLimited && now - lastCredit > 0) {
+            // the window stayed full, so the credits came back at the pace the device reads
+            sample(consumed * 1e9 / (now - lastCredit));
+            setRate((long) (measured * 1.25));
+        }
+        this.window = window;
+        credited = true;
+        inFlight = Math.max(0, inFlight - consumed);
+        lastCredit = now;
+        creditLimited = false;
+        metrics.flowWindow.set(window);
+    }
+
+    private void sample(double bytesPerSecond) {
+        measured = measured == 0 ? bytesPerSecond : measured * 0.75 + bytesPerSecond * 0.25;
+    }
+
+    private void setRate(long rate) {
+        this.rate = Math.max(MIN_RATE, Math.min(MAX_RATE, rate));
+        metrics.flowRate.set(this.rate);
+    }
+
+    private void refill(long now) {
+        if (!started) {
+            started = true;
+            refilledAt = now;
+            adjustedAt = now;
+            return;
+        }
+        long elapsed = now - refilledAt;
+        if (elapsed > 0) {
+            tokens = Math.min(burst(), tokens + elapsed * rate / 1e9);
+            refilledAt = now;
+        }
+    }
+
+    private long burst() {
+        return Math.max(Frame.MAX_FRAME_SIZE, rate * BURST_NANOS / 1000000000L);
+    }
+
+    public synchronized long getRate() {
+        return rate;
+    }
+
+    public synchronized int getWindow() {
+        return window;
+    }
+
+    public synchronized long getInFlight() {
+        return inFlight;
+    }
+}
@@ -0,0 +1,92 @@
+package android.bluetooth.arduino.led.transport;
+
+import java.io.IOException;
+
+public class LoopbackTransport implements Transport {
+    private final int baudRate;
+    private final long latencyMillis;
+    private final long connectMillis;
+    private BytePipe toDevice;
+    private BytePipe fromDevice;
+    private ArduinoSimulator simulator;
+
+    public LoopbackTransport() {
+        this(0, 0, 0);
+    }
+
+    public LoopbackTransport(int baudRate, long latencyMillis, long connectMillis) {
+        this.baudRate = baudRate;
+        this.latencyMillis = latencyMillis;
+        this.connectMillis = connectMillis;
+    }
+
+    @Override
+    public String getName() {
+        return "Loopback";
+    }
+
+    @Override
+    public String getAddress() {
+        return "00:00:00:00:00:00";
+    }
+
+    @Override
+    public void connect() throws IOException {
+        if (connectMillis > 0) {
+            try {
+                Thread.sleep(connectMillis);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted", e);
+            }
+        }
+        synchronized (this) {
+            long latencyNanos = latencyMillis * 1000000L;
+            toDevice = new BytePipe(1024, latencyNanos);
+            fromDevice = new BytePipe(1024, latencyNanos);
+            simulator = createSimulator(toDevice, fromDevice, baudRate);
+            simulator.start();
+        }
+    }
+
+    protected ArduinoSimulator createSimulator(BytePipe in, BytePipe out, int baudRate) {
+        return new ArduinoSimulator(in, out, baudRate);
+    }
+
+    public synchronized ArduinoSimulator getSimulator() {
+        return simulator;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        BytePipe pipe;
+        synchronized (this) {
+            pipe = fromDevice;
+        }
+        if (pipe == null) {
+            throw new IOException("Not connected");
+        }
+        return pipe.read(buffer, offset, length);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        BytePipe pipe;
+        synchronized (this) {
+            pipe = toDevice;
+        }
+        if (pipe == null) {
+            throw new IOException("Not connected");
+        }
+        pipe.write(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (simulator != null) {
+            simulator.shutdown();
+            simulator = null;
+        }
+        toDevice = null;
+        fromDevice = null;
+    }
+}
@@ -0,0 +1,138 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// like WritePipeline but drained by tasks on an executor shared by many links,
+// at most one drain task per link is queued or running so writes stay in order
+public class PooledWritePipeline implements CommandWriter, Runnable {
+    // a link with a full queue gives the pool thread back after this many packets
+    private static final int MAX_BATCHES_PER_RUN = 4;
+    private final Transport transport;
+    private final WriteLanes lanes;
+    private final ScheduledExecutorService executor;
+    private final long flushWindowNanos;
+    private final byte[] batch;
+    private final FlowControl flow;
+    private final LinkMetrics metrics;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    // the drain task parked on the flow control, it still counts as scheduled
+    private volatile ScheduledFuture<?> waiting;
+    private volatile boolean running = true;
+    private volatile boolean started;
+
+    public PooledWritePipeline(Transport transport, WriteLanes lanes, ScheduledExecutorService executor, FlowControl flow, int batchSize, long flushWindowNanos, LinkMetrics metrics) {
+        this.transport = transport;
+        this.lanes = lanes;
+        this.flow = flow;
+        this.executor = executor;
+        this.metrics = metrics;
+        this.flushWindowNanos = flushWindowNanos;
+        this.batch = new byte[batchSize];
+    }
+
+    @Override
+    public void start() {
+        started = true;
+        schedule(false);
+    }
+
+    @Override
+    public boolean offer(int lane, byte[] bytes, int offset, int length, int key) {
+        return accepted(lane, running && lanes.get(lane).offer(bytes, offset, length, key));
+    }
+
+    @Override
+    public boolean offer(int lane, int value, int key) {
+        return accepted(lane, running && lanes.get(lane).offer(value, key));
+    }
+
+    private boolean accepted(int lane, boolean accepted) {
+        if (!accepted) {
+            metrics.commandsDropped.incrementAndGet();
+            return false;
+        }
+        metrics.commandsOut.incrementAndGet();
+        if (lane == WriteLanes.CONTROL) {
+            // a control command does not wait out a drain task parked on the bucket
+            flowOpened();
+        }
+        // let a burst of commands pile up so it leaves as one packet
+        schedule(true);
+        return true;
+    }
+
+    private void schedule(boolean delayed) {
+        if (!started || !running || lanes.isEmpty() || !scheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (delayed && flushWindowNanos > 0) {
+                executor.schedule(this, flushWindowNanos, TimeUnit.NANOSECONDS);
+            } else {
+                executor.execute(this);
+            }
+        } catch (RejectedExecutionException e) {
+            scheduled.set(false);
+            running = false;
+        }
+    }
+
+    @Override
+    public void run() {
+        long wait = 0;
+        for (int i = 0; i < MAX_BATCHES_PER_RUN && running && !lanes.isEmpty() && wait == 0; i++) {
+            wait = WritePipeline.writeBatch(transport, lanes, batch, flow, metrics);
+            if (wait == WritePipeline.BROKEN) {
+                running = false;
+            }
+        }
+        if (wait > 0 && running) {
+            // the pool thread is not held while the flow control is shut, the task comes back when it opens
+            try {
+                waiting = executor.schedule(this, wait, TimeUnit.NANOSECONDS);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                running = false;
+                return;
+            }
+            if (lanes.delayNanos(flow, System.nanoTime()) == 0) {
+                // credits came in before the wait was published
+                flowOpened();
+            }
+            return;
+        }
+        scheduled.set(false);
+        // commands offered while this task was finishing found it still scheduled
+        schedule(false);
+    }
+
+    @Override
+    public void flowOpened() {
+        ScheduledFuture<?> future = waiting;
+        if (future != null && future.cancel(false)) {
+            waiting = null;
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                running = false;
+            }
+        }
+    }
+
+    @Override
+    public WriteLanes getLanes() {
+        return lanes;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+    }
+}
@@ -0,0 +1,35 @@
+package android.bluetooth.arduino.led.transport;
+
+public final class ReceiveBuffer {
+    private final ReceiveBufferPool pool;
+    private final byte[] data;
+    private int length;
+
+    ReceiveBuffer(ReceiveBufferPool pool, int capacity) {
+        this.pool = pool;
+        this.data = new byte[capacity];
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getOffset() {
+        return 0;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int readFrom(Transport transport) throws java.io.IOException {
+        length = transport.read(data, 0, data.length);
+        return length;
+    }
+
+    // hand the buffer back to the reader once the consumer is done with it
+    public void release() {
+        length = 0;
+        pool.release(this);
+    }
+}
@@ -0,0 +1,27 @@
+package android.bluetooth.arduino.led.transport;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+// fixed ring of receive buffers, the reader blocks when every buffer is still owned by a consumer
+public final class ReceiveBufferPool {
+    private final ArrayBlockingQueue<ReceiveBuffer> free;
+
+    public ReceiveBufferPool(int count, int capacity) {
+        free = new ArrayBlockingQueue<>(count);
+        for (int i = 0; i < count; i++) {
+            free.add(new ReceiveBuffer(this, capacity));
+        }
+    }
+
+    public ReceiveBuffer acquire() throws InterruptedException {
+        return free.take();
+    }
+
+    void release(ReceiveBuffer buffer) {
+        free.offer(buffer);
+    }
+
+    public int available() {
+        return free.size();
+    }
+}
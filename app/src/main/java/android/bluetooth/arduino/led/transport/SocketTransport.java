@@ -0,0 +1,85 @@
+package android.bluetooth.arduino.led.transport;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+// plain TCP link, e.g. to a simulator in another process or a serial-to-network bridge
+public class SocketTransport implements Transport {
+    private final String host;
+    private final int port;
+    private Socket socket;
+    private InputStream inputStream;
+    private OutputStream outputStream;
+
+    public SocketTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+    }
+
+    @Override
+    public String getName() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public String getAddress() {
+        return host + ":" + port;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), 5000);
+        synchronized (this) {
+            this.socket = socket;
+            inputStream = socket.getInputStream();
+            outputStream = socket.getOutputStream();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        InputStream in;
+        synchronized (this) {
+            in = inputStream;
+        }
+        if (in == null) {
+            throw new IOException("Not connected");
+        }
+        int len = in.read(buffer, offset, length);
+        if (len < 0) {
+            throw new IOException("Connection closed");
+        }
+        return len;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        OutputStream out;
+        synchronized (this) {
+            out = outputStream;
+        }
+        if (out == null) {
+            throw new IOException("Not connected");
+        }
+        out.write(buffer, offset, length);
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            if (socket != null) {
+                socket.close();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        socket = null;
+        inputStream = null;
+        outputStream = null;
+    }
+}
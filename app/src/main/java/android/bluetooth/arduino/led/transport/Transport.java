@@ -0,0 +1,17 @@
+package android.bluetooth.arduino.led.transport;
+
+import java.io.IOException;
+
+public interface Transport {
+    String getName();
+
+    String getAddress();
+
+    void connect() throws IOException;
+
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    void close();
+}
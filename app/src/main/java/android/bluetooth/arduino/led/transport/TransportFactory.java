@@ -0,0 +1,6 @@
+package android.bluetooth.arduino.led.transport;
+
+// makes a fresh transport to the same device for every reconnect attempt
+public interface TransportFactory {
+    Transport create();
+}
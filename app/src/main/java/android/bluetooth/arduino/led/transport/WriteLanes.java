@@ -0,0 +1,66 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LatencyHistogram;
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+// the write queues of one link in priority order. a batch takes commands from the first lane until it is
+// empty before it looks at the next, so a control command never waits behind queued bulk traffic,
+// only behind the batch that is already being written
+public final class WriteLanes {
+    // kill switch, on/off and clock probes: skips the token bucket and has bytes of the credit window reserved
+    public static final int CONTROL = 0;
+    // single commands from the user and everything that expects an answer
+    public static final int INTERACTIVE = 1;
+    // effect frames, strip frames and other streams that keep coming
+    public static final int BULK = 2;
+    public static final int COUNT = 3;
+    private final WriteQueue[] queues = new WriteQueue[COUNT];
+    private final LatencyHistogram[] latency;
+
+    public WriteLanes(int controlCapacity, int interactiveCapacity, int bulkCapacity, int maxCommandSize, LinkMetrics metrics) {
+        queues[CONTROL] = new WriteQueue(controlCapacity, maxCommandSize);
+        queues[INTERACTIVE] = new WriteQueue(interactiveCapacity, maxCommandSize);
+        queues[BULK] = new WriteQueue(bulkCapacity, maxCommandSize);
+        latency = new LatencyHistogram[]{metrics.controlLatency, metrics.interactiveLatency, metrics.bulkLatency};
+    }
+
+    public WriteQueue get(int lane) {
+        return queues[lane];
+    }
+
+    public boolean isEmpty() {
+        return queues[CONTROL].isEmpty() && queues[INTERACTIVE].isEmpty() && queues[BULK].isEmpty();
+    }
+
+    public int size() {
+        return queues[CONTROL].size() + queues[INTERACTIVE].size() + queues[BULK].size();
+    }
+
+    // consumer only: fills batch lane by lane within what the flow control allows, at whole commands.
+    // a lane whose next command does not fit holds back the lanes after it
+    int drainTo(byte[] batch, FlowControl flow, long now) {
+        int length = 0;
+        for (int lane = 0; lane < COUNT; lane++) {
+            WriteQueue queue = queues[lane];
+            if (queue.isEmpty()) {
+                continue;
+            }
+            int allowance = flow.allowance(queue.peekLength(), lane == CONTROL, now) - length;
+            length += queue.drainTo(batch, length, allowance, latency[lane]);
+            if (!queue.isEmpty()) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    // consumer only: how long until the first lane with commands may write again
+    long delayNanos(FlowControl flow, long now) {
+        for (int lane = 0; lane < COUNT; lane++) {
+            if (!queues[lane].isEmpty()) {
+                return flow.delayNanos(queues[lane].peekLength(), lane == CONTROL, now);
+            }
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,111 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+import java.util.concurrent.locks.LockSupport;
+
+// the only thread that touches the transport output, callers just enqueue and return
+public class WritePipeline extends Thread implements CommandWriter {
+    static final long BROKEN = -1;
+    private final Transport transport;
+    private final WriteLanes lanes;
+    private final long flushWindowNanos;
+    private final byte[] batch;
+    private final FlowControl flow;
+    private final LinkMetrics metrics;
+    private volatile boolean running = true;
+
+    public WritePipeline(Transport transport, WriteLanes lanes, FlowControl flow, int batchSize, long flushWindowNanos, LinkMetrics metrics) {
+        this.transport = transport;
+        this.lanes = lanes;
+        this.flow = flow;
+        this.metrics = metrics;
+        this.flushWindowNanos = flushWindowNanos;
+        this.batch = new byte[batchSize];
+        setName("WriterThread");
+        setDaemon(true);
+    }
+
+    @Override
+    public boolean offer(int lane, byte[] bytes, int offset, int length, int key) {
+        return accepted(running && lanes.get(lane).offer(bytes, offset, length, key));
+    }
+
+    @Override
+    public boolean offer(int lane, int value, int key) {
+        return accepted(running && lanes.get(lane).offer(value, key));
+    }
+
+    private boolean accepted(boolean accepted) {
+        if (!accepted) {
+            metrics.commandsDropped.incrementAndGet();
+            return false;
+        }
+        metrics.commandsOut.incrementAndGet();
+        LockSupport.unpark(this);
+        return true;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            if (lanes.isEmpty()) {
+                LockSupport.park(this);
+                continue;
+            }
+            if (flushWindowNanos > 0) {
+                // let a burst of commands pile up so it leaves as one packet
+                LockSupport.parkNanos(this, flushWindowNanos);
+            }
+            while (running && !lanes.isEmpty()) {
+                long wait = writeBatch(transport, lanes, batch, flow, metrics);
+                if (wait == BROKEN) {
+                    running = false;
+                } else if (wait > 0) {
+                    // a control command or credits from the device end the wait early
+                    LockSupport.parkNanos(this, wait);
+                }
+            }
+        }
+    }
+
+    // returns how long to wait until the flow control lets the next command out, BROKEN once the transport is broken
+    static long writeBatch(Transport transport, WriteLanes lanes, byte[] batch, FlowControl flow, LinkMetrics metrics) {
+        metrics.writeQueueDepth.record(lanes.size());
+        long now = System.nanoTime();
+        int len = lanes.drainTo(batch, flow, now);
+        if (len == 0) {
+            return lanes.delayNanos(flow, now);
+        }
+        try {
+            long start = System.nanoTime();
+            transport.write(batch, 0, len);
+            long end = System.nanoTime();
+            flow.sent(len, end - start, end);
+            metrics.writeStall.recordNanos(end - start);
+            metrics.packetsOut.incrementAndGet();
+            metrics.bytesOut.addAndGet(len);
+            return 0;
+        } catch (Exception e) {
+            // the reader notices the broken link and reports it
+            e.printStackTrace();
+            return BROKEN;
+        }
+    }
+
+    @Override
+    public void flowOpened() {
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public WriteLanes getLanes() {
+        return lanes;
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(this);
+    }
+}
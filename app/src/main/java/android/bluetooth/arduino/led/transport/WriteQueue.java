@@ -0,0 +1,177 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// bounded lock-free queue of small commands, many producers and the single writer thread as consumer
+public final class WriteQueue {
+    public static final int NO_KEY = -1;
+
+    // called on the writer thread for every command taken for the transport
+    public interface Listener {
+        void written(byte[] bytes, int offset, int length);
+    }
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final byte[][] data;
+    private final int[] lengths;
+    private final int[] keys;
+    private final long[] offeredAt;
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long head;
+    // commands offered before this position are dropped unsent
+    private volatile long discardBefore;
+    private volatile Listener listener;
+    private long coalesced;
+    private long discarded;
+
+    public WriteQueue(int capacity, int maxCommandSize) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        data = new byte[size][maxCommandSize];
+        lengths = new int[size];
+        keys = new int[size];
+        offeredAt = new long[size];
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    public boolean offer(byte[] bytes, int offset, int length, int key) {
+        if (length > data[0].length) {
+            throw new IllegalArgumentException("Command too large: " + length);
+        }
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    System.arraycopy(bytes, offset, data[index], 0, length);
+                    lengths[index] = length;
+                    keys[index] = key;
+                    offeredAt[index] = System.nanoTime();
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    public boolean offer(int value, int key) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int) (pos & mask);
+            long dif = sequences.get(index) - pos;
+            if (dif == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    data[index][0] = (byte) value;
+                    lengths[index] = 1;
+                    keys[index] = key;
+                    offeredAt[index] = System.nanoTime();
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (dif < 0) {
+                return false;
+            }
+            pos = tail.get();
+        }
+    }
+
+    public boolean isEmpty() {
+        return sequences.get((int) (head & mask)) != head + 1;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    // any thread: everything queued so far is dropped instead of written, later offers are not affected
+    public void discard() {
+        discardBefore = tail.get();
+    }
+
+    // consumer only: length of the oldest ready command, 0 when there is none or it is discarded
+    public int peekLength() {
+        long start = head;
+        int index = (int) (start & mask);
+        return sequences.get(index) == start + 1 && start >= discardBefore ? lengths[index] : 0;
+    }
+
+    public int drainTo(byte[] out) {
+        return drainTo(out, 0, out.length, null);
+    }
+
+    // consumer only: appends the ready commands to out from offset on, up to max bytes, dropping keyed
+    // commands superseded later in the batch. the time each command waited is recorded in latency
+    public int drainTo(byte[] out, int offset, int max, LatencyHistogram latency) {
+        int limit = Math.min(max, out.length - offset);
+        long discardBefore = this.discardBefore;
+        Listener listener = this.listener;
+        long now = latency != null ? System.nanoTime() : 0;
+        long start = head;
+        int ready = 0;
+        while (ready <= mask && sequences.get((int) ((start + ready) & mask)) == start + ready + 1) {
+            ready++;
+        }
+        int written = 0;
+        int consumed = 0;
+        for (; consumed < ready; consumed++) {
+            int index = (int) ((start + consumed) & mask);
+            if (start + consumed < discardBefore) {
+                discarded++;
+            } else if (!isSuperseded(start, consumed, ready)) {
+                int length = lengths[index];
+                if (written + length > limit) {
+                    break;
+                }
+                System.arraycopy(data[index], 0, out, offset + written, length);
+                if (listener != null) {
+                    listener.written(out, offset + written, length);
+                }
+                written += length;
+                if (latency != null) {
+                    latency.recordNanos(now - offeredAt[index]);
+                }
+            } else {
+                coalesced++;
+            }
+            sequences.set(index, start + consumed + mask + 1);
+        }
+        head = start + consumed;
+        return written;
+    }
+
+    private boolean isSuperseded(long start, int position, int ready) {
+        int key = keys[(int) ((start + position) & mask)];
+        if (key == NO_KEY) {
+            return false;
+        }
+        for (int i = position + 1; i < ready; i++) {
+            if (keys[(int) ((start + i) & mask)] == key) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public long getCoalesced() {
+        return coalesced;
+    }
+
+    public long getDiscarded() {
+        return discarded;
+    }
+}
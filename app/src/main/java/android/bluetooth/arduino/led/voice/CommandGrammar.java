@@ -0,0 +1,314 @@
+package android.bluetooth.arduino.led.voice;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// the phrases the app understands, compiled into a word table and a trie over word ids. a hypothesis is
+// matched word by word without allocating: words the grammar does not know ("please", "the", "light")
+// are skipped, at every position the longest phrase wins and the last command of the utterance counts
+public final class CommandGrammar {
+    // a number in a phrase, "brightness #": the spoken number is a percentage of the phrase value
+    private static final String NUMBER_SLOT = "#";
+    private static final int NUMBER = 0;
+    private static final int UNKNOWN = -1;
+    private static final int MAX_WORDS = 64;
+    private final ArrayList<String> phrases = new ArrayList<>();
+    private int[] phraseActions = new int[16];
+    private int[] phraseValues = new int[16];
+    private final ArrayList<String> devices = new ArrayList<>();
+
+    // compiled, word id 0 is the number slot
+    private String[] words;
+    private int[] wordTable;
+    private int[] nodeFirst;
+    private int[] nodeAction;
+    private int[] nodeValue;
+    private int[] nodeDevice;
+    private boolean[] nodeNumber;
+    private int[] edgeWord;
+    private int[] edgeTarget;
+    private int[] edgeNext;
+    // "50%" is read as "50 percent"
+    private int percent;
+    private boolean compiled;
+
+    // scratch of one match
+    private final int[] tokenWords = new int[MAX_WORDS];
+    private final int[] tokenNumbers = new int[MAX_WORDS];
+    private final VoiceCommand candidate = new VoiceCommand();
+
+    // on/off, brightness levels, colors and effect names
+    public static CommandGrammar standard() {
+        CommandGrammar grammar = new CommandGrammar();
+        grammar.add("on", VoiceCommand.ON, 0);
+        grammar.add("off", VoiceCommand.OFF, 0);
+        grammar.add("lights out", VoiceCommand.OFF, 0);
+        grammar.add("stop", VoiceCommand.STOP, 0);
+        grammar.add("dim", VoiceCommand.BRIGHTNESS, 40);
+        grammar.add("dimmer", VoiceCommand.BRIGHTNESS, 80);
+        grammar.add("half", VoiceCommand.BRIGHTNESS, 128);
+        grammar.add("bright", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("brighter", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("full", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("brightness #", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("brightness to #", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("# percent", VoiceCommand.BRIGHTNESS, 255);
+        grammar.add("red", VoiceCommand.COLOR, 0xFF0000);
+        grammar.add("green", VoiceCommand.COLOR, 0x00FF00);
+        grammar.add("blue", VoiceCommand.COLOR, 0x0000FF);
+        grammar.add("light blue", VoiceCommand.COLOR, 0x60A0FF);
+        grammar.add("white", VoiceCommand.COLOR, 0xFFFFFF);
+        grammar.add("warm white", VoiceCommand.COLOR, 0xFFB060);
+        grammar.add("yellow", VoiceCommand.COLOR, 0xFFFF00);
+        grammar.add("orange", VoiceCommand.COLOR, 0xFF6000);
+        grammar.add("purple", VoiceCommand.COLOR, 0x8000FF);
+        grammar.add("pink", VoiceCommand.COLOR, 0xFF4080);
+        grammar.add("cyan", VoiceCommand.COLOR, 0x00FFFF);
+        grammar.add("fade", VoiceCommand.EFFECT, VoiceCommand.EFFECT_FADE);
+        grammar.add("pulse", VoiceCommand.EFFECT, VoiceCommand.EFFECT_PULSE);
+        grammar.add("strobe", VoiceCommand.EFFECT, VoiceCommand.EFFECT_STROBE);
+        grammar.add("chase", VoiceCommand.EFFECT, VoiceCommand.EFFECT_CHASE);
+        return grammar;
+    }
+
+    public synchronized void add(String phrase, int action, int value) {
+        int index = phrases.size();
+        if (index == phraseActions.length) {
+            phraseActions = Arrays.copyOf(phraseActions, index * 2);
+            phraseValues = Arrays.copyOf(phraseValues, index * 2);
+        }
+        phrases.add(phrase.toLowerCase());
+        phraseActions[index] = action;
+        phraseValues[index] = value;
+        compiled = false;
+    }
+
+    // a device the user can name in front of a command, "kitchen off". returns its index for VoiceCommand.getDevice
+    public synchronized int addDevice(String name) {
+        String lower = name.toLowerCase();
+        int index = devices.indexOf(lower);
+        if (index < 0) {
+            devices.add(lower);
+            index = devices.size() - 1;
+            compiled = false;
+        }
+        return index;
+    }
+
+    public synchronized String getDevice(int index) {
+        return devices.get(index);
+    }
+
+    public synchronized void compile() {
+        int total = phrases.size() + devices.size();
+        String[][] split = new String[total][];
+        int wordCount = 1;
+        for (int i = 0; i < total; i++) {
+            String phrase = i < phrases.size() ? phrases.get(i) : devices.get(i - phrases.size());
+            split[i] = phrase.trim().split("[^a-z0-9#']+");
+            wordCount += split[i].length;
+        }
+        wordTable = new int[Integer.highestOneBit(wordCount * 2) << 1];
+        nodeFirst = new int[wordCount + 1];
+        nodeAction = new int[wordCount + 1];
+        nodeValue = new int[wordCount + 1];
+        nodeDevice = new int[wordCount + 1];
+        nodeNumber = new boolean[wordCount + 1];
+        edgeWord = new int[wordCount];
+        edgeTarget = new int[wordCount];
+        edgeNext = new int[wordCount];
+        Arrays.fill(nodeFirst, -1);
+        Arrays.fill(nodeDevice, VoiceCommand.ANY_DEVICE);
+        words = new String[wordCount];
+        words[NUMBER] = NUMBER_SLOT;
+        int nodes = 1;
+        int edges = 0;
+        int distinct = 1;
+        for (int i = 0; i < total; i++) {
+            int node = 0;
+            boolean number = false;
+            for (String word : split[i]) {
+                int id = NUMBER;
+                if (!word.equals(NUMBER_SLOT)) {
+                    id = lookup(word, 0, word.length());
+                    if (id == UNKNOWN) {
+                        id = distinct++;
+                        words[id] = word;
+                        insert(word, id);
+                    }
+                } else {
+                    number = true;
+                }
+                int child = child(node, id);
+                if (child < 0) {
+                    child = nodes++;
+                    edgeWord[edges] = id;
+                    edgeTarget[edges] = child;
+                    edgeNext[edges] = nodeFirst[node];
+                    nodeFirst[node] = edges++;
+                }
+                node = child;
+            }
+            if (i < phrases.size()) {
+                nodeAction[node] = phraseActions[i];
+                nodeValue[node] = phraseValues[i];
+                nodeNumber[node] = number;
+            } else {
+                nodeDevice[node] = i - phrases.size();
+            }
+        }
+        percent = lookup("percent", 0, 7);
+        compiled = true;
+    }
+
+    private static int hash(CharSequence text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = hash * 31 + Character.toLowerCase(text.charAt(i));
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    private void insert(String word, int id) {
+        int mask = wordTable.length - 1;
+        int slot = hash(word, 0, word.length()) & mask;
+        while (wordTable[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        wordTable[slot] = id + 1;
+    }
+
+    private int lookup(CharSequence text, int from, int to) {
+        int mask = wordTable.length - 1;
+        int slot = hash(text, from, to) & mask;
+        while (wordTable[slot] != 0) {
+            int id = wordTable[slot] - 1;
+            if (equal(words[id], text, from, to)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return UNKNOWN;
+    }
+
+    private static boolean equal(String word, CharSequence text, int from, int to) {
+        if (word.length() != to - from) {
+            return false;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (word.charAt(i) != Character.toLowerCase(text.charAt(from + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int child(int node, int word) {
+        for (int edge = nodeFirst[node]; edge >= 0; edge = edgeNext[edge]) {
+            if (edgeWord[edge] == word) {
+                return edgeTarget[edge];
+            }
+        }
+        return -1;
+    }
+
+    // the first of the N-best hypotheses that holds a command, settled only when no other hypothesis
+    // holds a different one
+    public synchronized boolean match(List<? extends CharSequence> hypotheses, VoiceCommand out) {
+        out.clear();
+        for (int i = 0; i < hypotheses.size(); i++) {
+            if (!match(hypotheses.get(i), candidate)) {
+                continue;
+            }
+            candidate.hypothesis = i;
+            if (out.action == VoiceCommand.NONE) {
+                out.set(candidate);
+            } else if (!out.sameAs(candidate)) {
+                out.settled = false;
+                break;
+            }
+        }
+        return out.action != VoiceCommand.NONE;
+    }
+
+    public synchronized boolean match(CharSequence text, VoiceCommand out) {
+        if (!compiled) {
+            compile();
+        }
+        out.clear();
+        int tokens = tokenize(text);
+        int position = 0;
+        while (position < tokens) {
+            int node = 0;
+            int end = -1;
+            int matched = 0;
+            int number = -1;
+            int spoken = -1;
+            for (int j = position; j < tokens; j++) {
+                node = child(node, tokenWords[j]);
+                if (node < 0) {
+                    break;
+                }
+                if (tokenWords[j] == NUMBER) {
+                    spoken = tokenNumbers[j];
+                }
+                if (nodeAction[node] != VoiceCommand.NONE || nodeDevice[node] != VoiceCommand.ANY_DEVICE) {
+                    end = j + 1;
+                    matched = node;
+                    number = spoken;
+                }
+            }
+            if (end < 0) {
+                position++;
+                continue;
+            }
+            if (nodeDevice[matched] != VoiceCommand.ANY_DEVICE) {
+                out.device = nodeDevice[matched];
+            } else {
+                out.action = nodeAction[matched];
+                out.value = nodeNumber[matched] ? (int) Math.min(nodeValue[matched], (long) number * nodeValue[matched] / 100) : nodeValue[matched];
+                // a longer phrase or more digits may still follow unless a word already did
+                out.settled = end < tokens || (nodeFirst[matched] < 0 && tokenWords[end - 1] != NUMBER);
+            }
+            position = end;
+        }
+        return out.action != VoiceCommand.NONE;
+    }
+
+    // words into word ids, numbers into NUMBER with their value, unknown words into UNKNOWN
+    private int tokenize(CharSequence text) {
+        int tokens = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length && tokens < MAX_WORDS) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '\'') {
+                i++;
+                continue;
+            }
+            int start = i;
+            boolean digits = true;
+            long value = 0;
+            while (i < length && (Character.isLetterOrDigit(text.charAt(i)) || text.charAt(i) == '\'')) {
+                char d = text.charAt(i);
+                if (d >= '0' && d <= '9') {
+                    value = Math.min(value * 10 + d - '0', Integer.MAX_VALUE);
+                } else {
+                    digits = false;
+                }
+                i++;
+            }
+            if (digits) {
+                tokenWords[tokens] = NUMBER;
+                tokenNumbers[tokens++] = (int) value;
+                if (i < length && text.charAt(i) == '%' && tokens < MAX_WORDS) {
+                    tokenWords[tokens++] = percent;
+                }
+            } else {
+                tokenWords[tokens++] = lookup(text, start, i);
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,76 @@
+package android.bluetooth.arduino.led.voice;
+
+// what a hypothesis asked for, filled in by CommandGrammar and reused for every match
+public final class VoiceCommand {
+    public static final int NONE = 0;
+    public static final int ON = 1;
+    public static final int OFF = 2;
+    // value: 0 - 255
+    public static final int BRIGHTNESS = 3;
+    // value: 0xRRGGBB
+    public static final int COLOR = 4;
+    // value: one of the EFFECT_ ids
+    public static final int EFFECT = 5;
+    public static final int STOP = 6;
+
+    public static final int EFFECT_FADE = 0;
+    public static final int EFFECT_PULSE = 1;
+    public static final int EFFECT_STROBE = 2;
+    public static final int EFFECT_CHASE = 3;
+
+    public static final int ANY_DEVICE = -1;
+
+    int action;
+    int value;
+    int device;
+    // no later word of the utterance can change the command, a partial result may be acted on
+    boolean settled;
+    // which of the N-best hypotheses it came from
+    int hypothesis;
+
+    void clear() {
+        action = NONE;
+        value = 0;
+        device = ANY_DEVICE;
+        settled = false;
+        hypothesis = -1;
+    }
+
+    void set(VoiceCommand other) {
+        action = other.action;
+        value = other.value;
+        device = other.device;
+        settled = other.settled;
+        hypothesis = other.hypothesis;
+    }
+
+    public int getAction() {
+        return action;
+    }
+
+    public int getValue() {
+        return value;
+    }
+
+    // index CommandGrammar.addDevice returned, ANY_DEVICE when no device was named
+    public int getDevice() {
+        return device;
+    }
+
+    public boolean isSettled() {
+        return settled;
+    }
+
+    public int getHypothesis() {
+        return hypothesis;
+    }
+
+    public boolean sameAs(VoiceCommand other) {
+        return action == other.action && value == other.value && device == other.device;
+    }
+
+    @Override
+    public String toString() {
+        return "action " + action + " value " + value + " device " + device + (settled ? " settled" : "");
+    }
+}
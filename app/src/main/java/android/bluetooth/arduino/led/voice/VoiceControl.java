@@ -0,0 +1,161 @@
+package android.bluetooth.arduino.led.voice;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.speech.RecognitionListener;
+import android.speech.RecognizerIntent;
+import android.speech.SpeechRecognizer;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+// continuous listening without the recognizer dialog. partial results are matched against the grammar
+// while the user still speaks and a settled command goes out right away, the final result only sends
+// when it asks for something else. the recognizer ends after every utterance and is started again.
+// everything runs on the main thread
+public class VoiceControl implements RecognitionListener {
+    private static final int MAX_RESULTS = 5;
+    private static final long RESTART_DELAY = 100;
+    private static final long MAX_RESTART_DELAY = 5000;
+
+    public interface Listener {
+        void voiceCommand(VoiceCommand command);
+
+        // listening ended for good, e.g. the permission is missing
+        void voiceStopped(int error);
+    }
+
+    private final Context context;
+    private final CommandGrammar grammar;
+    private final Listener listener;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Intent intent;
+    private final VoiceCommand command = new VoiceCommand();
+    private final VoiceCommand dispatched = new VoiceCommand();
+    private SpeechRecognizer recognizer;
+    private long restartDelay = RESTART_DELAY;
+    private final Runnable restart = this::startListening;
+
+    public VoiceControl(Context context, CommandGrammar grammar, Listener listener) {
+        this.context = context;
+        this.grammar = grammar;
+        this.listener = listener;
+        intent = new Intent(RecognizerIntent.ACTION_RECOGNIZE_SPEECH);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE_MODEL, RecognizerIntent.LANGUAGE_MODEL_FREE_FORM);
+        intent.putExtra(RecognizerIntent.EXTRA_LANGUAGE, Locale.ENGLISH);
+        intent.putExtra(RecognizerIntent.EXTRA_PARTIAL_RESULTS, true);
+        intent.putExtra(RecognizerIntent.EXTRA_MAX_RESULTS, MAX_RESULTS);
+        intent.putExtra(RecognizerIntent.EXTRA_CALLING_PACKAGE, context.getPackageName());
+    }
+
+    public static boolean isAvailable(Context context) {
+        return SpeechRecognizer.isRecognitionAvailable(context);
+    }
+
+    public boolean isListening() {
+        return recognizer != null;
+    }
+
+    public void start() {
+        if (recognizer == null) {
+            recognizer = SpeechRecognizer.createSpeechRecognizer(context);
+            recognizer.setRecognitionListener(this);
+            restartDelay = RESTART_DELAY;
+            startListening();
+        }
+    }
+
+    public void stop() {
+        handler.removeCallbacks(restart);
+        if (recognizer != null) {
+            recognizer.destroy();
+            recognizer = null;
+        }
+    }
+
+    private void startListening() {
+        if (recognizer != null) {
+            dispatched.clear();
+            recognizer.startListening(intent);
+        }
+    }
+
+    private void restart(long delay) {
+        handler.removeCallbacks(restart);
+        handler.postDelayed(restart, delay);
+    }
+
+    private void match(Bundle results, boolean partial) {
+        ArrayList<String> hypotheses = results == null ? null : results.getStringArrayList(SpeechRecognizer.RESULTS_RECOGNITION);
+        if (hypotheses == null || !grammar.match(hypotheses, command)) {
+            return;
+        }
+        // once per utterance: a partial only when nothing can change it anymore, the final one unless it was sent already
+        if (partial ? command.isSettled() && dispatched.getAction() == VoiceCommand.NONE : !command.sameAs(dispatched)) {
+            dispatched.set(command);
+            listener.voiceCommand(command);
+        }
+    }
+
+    @Override
+    public void onPartialResults(Bundle partialResults) {
+        match(partialResults, true);
+    }
+
+    @Override
+    public void onResults(Bundle results) {
+        match(results, false);
+        restartDelay = RESTART_DELAY;
+        restart(RESTART_DELAY);
+    }
+
+    @Override
+    public void onError(int error) {
+        if (recognizer == null) {
+            return;
+        }
+        switch (error) {
+            case SpeechRecognizer.ERROR_INSUFFICIENT_PERMISSIONS:
+                stop();
+                listener.voiceStopped(error);
+                break;
+            case SpeechRecognizer.ERROR_NO_MATCH:
+            case SpeechRecognizer.ERROR_SPEECH_TIMEOUT:
+                // silence, listen again right away
+                restart(RESTART_DELAY);
+                break;
+            default:
+                // busy, network or audio trouble, back off so a failing service is not hammered
+                restart(restartDelay);
+                restartDelay = Math.min(restartDelay * 2, MAX_RESTART_DELAY);
+                break;
+        }
+    }
+
+    @Override
+    public void onReadyForSpeech(Bundle params) {
+    }
+
+    @Override
+    public void onBeginningOfSpeech() {
+    }
+
+    @Override
+    public void onRmsChanged(float rmsdB) {
+    }
+
+    @Override
+    public void onBufferReceived(byte[] buffer) {
+    }
+
+    @Override
+    public void onEndOfSpeech() {
+    }
+
+    @Override
+    public void onEvent(int eventType, Bundle params) {
+    }
+}
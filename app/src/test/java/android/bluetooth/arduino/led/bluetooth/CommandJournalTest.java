@@ -0,0 +1,109 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.transport.WriteLanes;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CommandJournalTest {
+
+    private static String replay(CommandJournal journal) {
+        final StringBuilder sent = new StringBuilder();
+        journal.replay((lane, key, bytes, offset, length) -> {
+            sent.append(lane).append('/').append(key).append('=');
+            for (int i = 0; i < length; i++) {
+                sent.append(bytes[offset + i]);
+            }
+            sent.append(' ');
+            return true;
+        });
+        return sent.toString();
+    }
+
+    @Test
+    public void latestPerKeySurvivesARestartInIssueOrder() {
+        ByteBuffer file = ByteBuffer.allocate(4096);
+        CommandJournal journal = new CommandJournal(file);
+        journal.append(WriteLanes.CONTROL, 0, 1);
+        journal.append(WriteLanes.INTERACTIVE, 0x203, new byte[]{2, 3, 10}, 0, 3);
+        journal.append(WriteLanes.INTERACTIVE, WriteQueue.NO_KEY, new byte[]{7}, 0, 1);
+        journal.append(WriteLanes.INTERACTIVE, 0x203, new byte[]{2, 3, 20}, 0, 3);
+        journal.append(WriteLanes.CONTROL, 0, 0);
+        assertEquals(3, journal.size());
+        assertEquals(2, journal.getCollapsed());
+
+        // the app was killed, the mapping still holds the records
+        CommandJournal reopened = new CommandJournal(file);
+        assertEquals(3, reopened.size());
+        assertEquals("1/-1=7 1/515=2320 0/0=0 ", replay(reopened));
+        assertEquals(0, new CommandJournal(file).size());
+    }
+
+    @Test
+    public void recordCutShortByACrashIsDropped() {
+        ByteBuffer file = ByteBuffer.allocate(4096);
+        CommandJournal journal = new CommandJournal(file);
+        journal.append(WriteLanes.CONTROL, 0, 1);
+        journal.append(WriteLanes.INTERACTIVE, 5, new byte[]{1, 2, 3, 4}, 0, 4);
+        // the end pointer points into the middle of the second record
+        file.putInt(12, file.getInt(12) - 2);
+        assertEquals("0/0=1 ", replay(new CommandJournal(file)));
+    }
+
+    @Test
+    public void anotherDeviceDoesNotGetTheCommands() {
+        CommandJournal journal = new CommandJournal(ByteBuffer.allocate(4096));
+        assertNull(journal.getDevice());
+        journal.append(WriteLanes.CONTROL, 0, 1);
+        journal.setDevice("00:11:22:33:44:55");
+        assertEquals(1, journal.size());
+        journal.setDevice("66:77:88:99:AA:BB");
+        assertEquals(0, journal.size());
+        assertEquals("66:77:88:99:AA:BB", journal.getDevice());
+    }
+
+    @Test
+    public void fullJournalReclaimsSupersededSpaceThenRefuses() {
+        // room for 8 records of one byte in each half after the header
+        CommandJournal journal = new CommandJournal(ByteBuffer.allocate(49 + 2 * 8 * 8));
+        for (int i = 0; i < 100; i++) {
+            assertTrue(journal.append(WriteLanes.INTERACTIVE, i % 4, i));
+        }
+        assertEquals(4, journal.size());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(journal.append(WriteLanes.INTERACTIVE, WriteQueue.NO_KEY, i));
+        }
+        assertFalse(journal.append(WriteLanes.INTERACTIVE, WriteQueue.NO_KEY, 9));
+        assertTrue(journal.append(WriteLanes.INTERACTIVE, 1, 77));
+        assertEquals(1, journal.getRefused());
+        assertEquals("1/0=96 1/2=98 1/3=99 1/-1=0 1/-1=1 1/-1=2 1/-1=3 1/1=77 ", replay(journal));
+    }
+
+    @Test
+    public void crashWhileCompactingKeepsTheOldRecords() {
+        ByteBuffer file = ByteBuffer.allocate(49 + 2 * 8 * 8);
+        CommandJournal journal = new CommandJournal(file);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(journal.append(WriteLanes.INTERACTIVE, i % 2, i));
+        }
+        // the app died halfway through copying to the other half: whatever got there is not the journal yet
+        for (int i = 49 + 8 * 8; i < 49 + 8 * 8 + 20; i++) {
+            file.put(i, (byte) 0x55);
+        }
+        assertEquals("1/0=6 1/1=7 ", replay(new CommandJournal(file)));
+
+        // the copy that did complete is used, the old half is not read again
+        journal = new CommandJournal(file);
+        for (int i = 0; i < 9; i++) {
+            assertTrue(journal.append(WriteLanes.INTERACTIVE, i % 2, 10 + i));
+        }
+        assertEquals("1/1=17 1/0=18 ", replay(new CommandJournal(file)));
+    }
+}
@@ -0,0 +1,108 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.transport.ArduinoSimulator;
+import android.bluetooth.arduino.led.transport.BytePipe;
+import android.bluetooth.arduino.led.transport.LoopbackTransport;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionPoolTest {
+    private static final int BOARDS = 4;
+    private static final int MUTE = 3;
+
+    // a board that takes sequenced commands off the line but never acks them
+    private static class MuteTransport extends LoopbackTransport {
+        MuteTransport() {
+            super(115200, 5, 0);
+        }
+
+        @Override
+        protected ArduinoSimulator createSimulator(BytePipe in, BytePipe out, int baudRate) {
+            return new ArduinoSimulator(in, out, baudRate) {
+                @Override
+                protected synchronized void frameReceived(int opcode, byte[] payload, int offset, int length) {
+                    if (opcode != Frame.OP_SEQ) {
+                        super.frameReceived(opcode, payload, offset, length);
+                    }
+                }
+            };
+        }
+    }
+
+    @Test
+    public void eachBoardReportsItsOwnDelivery() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, new ConnectionPool.Listener() {
+            @Override
+            public void stateChanged(String id, int state) {
+            }
+
+            @Override
+            public void deviceConnected(String id, String name) {
+            }
+
+            @Override
+            public void dataReceived(String id, ReceiveBuffer buffer) {
+                buffer.release();
+            }
+        });
+        LoopbackTransport[] transports = new LoopbackTransport[BOARDS];
+        for (int i = 0; i < BOARDS; i++) {
+            transports[i] = i == MUTE ? new MuteTransport() : new LoopbackTransport(115200, 5, 0);
+            pool.connect("board" + i, transports[i]);
+        }
+        try {
+            for (int i = 0; i < BOARDS; i++) {
+                awaitConnected(pool.get("board" + i));
+            }
+
+            // one encoded frame, queued on every link
+            ByteBuffer on = new FrameEncoder().encode(Frame.OP_LED, 0, 1);
+            GroupDelivery broadcast = pool.broadcast(WriteQueue.NO_KEY, on.array(), 0, on.limit());
+            assertEquals(BOARDS, broadcast.count(GroupDelivery.QUEUED));
+            Thread.sleep(200);
+            for (LoopbackTransport transport : transports) {
+                assertEquals(1, transport.getSimulator().getLedState());
+            }
+
+            GroupDelivery multicast = pool.multicast(Arrays.asList("board0", "unknown"), WriteQueue.NO_KEY, on.array(), 0, on.limit());
+            assertEquals(GroupDelivery.QUEUED, multicast.getStatus(0));
+            assertEquals(GroupDelivery.NOT_CONNECTED, multicast.getStatus(1));
+
+            // the mute board fails once its retries are used up, the group is still complete
+            GroupDelivery reliable = pool.broadcastReliable(Frame.OP_LED, new byte[]{0, 0}, 0, 2);
+            assertTrue(reliable.await(5, TimeUnit.SECONDS));
+            assertEquals(BOARDS - 1, reliable.count(GroupDelivery.ACKED));
+            assertEquals(GroupDelivery.FAILED, reliable.getStatus(MUTE));
+            for (int i = 0; i < BOARDS; i++) {
+                assertEquals(i == MUTE ? 1 : 0, transports[i].getSimulator().getLedState());
+            }
+
+            pool.disconnect("board0");
+            GroupDelivery after = pool.multicastReliable(Arrays.asList("board0", "board1"), Frame.OP_LED, new byte[]{0, 1}, 0, 2);
+            assertEquals(GroupDelivery.NOT_CONNECTED, after.getStatus(0));
+            assertTrue(after.await(2, TimeUnit.SECONDS));
+            assertEquals(GroupDelivery.ACKED, after.getStatus(1));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void awaitConnected(BluetoothConnection connection) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (connection.getState() != BluetoothConnection.STATE_CONNECTED && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(BluetoothConnection.STATE_CONNECTED, connection.getState());
+    }
+}
@@ -0,0 +1,51 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionStateTest {
+
+    @Test
+    public void staleAttemptCannotMoveANewerOne() {
+        ConnectionState state = new ConnectionState();
+        int first = state.begin(0);
+        int second = state.begin(10);
+
+        // the first connect thread finishes late, after the user already started over
+        assertFalse(state.transition(first, BluetoothConnection.STATE_CONNECTING, BluetoothConnection.STATE_CONNECTED, 20));
+        assertFalse(state.transition(first, BluetoothConnection.STATE_CONNECTING, BluetoothConnection.STATE_CONNECTION_FAILED, 20));
+        assertEquals(BluetoothConnection.STATE_CONNECTING, state.get());
+        assertTrue(state.transition(second, BluetoothConnection.STATE_CONNECTING, BluetoothConnection.STATE_CONNECTED, 30));
+        assertEquals(BluetoothConnection.STATE_CONNECTED, state.get());
+        assertEquals(2, state.getRefused());
+    }
+
+    @Test
+    public void transitionsOutsideTheTableAreRefused() {
+        ConnectionState state = new ConnectionState();
+        assertFalse(state.moveTo(BluetoothConnection.STATE_CONNECTED, 0));
+        assertFalse(state.transition(0, BluetoothConnection.STATE_NONE, BluetoothConnection.STATE_CONNECTION_FAILED, 0));
+        assertTrue(state.moveTo(BluetoothConnection.STATE_LISTEN, 0));
+        // already there, nothing to report
+        assertFalse(state.moveTo(BluetoothConnection.STATE_LISTEN, 5));
+        assertEquals(BluetoothConnection.STATE_LISTEN, state.get());
+        assertEquals(1, state.getTransitions());
+    }
+
+    @Test
+    public void timeAddsUpPerState() {
+        ConnectionState state = new ConnectionState();
+        int attempt = state.begin(1000);
+        state.transition(attempt, BluetoothConnection.STATE_CONNECTING, BluetoothConnection.STATE_CONNECTED, 4000);
+        state.transition(attempt, BluetoothConnection.STATE_CONNECTED, BluetoothConnection.STATE_NONE, 10000);
+        state.begin(12000);
+
+        assertEquals(3000 + 500, state.getNanosIn(BluetoothConnection.STATE_CONNECTING, 12500));
+        assertEquals(6000, state.getNanosIn(BluetoothConnection.STATE_CONNECTED, 12500));
+        assertEquals(4, state.getTransitions());
+        assertTrue(state.describe(2, 12500).startsWith("0 ms #1 CONNECTED -> NONE\n0 ms #2 NONE -> CONNECTING\n"));
+    }
+}
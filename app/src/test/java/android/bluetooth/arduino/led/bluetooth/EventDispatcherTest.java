@@ -0,0 +1,92 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventDispatcherTest {
+
+    // runs what it was given only when the test says so, like a main thread busy drawing
+    private static class ManualExecutor implements Executor {
+        final ArrayList<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            ArrayList<Runnable> now = new ArrayList<>(tasks);
+            tasks.clear();
+            for (Runnable task : now) {
+                task.run();
+            }
+        }
+    }
+
+    private static class Recorder implements EventDispatcher.Listener {
+        final StringBuilder seen = new StringBuilder();
+
+        @Override
+        public void onEvent(ConnectionEvent event) {
+            switch (event.getType()) {
+                case ConnectionEvent.STATE_CHANGED:
+                    seen.append("state").append(event.getState()).append(' ');
+                    break;
+                case ConnectionEvent.DEVICE_CONNECTED:
+                    seen.append(event.getName()).append(' ');
+                    break;
+                case ConnectionEvent.DATA:
+                    seen.append(new String(event.getData(), event.getOffset(), event.getLength())).append('/').append(event.getReads()).append(' ');
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void batchingListenerGetsReadsMergedAndInOrder() {
+        EventDispatcher dispatcher = new EventDispatcher(8, 16);
+        ManualExecutor main = new ManualExecutor();
+        Recorder batched = new Recorder();
+        Recorder direct = new Recorder();
+        dispatcher.register(batched, main, true);
+        dispatcher.register(direct, EventDispatcher.DIRECT, false);
+
+        dispatcher.deviceConnected("hc05", "00:11");
+        dispatcher.stateChanged(BluetoothConnection.STATE_CONNECTED);
+        dispatcher.dataReceived("ab".getBytes(), 0, 2);
+        dispatcher.dataReceived("cd".getBytes(), 0, 2);
+        assertEquals("hc05 state3 ab/1 cd/1 ", direct.seen.toString());
+        assertEquals("", batched.seen.toString());
+        assertEquals(1, main.tasks.size());
+
+        main.runAll();
+        assertEquals("hc05 state3 abcd/2 ", batched.seen.toString());
+        dispatcher.dataReceived("ef".getBytes(), 0, 2);
+        main.runAll();
+        assertEquals("hc05 state3 abcd/2 ef/1 ", batched.seen.toString());
+    }
+
+    @Test
+    public void laggingListenerDropsReadsButNotStateChanges() {
+        EventDispatcher dispatcher = new EventDispatcher(4, 4);
+        ManualExecutor stuck = new ManualExecutor();
+        Recorder recorder = new Recorder();
+        dispatcher.register(recorder, stuck, false);
+        for (int i = 0; i < 10; i++) {
+            dispatcher.dataReceived("x".getBytes(), 0, 1);
+        }
+        dispatcher.stateChanged(BluetoothConnection.STATE_NONE);
+
+        assertEquals(6, dispatcher.getDropped());
+        stuck.runAll();
+        assertEquals("x/1 x/1 x/1 x/1 state0 ", recorder.seen.toString());
+
+        dispatcher.unregister(recorder);
+        dispatcher.dataReceived("y".getBytes(), 0, 1);
+        assertEquals(0, stuck.tasks.size());
+    }
+}
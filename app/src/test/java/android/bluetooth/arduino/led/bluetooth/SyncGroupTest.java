@@ -0,0 +1,92 @@
+package android.bluetooth.arduino.led.bluetooth;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.transport.ArduinoSimulator;
+import android.bluetooth.arduino.led.transport.LoopbackTransport;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncGroupTest {
+    private static final int BOARDS = 6;
+    // what the boards may be apart, a frame at 115200 baud alone takes about a millisecond
+    private static final long MAX_SKEW_MICROS = 5000;
+
+    @Test
+    public void boardsWithDifferentLatencyAndDriftRunTogether() throws Exception {
+        ConnectionPool pool = new ConnectionPool(2, new ConnectionPool.Listener() {
+            @Override
+            public void stateChanged(String id, int state) {
+            }
+
+            @Override
+            public void deviceConnected(String id, String name) {
+            }
+
+            @Override
+            public void dataReceived(String id, ReceiveBuffer buffer) {
+                buffer.release();
+            }
+        });
+        LoopbackTransport[] transports = new LoopbackTransport[BOARDS];
+        for (int i = 0; i < BOARDS; i++) {
+            // 5 to 25 ms one way, clocks started anywhere and up to 1000 ppm off
+            transports[i] = new LoopbackTransport(115200, 5 + 4 * i, 0);
+            pool.connect("board" + i, transports[i]);
+        }
+        for (int i = 0; i < BOARDS; i++) {
+            awaitConnected(pool.get("board" + i));
+            transports[i].getSimulator().setClock(i * 123456789L, i % 2 == 0 ? 1000 : -1000 + 300 * i);
+        }
+        try {
+            SyncGroup group = new SyncGroup(pool);
+            group.calibrate(8, 60);
+            for (int i = 0; i < BOARDS; i++) {
+                assertTrue(pool.get("board" + i).getClock().isSynced());
+            }
+
+            // the first command pays for class loading and the simulators starting their timers
+            assertEquals(BOARDS, run(group, 0).count(SkewReport.EXECUTED));
+
+            for (int round = 1; round <= 5; round++) {
+                SkewReport report = run(group, round);
+                assertEquals(BOARDS, report.count(SkewReport.EXECUTED));
+                group.record(report);
+
+                // the simulators' host time of execution is the ground truth, the report only sees it through the models
+                long first = Long.MAX_VALUE;
+                long last = Long.MIN_VALUE;
+                for (LoopbackTransport transport : transports) {
+                    ArduinoSimulator simulator = transport.getSimulator();
+                    first = Math.min(first, simulator.getLastExecutedNanos());
+                    last = Math.max(last, simulator.getLastExecutedNanos());
+                    assertEquals(round & 1, simulator.getLedState());
+                }
+                long skewMicros = (last - first) / 1000;
+                assertTrue("skew " + skewMicros + " us", skewMicros < MAX_SKEW_MICROS);
+                assertTrue(report.toString(), report.getSkewMicros() < MAX_SKEW_MICROS);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static SkewReport run(SyncGroup group, int round) throws InterruptedException {
+        SkewReport report = group.schedule(Frame.OP_LED, new byte[]{0, (byte) (round & 1)}, 0, 2);
+        assertTrue(report.await(2, TimeUnit.SECONDS));
+        return report;
+    }
+
+    private static void awaitConnected(BluetoothConnection connection) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (connection.getState() != BluetoothConnection.STATE_CONNECTED && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(BluetoothConnection.STATE_CONNECTED, connection.getState());
+    }
+}
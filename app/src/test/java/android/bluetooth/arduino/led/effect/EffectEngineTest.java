@@ -0,0 +1,60 @@
+package android.bluetooth.arduino.led.effect;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EffectEngineTest {
+
+    @Test
+    public void stopWaitsForTheFrameInFlight() throws Exception {
+        final CountDownLatch sending = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger sent = new AtomicInteger();
+        final EffectEngine engine = new EffectEngine(new EffectEngine.Sink() {
+            @Override
+            public int getBacklog() {
+                return 0;
+            }
+
+            @Override
+            public boolean send(byte[] channels, int count) {
+                sending.countDown();
+                try {
+                    // a link that is slow to take the frame
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                sent.incrementAndGet();
+                return true;
+            }
+        }, 1, 100, 1);
+        // a new value every frame, so no frame is skipped as unchanged
+        engine.play((elapsedNanos, channels, count) -> {
+            channels[0] = (byte) elapsedNanos;
+            return true;
+        });
+        assertTrue(sending.await(5, TimeUnit.SECONDS));
+
+        Thread stopper = new Thread(engine::stop);
+        stopper.start();
+        stopper.join(100);
+        assertTrue(stopper.isAlive());
+        release.countDown();
+        stopper.join(5000);
+        assertFalse(stopper.isAlive());
+
+        // nothing reaches the link once stop() returned
+        int afterStop = sent.get();
+        Thread.sleep(50);
+        assertEquals(afterStop, sent.get());
+        engine.shutdown();
+    }
+}
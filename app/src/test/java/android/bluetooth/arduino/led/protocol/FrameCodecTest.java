@@ -0,0 +1,156 @@
+package android.bluetooth.arduino.led.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameCodecTest {
+
+    private static class Collector implements FrameDecoder.FrameListener {
+        final List<Integer> opcodes = new ArrayList<>();
+        final List<byte[]> payloads = new ArrayList<>();
+
+        @Override
+        public void frameReceived(int opcode, byte[] payload, int offset, int length) {
+            opcodes.add(opcode);
+            payloads.add(Arrays.copyOfRange(payload, offset, offset + length));
+        }
+    }
+
+    @Test
+    public void encodesHeaderPayloadAndCrc() {
+        ByteBuffer frame = new FrameEncoder().encode(Frame.OP_LED, 0, 1);
+        assertEquals(Frame.size(2), frame.remaining());
+        assertEquals((byte) Frame.START, frame.get(0));
+        assertEquals(Frame.OP_LED, frame.get(1));
+        assertEquals(2, frame.get(2));
+        assertEquals(Crc8.update(0, frame.array(), 1, 4), frame.get(5) & 0xFF);
+    }
+
+    @Test
+    public void decodesFramesSplitAtEveryBoundary() {
+        ByteBuffer stream = ByteBuffer.allocate(1024);
+        FrameEncoder.encode(stream, Frame.OP_PWM, new byte[]{3, (byte) 200}, 0, 2);
+        FrameEncoder.encode(stream, Frame.OP_LED, new byte[0], 0, 0);
+        FrameEncoder.encode(stream, Frame.OP_LED, new byte[]{0, 1}, 0, 2);
+        byte[] bytes = Arrays.copyOf(stream.array(), stream.position());
+
+        for (int split = 0; split <= bytes.length; split++) {
+            Collector collector = new Collector();
+            FrameDecoder decoder = new FrameDecoder(collector);
+            decoder.decode(bytes, 0, split);
+            decoder.decode(bytes, split, bytes.length - split);
+            assertEquals(Arrays.asList(Frame.OP_PWM, Frame.OP_LED, Frame.OP_LED), collector.opcodes);
+            assertArrayEquals(new byte[]{3, (byte) 200}, collector.payloads.get(0));
+            assertArrayEquals(new byte[0], collector.payloads.get(1));
+            assertArrayEquals(new byte[]{0, 1}, collector.payloads.get(2));
+        }
+    }
+
+    @Test
+    public void fuzzRandomChunksAndNoise() {
+        Random random = new Random(1733);
+        for (int round = 0; round < 200; round++) {
+            ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+            List<byte[]> expected = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                appendNoise(stream, random);
+                byte[] payload = new byte[random.nextInt(Frame.MAX_PAYLOAD + 1)];
+                random.nextBytes(payload);
+                FrameEncoder.encode(stream, Frame.OP_PWM, payload, 0, payload.length);
+                expected.add(payload);
+            }
+            assertDecodes(expected, stream, random);
+        }
+    }
+
+    @Test
+    public void fuzzCorruptedFramesAreDropped() {
+        Random random = new Random(1734);
+        for (int round = 0; round < 200; round++) {
+            ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+            List<byte[]> expected = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                appendNoise(stream, random);
+                byte[] payload = new byte[1 + random.nextInt(Frame.MAX_PAYLOAD)];
+                for (int n = 0; n < payload.length; n++) {
+                    payload[n] = randomNonStart(random);
+                }
+                int start = stream.position();
+                FrameEncoder.encode(stream, Frame.OP_PWM, payload, 0, payload.length);
+                boolean startFree = payload.length != Frame.START && stream.get(stream.position() - 1) != (byte) Frame.START;
+                if (startFree && random.nextInt(5) == 0) {
+                    // flip a payload or crc byte, the length stays intact so the resync finds the next frame
+                    int at = start + Frame.HEADER_SIZE + random.nextInt(payload.length + 1);
+                    byte corrupted;
+                    do {
+                        corrupted = randomNonStart(random);
+                    } while (corrupted == stream.get(at));
+                    stream.put(at, corrupted);
+                } else {
+                    expected.add(payload);
+                }
+            }
+            assertDecodes(expected, stream, random);
+        }
+    }
+
+    private static void appendNoise(ByteBuffer stream, Random random) {
+        if (random.nextInt(4) == 0) {
+            int noise = random.nextInt(8);
+            for (int n = 0; n < noise; n++) {
+                stream.put(randomNonStart(random));
+            }
+        }
+    }
+
+    private static byte randomNonStart(Random random) {
+        int value = random.nextInt(255);
+        return (byte) (value >= Frame.START ? value + 1 : value);
+    }
+
+    private static void assertDecodes(List<byte[]> expected, ByteBuffer stream, Random random) {
+        Collector collector = new Collector();
+        FrameDecoder decoder = new FrameDecoder(collector);
+        int offset = 0;
+        while (offset < stream.position()) {
+            int chunk = Math.min(stream.position() - offset, 1 + random.nextInt(300));
+            decoder.decode(stream.array(), offset, chunk);
+            offset += chunk;
+        }
+        assertEquals(expected.size(), collector.payloads.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), collector.payloads.get(i));
+        }
+    }
+
+    // throughput is measured by FrameEncoderBenchmark and FrameDecoderBenchmark
+    @Test
+    public void longStreamDecodesWithoutErrors() {
+        final int frames = 1000000;
+        FrameEncoder encoder = new FrameEncoder();
+        ByteBuffer stream = ByteBuffer.allocate(64 * 1024);
+        final long[] decoded = new long[1];
+        FrameDecoder decoder = new FrameDecoder((opcode, payload, offset, length) -> decoded[0]++);
+
+        for (int i = 0; i < frames; i++) {
+            ByteBuffer frame = encoder.encode(Frame.OP_PWM, i & 7, i);
+            if (stream.remaining() < frame.remaining()) {
+                decoder.decode(stream.array(), 0, stream.position());
+                stream.clear();
+            }
+            stream.put(frame);
+        }
+        decoder.decode(stream.array(), 0, stream.position());
+
+        assertEquals(frames, decoded[0]);
+        assertEquals(0, decoder.getErrors());
+    }
+}
@@ -0,0 +1,190 @@
+package android.bluetooth.arduino.led.protocol;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+import android.bluetooth.arduino.led.transport.ArduinoSimulator;
+import android.bluetooth.arduino.led.transport.BytePipe;
+import android.bluetooth.arduino.led.transport.LoopbackTransport;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReliableSenderTest {
+    private static final byte[] ON = {0, 1};
+
+    // remembers the sequence number of every frame written, nothing reaches a device
+    private static class Recorder implements ReliableSender.Sink {
+        final List<Integer> sequences = new ArrayList<>();
+
+        @Override
+        public synchronized boolean write(byte[] bytes, int offset, int length) {
+            sequences.add(bytes[offset + Frame.HEADER_SIZE] & 0xFF);
+            return true;
+        }
+    }
+
+    // a board whose acks get lost, duplicated and overtaken by later ones
+    private static class LossyTransport extends LoopbackTransport {
+        LossyTransport() {
+            super(0, 2, 0);
+        }
+
+        @Override
+        protected ArduinoSimulator createSimulator(BytePipe in, BytePipe out, int baudRate) {
+            return new ArduinoSimulator(in, out, baudRate) {
+                private int acks;
+                private byte[] held;
+
+                @Override
+                protected void send(byte[] bytes, int offset, int length) throws IOException {
+                    if ((bytes[offset + 1] & 0xFF) != Frame.OP_ACK) {
+                        super.send(bytes, offset, length);
+                        return;
+                    }
+                    acks++;
+                    if (acks % 7 == 0) {
+                        return;
+                    }
+                    if (acks % 11 == 0 && held == null) {
+                        // sent after the next one
+                        held = new byte[length];
+                        System.arraycopy(bytes, offset, held, 0, length);
+                        return;
+                    }
+                    super.send(bytes, offset, length);
+                    if (acks % 5 == 0) {
+                        super.send(bytes, offset, length);
+                    }
+                    if (held != null) {
+                        super.send(held, 0, held.length);
+                        held = null;
+                    }
+                }
+            };
+        }
+    }
+
+    @Test
+    public void commandNotAckedHoldsTheWindow() {
+        Recorder sink = new Recorder();
+        ReliableSender sender = new ReliableSender(sink, 4, 60000, 3, new LinkMetrics());
+        CommandFuture[] futures = new CommandFuture[10];
+        for (int i = 0; i < futures.length; i++) {
+            futures[i] = sender.send(Frame.OP_LED, ON, 0, ON.length);
+        }
+        assertEquals(4, sink.sequences.size());
+
+        // 1 to 3 are done but 0 is not, sending 4 now would run the window past it
+        sender.ack(1);
+        sender.ack(2);
+        sender.ack(3);
+        assertEquals(4, sink.sequences.size());
+        assertTrue(futures[3].isSuccess());
+        sender.ack(0);
+        assertEquals(8, sink.sequences.size());
+        assertEquals(7, (int) sink.sequences.get(7));
+        sender.close();
+    }
+
+    @Test
+    public void ackFromBeforeTheWrapIsIgnored() {
+        Recorder sink = new Recorder();
+        ReliableSender sender = new ReliableSender(sink, 4, 60000, 3, new LinkMetrics());
+        for (int i = 0; i < 260; i++) {
+            sender.send(Frame.OP_LED, ON, 0, ON.length);
+            sender.ack(i & 0xFF);
+        }
+        CommandFuture future = sender.send(Frame.OP_LED, ON, 0, ON.length);
+        assertEquals(260 & 0xFF, (int) sink.sequences.get(260));
+
+        // duplicates of acks long done, one of them for the number the new command now uses
+        sender.ack(3);
+        sender.ack(200);
+        sender.ack(4 - 128);
+        assertFalse(future.isDone());
+        assertEquals(1, sender.getInFlight());
+        sender.ack(4);
+        assertTrue(future.isSuccess());
+        assertEquals(0, sender.getInFlight());
+        sender.close();
+    }
+
+    @Test
+    public void queuedFrameIsNotRetransmittedBeforeItWasWritten() throws Exception {
+        Recorder sink = new Recorder();
+        ReliableSender sender = new ReliableSender(sink, true, 4, 20, 3, new LinkMetrics(), null);
+        CommandFuture future = sender.send(Frame.OP_LED, ON, 0, ON.length);
+        // the frame waits behind other lanes for much longer than the timeout
+        Thread.sleep(200);
+        assertEquals(1, sink.sequences.size());
+        assertFalse(future.isDone());
+
+        byte[] frame = {(byte) Frame.START, (byte) Frame.OP_SEQ, 3, 0, (byte) Frame.OP_LED, 0, 1, 0};
+        sender.written(frame, 0, frame.length);
+        // one retransmit, the next one waits until that copy was written as well
+        Thread.sleep(200);
+        assertEquals(2, sink.sequences.size());
+        assertFalse(future.isDone());
+        sender.ack(0);
+        assertTrue(future.isSuccess());
+        sender.close();
+    }
+
+    @Test
+    public void everyCommandCompletesOverALossyLink() throws Exception {
+        final LossyTransport transport = new LossyTransport();
+        transport.connect();
+        LinkMetrics metrics = new LinkMetrics();
+        final ReliableSender sender = new ReliableSender((bytes, offset, length) -> {
+            try {
+                transport.write(bytes, offset, length);
+                return true;
+            } catch (IOException e) {
+                return false;
+            }
+        }, 8, 30, 10, metrics);
+        final FrameDecoder decoder = new FrameDecoder((opcode, payload, offset, length) -> {
+            if (opcode == Frame.OP_ACK && length == 1) {
+                sender.ack(payload[offset]);
+            }
+        });
+        Thread reader = new Thread(() -> {
+            byte[] buffer = new byte[256];
+            try {
+                while (true) {
+                    decoder.decode(buffer, 0, transport.read(buffer, 0, buffer.length));
+                }
+            } catch (IOException e) {
+                // closed
+            }
+        });
+        reader.setDaemon(true);
+        reader.start();
+        try {
+            // more commands than sequence numbers, so the numbers wrap while acks are lost and late
+            CommandFuture[] futures = new CommandFuture[600];
+            for (int i = 0; i < futures.length; i++) {
+                // the sender queues up to 256 commands behind the window
+                if (i >= 200) {
+                    assertTrue(futures[i - 200].await(10, TimeUnit.SECONDS));
+                }
+                futures[i] = sender.send(Frame.OP_LED, ON, 0, ON.length);
+            }
+            for (CommandFuture future : futures) {
+                assertTrue(future.await(10, TimeUnit.SECONDS));
+            }
+            assertEquals(0, sender.getInFlight());
+            assertTrue(metrics.retransmits.get() > 0);
+        } finally {
+            sender.close();
+            transport.close();
+        }
+    }
+}
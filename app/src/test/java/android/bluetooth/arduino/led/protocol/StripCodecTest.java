@@ -0,0 +1,119 @@
+package android.bluetooth.arduino.led.protocol;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripCodecTest {
+    private static final int PIXELS = 150;
+
+    private static class Board implements FrameDecoder.FrameListener {
+        final StripDecoder strip = new StripDecoder(PIXELS);
+        final FrameDecoder decoder = new FrameDecoder(this);
+        int shown;
+
+        @Override
+        public void frameReceived(int opcode, byte[] payload, int offset, int length) {
+            if (opcode == Frame.OP_STRIP && strip.decode(payload, offset, length)) {
+                shown++;
+            }
+        }
+    }
+
+    private static int send(StripEncoder encoder, byte[] rgb, Board board, ByteBuffer out) {
+        out.clear();
+        encoder.encode(rgb, out);
+        board.decoder.decode(out.array(), 0, out.position());
+        return out.position();
+    }
+
+    @Test
+    public void randomFramesAndSparseChangesRoundTrip() {
+        Random random = new Random(1733);
+        StripEncoder encoder = new StripEncoder(PIXELS, 30);
+        Board board = new Board();
+        ByteBuffer out = ByteBuffer.allocate(StripEncoder.maxEncodedSize(PIXELS));
+        byte[] rgb = new byte[PIXELS * 3];
+        for (int frame = 0; frame < 500; frame++) {
+            if (frame % 50 == 0) {
+                random.nextBytes(rgb);
+            } else {
+                // a few changed pixels and a uniform span somewhere
+                for (int i = random.nextInt(8); i > 0; i--) {
+                    rgb[random.nextInt(rgb.length)] = (byte) random.nextInt();
+                }
+                int from = random.nextInt(PIXELS);
+                int to = Math.min(PIXELS, from + random.nextInt(100));
+                byte color = (byte) random.nextInt();
+                for (int p = from; p < to; p++) {
+                    rgb[p * 3] = color;
+                    rgb[p * 3 + 1] = color;
+                    rgb[p * 3 + 2] = 0;
+                }
+            }
+            send(encoder, rgb, board, out);
+            assertArrayEquals("frame " + frame, rgb, board.strip.getPixels());
+        }
+        assertTrue(encoder.getRatio() < 0.5);
+    }
+
+    @Test
+    public void unchangedFrameSendsNothing() {
+        StripEncoder encoder = new StripEncoder(PIXELS, 1000);
+        Board board = new Board();
+        ByteBuffer out = ByteBuffer.allocate(StripEncoder.maxEncodedSize(PIXELS));
+        byte[] rgb = new byte[PIXELS * 3];
+        send(encoder, rgb, board, out);
+        assertEquals(0, send(encoder, rgb, board, out));
+        assertEquals(1, board.shown);
+    }
+
+    @Test
+    public void worstCaseFitsTheBound() {
+        StripEncoder encoder = new StripEncoder(PIXELS, 1000);
+        Board board = new Board();
+        ByteBuffer out = ByteBuffer.allocate(StripEncoder.maxEncodedSize(PIXELS));
+        byte[] rgb = new byte[PIXELS * 3];
+        send(encoder, rgb, board, out);
+        // every other pixel changes, each to a different value
+        for (int p = 0; p < PIXELS; p += 2) {
+            rgb[p * 3] = (byte) (p + 1);
+        }
+        send(encoder, rgb, board, out);
+        assertArrayEquals(rgb, board.strip.getPixels());
+        for (int p = 0; p < PIXELS; p++) {
+            rgb[p * 3 + 1] = (byte) (p * 7 + 1);
+        }
+        send(encoder, rgb, board, out);
+        assertArrayEquals(rgb, board.strip.getPixels());
+    }
+
+    @Test
+    public void lostPacketIsRepairedByTheNextKeyframe() {
+        StripEncoder encoder = new StripEncoder(PIXELS, 10);
+        Board board = new Board();
+        ByteBuffer out = ByteBuffer.allocate(StripEncoder.maxEncodedSize(PIXELS));
+        byte[] rgb = new byte[PIXELS * 3];
+        Random random = new Random(7);
+        send(encoder, rgb, board, out);
+        random.nextBytes(rgb);
+        out.clear();
+        encoder.encode(rgb, out);
+        // the board never sees this frame
+        for (int frame = 0; frame < 5; frame++) {
+            rgb[random.nextInt(rgb.length)]++;
+            send(encoder, rgb, board, out);
+            assertFalse(board.strip.isSynced());
+        }
+        encoder.requestKeyframe();
+        send(encoder, rgb, board, out);
+        assertTrue(board.strip.isSynced());
+        assertArrayEquals(rgb, board.strip.getPixels());
+    }
+}
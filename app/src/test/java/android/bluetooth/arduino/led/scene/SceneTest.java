@@ -0,0 +1,101 @@
+package android.bluetooth.arduino.led.scene;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class SceneTest {
+
+    @Test
+    public void stepsDueTogetherOnOneDeviceShareABatch() {
+        Scene scene = new Scene("test")
+                .add("kitchen", 500, Frame.OP_PWM, 3, 10)
+                .add(Scene.ANY_DEVICE, 0, Frame.OP_PWM, 3, 255)
+                .add("kitchen", 0, Frame.OP_PWM, 5, 20)
+                .add(Scene.ANY_DEVICE, 0, Scene.RAW, (byte) 1)
+                .add("kitchen", 0, Frame.OP_PWM, 6, 30);
+        CompiledScene compiled = scene.compile();
+
+        assertEquals(3, compiled.getBatchCount());
+        assertNull(compiled.getDevice(0));
+        assertEquals(Frame.size(2) + 1, compiled.getLength(0));
+        assertEquals("kitchen", compiled.getDevice(1));
+        assertEquals(2 * Frame.size(2), compiled.getLength(1));
+        assertEquals(500, compiled.getDelayMillis(2));
+        assertEquals(500, compiled.getDurationMillis());
+
+        // the batches are plain frames the device decodes one by one
+        final StringBuilder decoded = new StringBuilder();
+        FrameDecoder decoder = new FrameDecoder((opcode, payload, offset, length) ->
+                decoded.append(opcode).append(':').append(payload[offset]).append(',').append(payload[offset + 1] & 0xFF).append(' '));
+        decoder.decode(compiled.getData(), compiled.getOffset(1), compiled.getLength(1));
+        assertEquals("2:5,20 2:6,30 ", decoded.toString());
+    }
+
+    @Test
+    public void largeGroupIsSplitAtFramesAndSurvivesStorage() throws Exception {
+        Scene scene = new Scene("strip");
+        for (int i = 0; i < 100; i++) {
+            scene.add(Scene.ANY_DEVICE, 0, Frame.OP_PWM, i, i);
+        }
+        CompiledScene compiled = scene.compile();
+        int frames = Scene.MAX_BATCH / Frame.size(2);
+        assertEquals((100 + frames - 1) / frames, compiled.getBatchCount());
+        assertEquals(frames * Frame.size(2), compiled.getLength(0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        compiled.writeTo(new DataOutputStream(bytes));
+        CompiledScene read = CompiledScene.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals("strip", read.getName());
+        assertEquals(compiled.getBatchCount(), read.getBatchCount());
+        assertArrayEquals(compiled.getData(), read.getData());
+    }
+
+    @Test
+    public void playerWritesDelayedBatchesInOrderAndStops() throws Exception {
+        final ArrayList<String> written = new ArrayList<>();
+        ScenePlayer player = new ScenePlayer((device, bytes, offset, length) -> {
+            synchronized (written) {
+                written.add(device + "@" + bytes[offset]);
+                written.notifyAll();
+            }
+            return true;
+        });
+        CompiledScene scene = new Scene("delays")
+                .add("b", 40, Scene.RAW, (byte) 2)
+                .add("a", 0, Scene.RAW, (byte) 1)
+                .add("a", 20, Scene.RAW, (byte) 0)
+                .compile();
+        player.play(scene);
+        // the batches due at the start went out before play returned
+        assertEquals(Arrays.asList("a@1"), written);
+        synchronized (written) {
+            long end = System.currentTimeMillis() + 2000;
+            while (written.size() < 3 && System.currentTimeMillis() < end) {
+                written.wait(100);
+            }
+        }
+        assertEquals(Arrays.asList("a@1", "a@0", "b@2"), written);
+        assertFalse(player.isPlaying());
+
+        player.play(scene);
+        player.stop();
+        Thread.sleep(80);
+        assertEquals(4, written.size());
+        assertEquals(4, player.getBatchesWritten());
+        player.shutdown();
+    }
+}
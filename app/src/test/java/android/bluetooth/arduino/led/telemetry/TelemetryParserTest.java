@@ -0,0 +1,86 @@
+package android.bluetooth.arduino.led.telemetry;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TelemetryParserTest {
+
+    private static void feed(FrameDecoder decoder, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.US_ASCII);
+        // one byte per read, the worst split a link can produce
+        for (int i = 0; i < bytes.length; i++) {
+            decoder.decode(bytes, i, 1);
+        }
+    }
+
+    @Test
+    public void linesBetweenFramesBecomeChannels() {
+        TelemetryStore store = new TelemetryStore(64);
+        final TelemetryParser parser = new TelemetryParser(store);
+        final int[] frames = new int[1];
+        FrameDecoder decoder = new FrameDecoder((opcode, payload, offset, length) -> frames[0]++);
+        decoder.setTextListener(parser);
+        feed(decoder, "temp:21.5,light=310\r\n");
+        ByteBuffer pong = new FrameEncoder().encode(Frame.OP_PONG, 7);
+        decoder.decode(pong.array(), 0, pong.limit());
+        feed(decoder, "temp:-1.25e1 light:0.5\n12 3.5\nnot a number\n");
+
+        assertEquals(1, frames[0]);
+        assertEquals(4, store.getChannelCount());
+        assertEquals("temp", store.get(0).getName());
+        assertEquals(-12.5f, store.get(0).getLatest(), 0);
+        assertEquals(0.5f, store.get(1).getLatest(), 0);
+        assertEquals("1", store.get(2).getName());
+        assertEquals(3.5f, store.get(3).getLatest(), 0);
+        assertEquals(3, parser.getLines());
+        assertEquals(1, parser.getRejected());
+    }
+
+    @Test
+    public void binaryBlockIsSpreadOverTheSampleInterval() {
+        TelemetryStore store = new TelemetryStore(64);
+        TelemetryParser parser = new TelemetryParser(store);
+        byte[] payload = {3, 0x03, (byte) 0xE8, 0, 1, 0, 2, (byte) 0xFF, (byte) 0xFF};
+        assertTrue(parser.frameReceived(payload, 0, payload.length, 10000000L));
+
+        TimeSeries series = store.get(0);
+        assertEquals("#3", series.getName());
+        assertEquals(3, series.getWritten());
+        assertEquals(-1f, series.getLatest(), 0);
+        float[] min = new float[3];
+        float[] max = new float[3];
+        // one bucket per millisecond, one sample in each
+        assertEquals(3, series.downsample(7500000L, 10500000L, min, max, 3));
+        assertEquals(1f, min[0], 0);
+        assertEquals(2f, max[1], 0);
+        assertEquals(-1f, min[2], 0);
+    }
+
+    @Test
+    public void downsampleKeepsSpikesAndSkipsOverwrittenSlots() {
+        TelemetryStore store = new TelemetryStore(1024);
+        TimeSeries series = store.channel(5);
+        for (int i = 0; i < 3000; i++) {
+            store.append(series, i * 1000L, i == 2500 ? 100 : 0);
+        }
+        float[] min = new float[10];
+        float[] max = new float[10];
+        int seen = series.downsample(0, 3000000L, min, max, 10);
+
+        // the ring holds the last 1024, the oldest eighth is left to the writer
+        assertEquals(1024 - 128, seen);
+        assertTrue(Float.isNaN(min[0]));
+        assertEquals(100f, max[8], 0);
+        assertEquals(0f, min[8], 0);
+        assertEquals(0f, max[9], 0);
+    }
+}
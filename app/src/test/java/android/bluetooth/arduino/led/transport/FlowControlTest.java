@@ -0,0 +1,95 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FlowControlTest {
+    private static final long MILLIS = 1000000L;
+
+    @Test
+    public void creditsBoundBytesInFlight() {
+        FlowControl flow = new FlowControl(new LinkMetrics());
+        flow.credit(64, 0, 0);
+        assertEquals(64 - FlowControl.CONTROL_RESERVE, flow.allowance(6, false, 0));
+        flow.sent(60, 0, 0);
+        assertTrue(flow.allowance(6, false, 0) < 6);
+        assertTrue(flow.delayNanos(6, false, 0) > 0);
+        flow.credit(64, 60, MILLIS);
+        assertEquals(0, flow.getInFlight());
+        assertTrue(flow.allowance(6, false, MILLIS) >= 6);
+    }
+
+    @Test
+    public void controlCommandsUseTheReserveAndSkipTheBucket() {
+        FlowControl flow = new FlowControl(new LinkMetrics());
+        flow.credit(64, 0, 0);
+        flow.sent(64 - FlowControl.CONTROL_RESERVE, 0, 0);
+        assertEquals(0, flow.allowance(6, false, 0));
+        assertEquals(FlowControl.CONTROL_RESERVE, flow.allowance(6, true, 0));
+        assertEquals(0, flow.delayNanos(6, true, 0));
+
+        // out of tokens: bulk waits, control does not
+        flow.credit(64, 64, 0);
+        flow.sent(1000, 0, 0);
+        flow.credit(64, 1000, 0);
+        assertTrue(flow.delayNanos(6, false, 0) > 0);
+        assertEquals(0, flow.delayNanos(6, true, 0));
+        assertTrue(flow.allowance(6, true, 0) >= 6);
+    }
+
+    @Test
+    public void commandLargerThanWindowGoesAlone() {
+        FlowControl flow = new FlowControl(new LinkMetrics());
+        flow.credit(64, 0, 0);
+        assertEquals(200, flow.allowance(200, false, 0));
+        flow.sent(200, 0, 0);
+        assertEquals(0, flow.allowance(6, false, 0));
+    }
+
+    @Test
+    public void deviceWithoutCreditsIsPacedByTheBucket() {
+        LinkMetrics metrics = new LinkMetrics();
+        FlowControl flow = new FlowControl(metrics);
+        flow.sent(FlowControl.ASSUMED_WINDOW, 0, 0);
+        long probe = flow.delayNanos(6, false, 0);
+        assertTrue(probe > 0);
+        assertEquals(0, flow.delayNanos(6, false, probe));
+        assertEquals(FlowControl.NO_WINDOW, flow.getWindow());
+
+        // the bucket refilled during the probe, empty it and wait for one command at the initial rate
+        long now = probe;
+        flow.sent(flow.allowance(1, false, now), 0, now);
+        long wait = flow.delayNanos(6, false, now);
+        assertEquals(6 * 1000000000L / FlowControl.INITIAL_RATE, wait, 1000);
+        assertTrue(flow.allowance(6, false, now + wait) >= 6);
+    }
+
+    @Test
+    public void lostCreditIsRecoveredAfterTimeout() {
+        LinkMetrics metrics = new LinkMetrics();
+        FlowControl flow = new FlowControl(metrics);
+        flow.credit(64, 0, 0);
+        flow.sent(64, 0, 0);
+        long wait = flow.delayNanos(6, false, 0);
+        assertEquals(1000 * MILLIS, wait);
+        assertEquals(0, flow.delayNanos(6, false, wait));
+        assertEquals(1, metrics.creditTimeouts.get());
+        assertEquals(64, flow.getWindow());
+    }
+
+    @Test
+    public void stalledWritesCutTheRate() {
+        FlowControl flow = new FlowControl(new LinkMetrics());
+        flow.sent(FlowControl.ASSUMED_WINDOW, 0, 0);
+        flow.delayNanos(6, false, 0);
+        flow.delayNanos(6, false, 1000 * MILLIS);
+        assertEquals(FlowControl.NO_WINDOW, flow.getWindow());
+        long rate = flow.getRate();
+        flow.sent(100, 50 * MILLIS, 1100 * MILLIS);
+        assertTrue(flow.getRate() < rate);
+    }
+}
@@ -0,0 +1,68 @@
+package android.bluetooth.arduino.led.transport;
+
+import android.bluetooth.arduino.led.metrics.LinkMetrics;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WriteLanesTest {
+
+    private static WriteLanes lanes(LinkMetrics metrics) {
+        return new WriteLanes(4, 16, 16, 8, metrics);
+    }
+
+    private static FlowControl unlimited(LinkMetrics metrics) {
+        FlowControl flow = new FlowControl(metrics);
+        flow.credit(1 << 15, 0, 0);
+        return flow;
+    }
+
+    @Test
+    public void controlGoesAheadOfQueuedBulk() {
+        LinkMetrics metrics = new LinkMetrics();
+        WriteLanes lanes = lanes(metrics);
+        lanes.get(WriteLanes.BULK).offer(new byte[]{1, 1}, 0, 2, WriteQueue.NO_KEY);
+        lanes.get(WriteLanes.INTERACTIVE).offer(2, WriteQueue.NO_KEY);
+        lanes.get(WriteLanes.CONTROL).offer(3, WriteQueue.NO_KEY);
+        byte[] batch = new byte[16];
+        assertEquals(4, lanes.drainTo(batch, unlimited(metrics), 0));
+        assertArrayEquals(new byte[]{3, 2, 1, 1}, Arrays.copyOf(batch, 4));
+        assertTrue(lanes.isEmpty());
+        assertEquals(1, metrics.controlLatency.snapshot().getCount());
+        assertEquals(1, metrics.bulkLatency.snapshot().getCount());
+    }
+
+    @Test
+    public void laneThatDoesNotFitHoldsBackTheLanesAfterIt() {
+        LinkMetrics metrics = new LinkMetrics();
+        WriteLanes lanes = lanes(metrics);
+        lanes.get(WriteLanes.INTERACTIVE).offer(new byte[8], 0, 8, WriteQueue.NO_KEY);
+        lanes.get(WriteLanes.INTERACTIVE).offer(new byte[8], 0, 8, WriteQueue.NO_KEY);
+        lanes.get(WriteLanes.BULK).offer(7, WriteQueue.NO_KEY);
+        byte[] batch = new byte[12];
+        assertEquals(8, lanes.drainTo(batch, unlimited(metrics), 0));
+        assertEquals(1, lanes.get(WriteLanes.BULK).size());
+        assertEquals(9, lanes.drainTo(batch, unlimited(metrics), 0));
+        assertTrue(lanes.isEmpty());
+    }
+
+    @Test
+    public void discardedCommandsAreNotWritten() {
+        LinkMetrics metrics = new LinkMetrics();
+        WriteLanes lanes = lanes(metrics);
+        WriteQueue bulk = lanes.get(WriteLanes.BULK);
+        bulk.offer(1, WriteQueue.NO_KEY);
+        bulk.offer(2, WriteQueue.NO_KEY);
+        bulk.discard();
+        bulk.offer(3, WriteQueue.NO_KEY);
+        byte[] batch = new byte[16];
+        assertEquals(1, lanes.drainTo(batch, unlimited(metrics), 0));
+        assertEquals(3, batch[0]);
+        assertEquals(2, bulk.getDiscarded());
+    }
+}
@@ -0,0 +1,58 @@
+package android.bluetooth.arduino.led.voice;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CommandGrammarTest {
+
+    @Test
+    public void fillerIsSkippedAndTheLastCommandCounts() {
+        CommandGrammar grammar = CommandGrammar.standard();
+        int kitchen = grammar.addDevice("kitchen");
+        VoiceCommand command = new VoiceCommand();
+
+        assertTrue(grammar.match("please turn the kitchen lights off", command));
+        assertEquals(VoiceCommand.OFF, command.getAction());
+        assertEquals(kitchen, command.getDevice());
+        assertTrue(grammar.match("Set brightness to 50% now", command));
+        assertEquals(VoiceCommand.BRIGHTNESS, command.getAction());
+        assertEquals(127, command.getValue());
+        assertTrue(grammar.match("red no blue", command));
+        assertEquals(0x0000FF, command.getValue());
+        assertFalse(grammar.match("what time is it", command));
+    }
+
+    @Test
+    public void partialIsSettledOnlyWhenNothingCanFollow() {
+        CommandGrammar grammar = CommandGrammar.standard();
+        VoiceCommand command = new VoiceCommand();
+
+        // "warm white" could still be on the way, and "brightness 5" may become "brightness 50"
+        assertFalse(grammar.match("warm", command));
+        grammar.match("brightness 5", command);
+        assertFalse(command.isSettled());
+        grammar.match("pulse", command);
+        assertTrue(command.isSettled());
+        grammar.match("blue please", command);
+        assertTrue(command.isSettled());
+    }
+
+    @Test
+    public void hypothesesThatDisagreeAreNotSettled() {
+        CommandGrammar grammar = CommandGrammar.standard();
+        VoiceCommand command = new VoiceCommand();
+
+        assertTrue(grammar.match(Arrays.asList("of", "off", "oof"), command));
+        assertEquals(VoiceCommand.OFF, command.getAction());
+        assertEquals(1, command.getHypothesis());
+        assertTrue(command.isSettled());
+        assertTrue(grammar.match(Arrays.asList("turn on", "turn off"), command));
+        assertEquals(VoiceCommand.ON, command.getAction());
+        assertFalse(command.isSettled());
+    }
+}
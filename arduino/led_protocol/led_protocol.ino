@@ -0,0 +1,331 @@
+// Reference parser for the framed LED protocol.
+// Frame: [0x7E][opcode][length][payload ...][crc8 over opcode, length and payload], polynomial 0x07.
+// A bare 0 or 1 outside a frame still switches the LED, so the old single byte commands keep working.
+
+#include <SoftwareSerial.h>
+#include <Adafruit_NeoPixel.h>
+
+#define FRAME_START 0x7E
+#define MAX_PAYLOAD 255
+
+#define OP_LED 0x01
+#define OP_PWM 0x02
+#define OP_ACK 0x03
+#define OP_PING 0x04
+#define OP_PONG 0x05
+#define OP_TIME 0x06
+#define OP_TIME_REPLY 0x07
+#define OP_EXECUTED 0x08
+#define OP_STRIP 0x09
+#define OP_CREDIT 0x0A
+#define OP_TELEMETRY 0x0B
+#define OP_SEQ 0x10
+#define OP_AT 0x11
+
+// commands waiting for their OP_AT time, each keeps up to AT_PAYLOAD bytes of payload
+#define AT_SLOTS 8
+#define AT_PAYLOAD 16
+
+#define LED_PIN 13
+
+// receive window advertised with OP_CREDIT, the SoftwareSerial buffer. the app never has more than this
+// on the way, so nothing overruns the buffer while handleFrame or strip.show() keep the loop busy
+#define CREDIT_WINDOW 64
+#define CREDIT_IDLE_MILLIS 20
+
+// addressable strip fed by OP_STRIP packets, see StripEncoder in the app for the format.
+// show() blocks interrupts for about 30 us per pixel and SoftwareSerial loses bytes meanwhile,
+// for long strips put the HC-05 on the hardware serial port instead
+#define STRIP_PIN 7
+#define STRIP_PIXELS 150
+#define STRIP_KEYFRAME 0x01
+#define STRIP_SHOW 0x02
+
+// analog input reported with OP_TELEMETRY in blocks of samples, the app charts it live.
+// 9600 baud SoftwareSerial carries about 450 samples per second, a few kHz need the hardware serial port.
+// off by default: a block keeps the loop sending for about 50 ms, and SoftwareSerial drops the commands
+// that arrive meanwhile. turn it on for a board that mostly reports, or one on the hardware serial port
+#define TELEMETRY_ENABLED 0
+#define TELEMETRY_PIN A0
+#define TELEMETRY_CHANNEL 0
+#define TELEMETRY_INTERVAL_MICROS 10000
+#define TELEMETRY_BLOCK 20
+
+SoftwareSerial bluetooth(10, 11); // RX, TX of the HC-05
+
+enum State { HUNT, OPCODE, LENGTH, PAYLOAD, CRC };
+
+State state = HUNT;
+uint8_t opcode;
+uint8_t length;
+uint8_t received;
+uint8_t crc;
+uint8_t payload[MAX_PAYLOAD];
+uint16_t unreported = 0;
+uint32_t lastCredit;
+// [channel][interval micros, 2 bytes][sample, 2 bytes] ...
+uint8_t telemetry[3 + TELEMETRY_BLOCK * 2] = {TELEMETRY_CHANNEL, TELEMETRY_INTERVAL_MICROS >> 8, TELEMETRY_INTERVAL_MICROS & 0xFF};
+uint8_t telemetrySamples = 0;
+uint32_t lastSample;
+
+struct Scheduled {
+  bool used;
+  uint8_t id;
+  uint32_t at;
+  uint8_t opcode;
+  uint8_t length;
+  uint8_t payload[AT_PAYLOAD];
+};
+
+Scheduled scheduled[AT_SLOTS];
+
+Adafruit_NeoPixel strip(STRIP_PIXELS, STRIP_PIN, NEO_GRB + NEO_KHZ800);
+bool stripSynced = false;
+uint8_t stripFrame;
+uint8_t stripNextIndex;
+
+uint8_t crc8(uint8_t crc, uint8_t value) {
+  crc ^= value;
+  for (uint8_t bit = 0; bit < 8; bit++) {
+    crc = (crc & 0x80) ? (crc << 1) ^ 0x07 : crc << 1;
+  }
+  return crc;
+}
+
+void sendFrame(uint8_t opcode, uint8_t *payload, uint8_t length) {
+  uint8_t crc = crc8(crc8(0, opcode), length);
+  bluetooth.write(FRAME_START);
+  bluetooth.write(opcode);
+  bluetooth.write(length);
+  for (uint8_t i = 0; i < length; i++) {
+    bluetooth.write(payload[i]);
+    crc = crc8(crc, payload[i]);
+  }
+  bluetooth.write(crc);
+}
+
+uint32_t readUint32(uint8_t *bytes) {
+  return (uint32_t) bytes[0] << 24 | (uint32_t) bytes[1] << 16 | (uint32_t) bytes[2] << 8 | bytes[3];
+}
+
+void writeUint32(uint8_t *bytes, uint32_t value) {
+  bytes[0] = value >> 24;
+  bytes[1] = value >> 16;
+  bytes[2] = value >> 8;
+  bytes[3] = value;
+}
+
+void handleFrame(uint8_t opcode, uint8_t *payload, uint8_t length);
+
+void sendCredit() {
+  // [window, 2 bytes][bytes read since the last credit, 2 bytes]
+  uint8_t credit[4] = {CREDIT_WINDOW >> 8, CREDIT_WINDOW & 0xFF, unreported >> 8, unreported & 0xFF};
+  sendFrame(OP_CREDIT, credit, 4);
+  unreported = 0;
+  lastCredit = millis();
+}
+
+void sampleTelemetry() {
+  if (micros() - lastSample < TELEMETRY_INTERVAL_MICROS) {
+    return;
+  }
+  lastSample += TELEMETRY_INTERVAL_MICROS;
+  int value = analogRead(TELEMETRY_PIN);
+  telemetry[3 + telemetrySamples * 2] = value >> 8;
+  telemetry[4 + telemetrySamples * 2] = value & 0xFF;
+  if (++telemetrySamples == TELEMETRY_BLOCK) {
+    sendFrame(OP_TELEMETRY, telemetry, sizeof(telemetry));
+    telemetrySamples = 0;
+  }
+}
+
+void handleStrip(uint8_t *payload, uint8_t length) {
+  // [frame id][flags, packet index in the high nibble][first pixel, 2 bytes][ops ...]
+  if (length < 4) {
+    return;
+  }
+  uint8_t id = payload[0];
+  uint8_t flags = payload[1];
+  uint8_t index = flags >> 4;
+  if (index == 0) {
+    // a delta only applies on top of the frame right before it, anything else waits for a keyframe
+    stripSynced = (flags & STRIP_KEYFRAME) || (stripSynced && id == (uint8_t) (stripFrame + 1));
+    stripFrame = id;
+  } else if (id != stripFrame || index != stripNextIndex) {
+    stripSynced = false;
+  }
+  if (!stripSynced) {
+    return;
+  }
+  stripNextIndex = index + 1;
+  uint16_t pixel = (uint16_t) payload[2] << 8 | payload[3];
+  uint16_t i = 4;
+  while (i < length) {
+    uint8_t op = payload[i] & 0xC0;
+    uint8_t count = (payload[i] & 0x3F) + 1;
+    i++;
+    if (op == 0x00) {
+      // skip unchanged pixels
+      pixel += count;
+    } else if (op == 0x40) {
+      // literal pixels, 3 bytes each
+      for (uint8_t n = 0; n < count && i + 2 < length; n++, pixel++, i += 3) {
+        strip.setPixelColor(pixel, payload[i], payload[i + 1], payload[i + 2]);
+      }
+    } else if (op == 0x80 && i + 2 < length) {
+      // one color for count pixels
+      for (uint8_t n = 0; n < count; n++, pixel++) {
+        strip.setPixelColor(pixel, payload[i], payload[i + 1], payload[i + 2]);
+      }
+      i += 3;
+    } else {
+      break;
+    }
+  }
+  if (flags & STRIP_SHOW) {
+    strip.show();
+  }
+}
+
+void schedule(uint8_t *payload, uint8_t length) {
+  // [id][at, 4 bytes][opcode][payload ...]
+  if (length < 6 || length - 6 > AT_PAYLOAD) {
+    return;
+  }
+  uint32_t at = readUint32(payload + 1);
+  for (uint8_t i = 0; i < AT_SLOTS; i++) {
+    // a retransmitted OP_SEQ whose ack got lost brings the same command again, it keeps its one slot
+    if (scheduled[i].used && scheduled[i].id == payload[0] && scheduled[i].at == at) {
+      return;
+    }
+  }
+  for (uint8_t i = 0; i < AT_SLOTS; i++) {
+    if (!scheduled[i].used) {
+      scheduled[i].used = true;
+      scheduled[i].id = payload[0];
+      scheduled[i].at = at;
+      scheduled[i].opcode = payload[5];
+      scheduled[i].length = length - 6;
+      memcpy(scheduled[i].payload, payload + 6, length - 6);
+      return;
+    }
+  }
+}
+
+void runScheduled() {
+  uint32_t now = micros();
+  for (uint8_t i = 0; i < AT_SLOTS; i++) {
+    // the signed difference keeps working when micros() wraps after about 71 minutes
+    if (scheduled[i].used && (int32_t) (now - scheduled[i].at) >= 0) {
+      scheduled[i].used = false;
+      handleFrame(scheduled[i].opcode, scheduled[i].payload, scheduled[i].length);
+      uint8_t report[9];
+      report[0] = scheduled[i].id;
+      writeUint32(report + 1, scheduled[i].at);
+      writeUint32(report + 5, now);
+      sendFrame(OP_EXECUTED, report, 9);
+    }
+  }
+}
+
+void handleFrame(uint8_t opcode, uint8_t *payload, uint8_t length) {
+  switch (opcode) {
+    case OP_PING:
+      sendFrame(OP_PONG, payload, length);
+      break;
+    case OP_TIME:
+      // echo the host's timestamp and append our clock, read as late as possible. the reply gets a buffer
+      // of its own, the payload may be a scheduled slot or sit at the end of the frame buffer
+      if (length <= MAX_PAYLOAD - 4) {
+        uint8_t reply[MAX_PAYLOAD];
+        memcpy(reply, payload, length);
+        writeUint32(reply + length, micros());
+        sendFrame(OP_TIME_REPLY, reply, length + 4);
+      }
+      break;
+    case OP_AT:
+      schedule(payload, length);
+      break;
+    case OP_STRIP:
+      handleStrip(payload, length);
+      break;
+    case OP_SEQ:
+      // [seq][opcode][payload ...]: run the wrapped command, then acknowledge the sequence number
+      if (length >= 2) {
+        handleFrame(payload[1], payload + 2, length - 2);
+        sendFrame(OP_ACK, payload, 1);
+      }
+      break;
+    case OP_LED:
+      if (length >= 2) {
+        digitalWrite(LED_PIN, payload[1] ? HIGH : LOW);
+      }
+      break;
+    case OP_PWM:
+      if (length >= 2) {
+        analogWrite(payload[0], payload[1]);
+      }
+      break;
+  }
+}
+
+void parse(uint8_t value) {
+  switch (state) {
+    case HUNT:
+      if (value == FRAME_START) {
+        state = OPCODE;
+      } else if (value == 0 || value == 1) {
+        digitalWrite(LED_PIN, value ? HIGH : LOW);
+      }
+      break;
+    case OPCODE:
+      opcode = value;
+      crc = crc8(0, value);
+      state = LENGTH;
+      break;
+    case LENGTH:
+      length = value;
+      received = 0;
+      crc = crc8(crc, value);
+      state = length == 0 ? CRC : PAYLOAD;
+      break;
+    case PAYLOAD:
+      payload[received++] = value;
+      crc = crc8(crc, value);
+      if (received == length) {
+        state = CRC;
+      }
+      break;
+    case CRC:
+      if (value == crc) {
+        handleFrame(opcode, payload, length);
+      }
+      state = HUNT;
+      break;
+  }
+}
+
+void setup() {
+  pinMode(LED_PIN, OUTPUT);
+  strip.begin();
+  strip.show();
+  bluetooth.begin(9600);
+  lastSample = micros();
+}
+
+void loop() {
+  while (bluetooth.available() > 0) {
+    parse(bluetooth.read());
+    unreported++;
+    runScheduled();
+  }
+  runScheduled();
+  // hand the read bytes back once half the window is used up, the rest once the input went quiet.
+  // SoftwareSerial cannot receive while it sends, so credits only go out between incoming bytes
+  if (unreported >= CREDIT_WINDOW / 2 || (unreported > 0 && millis() - lastCredit >= CREDIT_IDLE_MILLIS)) {
+    sendCredit();
+  }
+#if TELEMETRY_ENABLED
+  sampleTelemetry();
+#endif
+}
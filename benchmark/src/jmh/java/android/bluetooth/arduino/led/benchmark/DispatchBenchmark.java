@@ -0,0 +1,113 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.bluetooth.EventDispatcher;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.ReceiveBufferPool;
+import android.bluetooth.arduino.led.transport.Transport;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// reader thread -> listener hand-off: one message per read the way a Handler fan-out does it,
+// against the EventDispatcher that copies the read, frees the buffer at once and merges reads per listener run
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DispatchBenchmark {
+    private final ReceiveBufferPool pool = new ReceiveBufferPool(8, 1024);
+    // MessageQueue is a locked linked list as well
+    private final LinkedBlockingQueue<ReceiveBuffer> looper = new LinkedBlockingQueue<>();
+    private final AtomicLong delivered = new AtomicLong();
+    private final Transport source = new Transport() {
+        @Override
+        public String getName() {
+            return "source";
+        }
+
+        @Override
+        public String getAddress() {
+            return "source";
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            buffer[offset] = 1;
+            return 64;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+    private Thread looperThread;
+    private final EventDispatcher dispatcher = new EventDispatcher(32, 4096);
+    private ExecutorService listenerThread;
+
+    @Setup
+    public void setup() {
+        looperThread = new Thread(() -> {
+            try {
+                while (true) {
+                    ReceiveBuffer buffer = looper.take();
+                    if (buffer.getData()[buffer.getOffset()] != 0) {
+                        delivered.addAndGet(buffer.getLength());
+                    }
+                    buffer.release();
+                }
+            } catch (InterruptedException ignored) {
+            }
+        }, "Looper");
+        looperThread.setDaemon(true);
+        looperThread.start();
+        listenerThread = Executors.newSingleThreadExecutor();
+        dispatcher.register(event -> {
+            if (event.getData()[event.getOffset()] != 0) {
+                delivered.addAndGet(event.getLength());
+            }
+        }, listenerThread, true);
+    }
+
+    @TearDown
+    public void tearDown() {
+        looperThread.interrupt();
+        listenerThread.shutdownNow();
+    }
+
+    @Benchmark
+    public void readAndDispatch() throws Exception {
+        ReceiveBuffer buffer = pool.acquire();
+        buffer.readFrom(source);
+        looper.put(buffer);
+    }
+
+    @Benchmark
+    public void readAndDispatchBatched() throws Exception {
+        ReceiveBuffer buffer = pool.acquire();
+        buffer.readFrom(source);
+        try {
+            dispatcher.dataReceived(buffer.getData(), buffer.getOffset(), buffer.getLength());
+        } finally {
+            buffer.release();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.effect.Chase;
+import android.bluetooth.arduino.led.effect.Effect;
+import android.bluetooth.arduino.led.effect.Fade;
+import android.bluetooth.arduino.led.effect.Keyframes;
+import android.bluetooth.arduino.led.effect.Pulse;
+import android.bluetooth.arduino.led.effect.Strobe;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+// one rendered frame per call, run with -prof gc to check that rendering allocates nothing
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EffectBenchmark {
+    @Param({"fade", "pulse", "strobe", "chase", "keyframes"})
+    public String name;
+    @Param({"3", "60"})
+    public int channels;
+    private Effect effect;
+    private byte[] frame;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        frame = new byte[channels];
+        switch (name) {
+            case "fade":
+                effect = new Fade(0, 255, 1000);
+                break;
+            case "pulse":
+                effect = new Pulse(0, 255, 1000);
+                break;
+            case "strobe":
+                effect = new Strobe(255, 100, 50);
+                break;
+            case "chase":
+                effect = new Chase(255, 50);
+                break;
+            default:
+                effect = new Keyframes(new long[]{0, 250, 500, 1000}, new int[]{0, 0, 0, 255, 0, 0, 0, 255, 0, 0, 0, 255}, 3, true);
+        }
+    }
+
+    @Benchmark
+    public byte[] render() {
+        // one 60 fps frame further each call
+        time += 16666667L;
+        effect.render(time, frame, channels);
+        return frame;
+    }
+}
@@ -0,0 +1,58 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameDecoderBenchmark {
+    private static final int FRAMES = 1000;
+
+    // bytes handed over per read, 1 is the worst case of a frame split everywhere
+    @Param({"1", "16", "1024"})
+    public int chunk;
+
+    private byte[] stream;
+    private int length;
+    private FrameDecoder decoder;
+    private Blackhole blackhole;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        this.blackhole = blackhole;
+        ByteBuffer buffer = ByteBuffer.allocate(FRAMES * Frame.size(4));
+        byte[] payload = new byte[4];
+        for (int i = 0; i < FRAMES; i++) {
+            payload[0] = (byte) i;
+            FrameEncoder.encode(buffer, Frame.OP_PWM, payload, 0, payload.length);
+        }
+        stream = buffer.array();
+        length = buffer.position();
+        decoder = new FrameDecoder((opcode, bytes, offset, count) -> this.blackhole.consume(bytes[offset]));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public long decode() {
+        for (int offset = 0; offset < length; offset += chunk) {
+            decoder.decode(stream, offset, Math.min(chunk, length - offset));
+        }
+        return decoder.getFrames();
+    }
+}
@@ -0,0 +1,34 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FrameEncoderBenchmark {
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final byte[] payload = new byte[64];
+    private int value;
+
+    @Benchmark
+    public ByteBuffer ledCommand() {
+        return encoder.encode(Frame.OP_LED, 0, value++);
+    }
+
+    @Benchmark
+    public ByteBuffer payload64() {
+        payload[0] = (byte) value++;
+        return encoder.encode(Frame.OP_PWM, payload, 0, payload.length);
+    }
+}
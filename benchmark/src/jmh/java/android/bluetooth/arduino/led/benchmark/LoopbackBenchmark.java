@@ -0,0 +1,96 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.bluetooth.BluetoothConnection;
+import android.bluetooth.arduino.led.bluetooth.ConnectionCallback;
+import android.bluetooth.arduino.led.protocol.CommandFuture;
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.transport.LoopbackTransport;
+import android.bluetooth.arduino.led.transport.ReceiveBuffer;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// commands per second through the real connection, writer thread and reader thread against the simulator
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoopbackBenchmark {
+    private static final int BATCH = 100;
+
+    // one way link latency of the simulated RFCOMM link
+    @Param({"0", "15"})
+    public long latencyMillis;
+
+    private BluetoothConnection connection;
+    private LoopbackTransport transport;
+    private final FrameEncoder encoder = new FrameEncoder();
+    private final byte[] payload = new byte[]{0, 1};
+
+    @Setup
+    public void setup() throws InterruptedException {
+        connection = new BluetoothConnection(new ConnectionCallback() {
+            @Override
+            public void stateChanged(int state) {
+            }
+
+            @Override
+            public void deviceConnected(String name, String address) {
+            }
+
+            @Override
+            public void dataReceived(ReceiveBuffer buffer) {
+                buffer.release();
+            }
+        });
+        transport = new LoopbackTransport(0, latencyMillis, 0);
+        connection.connect(transport);
+        while (connection.getState() != BluetoothConnection.STATE_CONNECTED) {
+            Thread.sleep(1);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        connection.connectionStop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long fireAndForget() throws InterruptedException {
+        long target = transport.getSimulator().getBytesReceived() + BATCH * Frame.size(2);
+        for (int i = 0; i < BATCH; i++) {
+            ByteBuffer frame = encoder.encode(Frame.OP_LED, 0, i & 1);
+            while (!connection.write(WriteQueue.NO_KEY, frame.array(), 0, frame.limit())) {
+                Thread.yield();
+            }
+        }
+        while (transport.getSimulator().getBytesReceived() < target) {
+            Thread.yield();
+        }
+        return target;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public boolean acknowledged() throws InterruptedException {
+        CommandFuture last = null;
+        for (int i = 0; i < BATCH; i++) {
+            payload[1] = (byte) (i & 1);
+            last = connection.writeReliable(Frame.OP_LED, payload, 0, payload.length);
+        }
+        return last.await(30, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,58 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.scene.CompiledScene;
+import android.bluetooth.arduino.led.scene.Scene;
+import android.bluetooth.arduino.led.transport.WriteQueue;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// triggering a scene of 24 PWM commands on one link: the compiled batch against encoding and queueing
+// every command at the call site, both drained by the writer like a real link
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SceneBenchmark {
+    private static final int COMMANDS = 24;
+    private final WriteQueue queue = new WriteQueue(256, Frame.MAX_FRAME_SIZE);
+    private final byte[] batch = new byte[4096];
+    private final FrameEncoder encoder = new FrameEncoder();
+    private CompiledScene scene;
+
+    @Setup
+    public void setUp() {
+        Scene source = new Scene("bench");
+        for (int i = 0; i < COMMANDS; i++) {
+            source.add(Scene.ANY_DEVICE, 0, Frame.OP_PWM, i, i * 10);
+        }
+        scene = source.compile();
+    }
+
+    @Benchmark
+    public int compiled() {
+        byte[] data = scene.getData();
+        for (int i = 0; i < scene.getBatchCount(); i++) {
+            queue.offer(data, scene.getOffset(i), scene.getLength(i), WriteQueue.NO_KEY);
+        }
+        return queue.drainTo(batch);
+    }
+
+    @Benchmark
+    public int encodedPerCommand() {
+        for (int i = 0; i < COMMANDS; i++) {
+            ByteBuffer frame = encoder.encode(Frame.OP_PWM, i, i * 10);
+            queue.offer(frame.array(), 0, frame.limit(), WriteQueue.NO_KEY);
+        }
+        return queue.drainTo(batch);
+    }
+}
@@ -0,0 +1,77 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.protocol.StripEncoder;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+// encode cost per frame. the encoded bytes and frames of each iteration are reported next to it,
+// bytes / frames is what decides the frame rate over SPP
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StripEncoderBenchmark {
+    @Param({"150", "600"})
+    public int pixels;
+    // comet: a few pixels move over a dim background, rainbow: every pixel changes every frame
+    @Param({"comet", "rainbow"})
+    public String pattern;
+    private StripEncoder encoder;
+    private ByteBuffer out;
+    private byte[] rgb;
+    private int frame;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Output {
+        public long bytes;
+        public long frames;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+            frames = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        encoder = new StripEncoder(pixels, 50);
+        out = ByteBuffer.allocate(StripEncoder.maxEncodedSize(pixels));
+        rgb = new byte[pixels * 3];
+    }
+
+    @Benchmark
+    public int encode(Output output) {
+        frame++;
+        if (pattern.equals("comet")) {
+            int head = frame % pixels;
+            for (int i = 0; i < pixels; i++) {
+                int distance = (head - i + pixels) % pixels;
+                rgb[i * 3] = (byte) (distance < 5 ? 255 - distance * 50 : 10);
+            }
+        } else {
+            for (int i = 0; i < pixels; i++) {
+                rgb[i * 3] = (byte) (i + frame);
+                rgb[i * 3 + 1] = (byte) (i * 2 + frame);
+                rgb[i * 3 + 2] = (byte) (i * 3 + frame);
+            }
+        }
+        out.clear();
+        int packets = encoder.encode(rgb, out);
+        output.bytes += out.position();
+        output.frames++;
+        return packets;
+    }
+}
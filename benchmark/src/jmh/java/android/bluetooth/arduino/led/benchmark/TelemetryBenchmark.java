@@ -0,0 +1,78 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.protocol.Frame;
+import android.bluetooth.arduino.led.protocol.FrameDecoder;
+import android.bluetooth.arduino.led.protocol.FrameEncoder;
+import android.bluetooth.arduino.led.telemetry.TelemetryParser;
+import android.bluetooth.arduino.led.telemetry.TelemetryStore;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+// one read of reported samples through the reader thread path, and one chart column set drawn from a full ring
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TelemetryBenchmark {
+    // binary: 8 OP_TELEMETRY frames of 100 samples, text: 100 serial plotter lines of three values
+    @Param({"binary", "text"})
+    public String format;
+    private byte[] read;
+    private FrameDecoder decoder;
+    private TelemetryStore store;
+    private float[] min = new float[1080];
+    private float[] max = new float[1080];
+
+    @Setup
+    public void setUp() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (format.equals("binary")) {
+            FrameEncoder encoder = new FrameEncoder();
+            byte[] payload = new byte[3 + 200];
+            payload[2] = (byte) 250;
+            for (int frame = 0; frame < 8; frame++) {
+                for (int i = 3; i < payload.length; i++) {
+                    payload[i] = (byte) (i * 31 + frame);
+                }
+                ByteBuffer encoded = encoder.encode(Frame.OP_TELEMETRY, payload, 0, payload.length);
+                bytes.write(encoded.array(), 0, encoded.limit());
+            }
+        } else {
+            for (int line = 0; line < 100; line++) {
+                byte[] text = ("temp:" + (20 + line % 7) + ".5,light:" + line * 3 + ",current:-0." + line + "\r\n").getBytes(StandardCharsets.US_ASCII);
+                bytes.write(text, 0, text.length);
+            }
+        }
+        read = bytes.toByteArray();
+        store = new TelemetryStore(16384);
+        final TelemetryParser parser = new TelemetryParser(store);
+        decoder = new FrameDecoder((opcode, payload, offset, length) -> parser.frameReceived(payload, offset, length, System.nanoTime()));
+        decoder.setTextListener(parser);
+        for (int i = 0; i < 100; i++) {
+            decoder.decode(read, 0, read.length);
+        }
+    }
+
+    @Benchmark
+    public long parse() {
+        decoder.decode(read, 0, read.length);
+        return store.getSamples();
+    }
+
+    @Benchmark
+    public int downsample() {
+        long now = System.nanoTime();
+        return store.get(0).downsample(now - 5000000000L, now, min, max, min.length);
+    }
+}
@@ -0,0 +1,53 @@
+package android.bluetooth.arduino.led.benchmark;
+
+import android.bluetooth.arduino.led.voice.CommandGrammar;
+import android.bluetooth.arduino.led.voice.VoiceCommand;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// matching one partial result, all of its N-best hypotheses, as it happens several times per utterance
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class VoiceGrammarBenchmark {
+    // short: "off", long: a sentence with filler around the command
+    @Param({"short", "long"})
+    public String utterance;
+    private CommandGrammar grammar;
+    private List<String> hypotheses;
+    private final VoiceCommand command = new VoiceCommand();
+
+    @Setup
+    public void setUp() {
+        grammar = CommandGrammar.standard();
+        grammar.addDevice("kitchen");
+        grammar.addDevice("desk lamp");
+        grammar.compile();
+        if (utterance.equals("short")) {
+            hypotheses = Arrays.asList("off", "of", "oof");
+        } else {
+            hypotheses = Arrays.asList("could you please set the kitchen brightness to 40 percent",
+                    "could you please set the kitchen brightness to 14 percent",
+                    "could you please set the chicken brightness to 40 percent",
+                    "could you please set the kitchen brightness 240 percent",
+                    "good you please set the kitchen brightness to 40 percent");
+        }
+    }
+
+    @Benchmark
+    public int match() {
+        grammar.match(hypotheses, command);
+        return command.getValue();
+    }
+}